@@ -39,14 +39,15 @@ import io.vertx.serviceproxy.ProxyHelper;
 import io.vertx.serviceproxy.ProxyHandler;
 import io.vertx.serviceproxy.ServiceException;
 import io.vertx.serviceproxy.ServiceExceptionMessageCodec;
-import io.vertx.core.json.JsonArray;
-import java.util.List;
-import com.vertxexploration.webapp.db.WikiDatabaseService;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.reactivex.ext.jdbc.JDBCClient;
 import com.vertxexploration.webapp.db.SqlQuery;
 import io.vertx.core.Vertx;
-import io.vertx.core.json.JsonObject;
 import java.util.HashMap;
+import io.vertx.core.json.JsonArray;
+import java.util.List;
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 
@@ -147,10 +148,48 @@ public class WikiDatabaseServiceVertxProxyHandler extends ProxyHandler {
         }
 
 
+
+
         case "fetchPageById": {
           service.fetchPageById(json.getValue("id") == null ? null : (json.getLong("id").intValue()), createHandler(msg));
           break;
         }
+        case "fetchPageContentChunk": {
+          service.fetchPageContentChunk(json.getValue("id") == null ? null : (json.getLong("id").intValue()), json.getValue("offset") == null ? null : (json.getLong("offset").intValue()), json.getValue("length") == null ? null : (json.getLong("length").intValue()), createHandler(msg));
+          break;
+        }
+        case "fetchPageRevisions": {
+          service.fetchPageRevisions(json.getValue("id") == null ? null : (json.getLong("id").intValue()), createHandler(msg));
+          break;
+        }
+        case "fetchPageRevision": {
+          service.fetchPageRevision(json.getValue("id") == null ? null : (json.getLong("id").intValue()), json.getValue("revision") == null ? null : (json.getLong("revision").intValue()), createHandler(msg));
+          break;
+        }
+        case "exportPages": {
+          service.exportPages(json.getValue("afterId") == null ? null : (json.getLong("afterId").intValue()), json.getValue("limit") == null ? null : (json.getLong("limit").intValue()), createHandler(msg));
+          break;
+        }
+        case "fetchChangedPages": {
+          service.fetchChangedPages(json.getValue("since") == null ? null : (json.getLong("since").longValue()), json.getValue("afterId") == null ? null : (json.getLong("afterId").intValue()), json.getValue("limit") == null ? null : (json.getLong("limit").intValue()), createHandler(msg));
+          break;
+        }
+        case "importPages": {
+          service.importPages((io.vertx.core.json.JsonArray)json.getValue("pages"), createHandler(msg));
+          break;
+        }
+        case "addPageViews": {
+          service.addPageViews((io.vertx.core.json.JsonObject)json.getValue("views"), createHandler(msg));
+          break;
+        }
+        case "fetchTopViewedPages": {
+          service.fetchTopViewedPages(json.getValue("limit") == null ? null : (json.getLong("limit").intValue()), createHandler(msg));
+          break;
+        }
+        case "flush": {
+          service.flush(createHandler(msg));
+          break;
+        }
         default: {
           throw new IllegalStateException("Invalid action: " + action);
         }
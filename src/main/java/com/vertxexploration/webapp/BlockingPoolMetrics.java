@@ -0,0 +1,167 @@
+package com.vertxexploration.webapp;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.impl.VertxInternal;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.metrics.MetricsOptions;
+import io.vertx.core.metrics.impl.DummyVertxMetrics;
+import io.vertx.core.spi.VertxMetricsFactory;
+import io.vertx.core.spi.metrics.PoolMetrics;
+import io.vertx.core.spi.metrics.VertxMetrics;
+
+/**
+ * Queue length and wait time of the pools blocking work goes through: the
+ * Vert.x worker pools (the default one and the named ones such as the
+ * database verticle pool) and the JDBC connection pools, where queries wait
+ * for a free connection. Only the pool metrics are collected, everything
+ * else is left to {@link DummyVertxMetrics}.
+ * <p>
+ * Registered as a {@link VertxMetricsFactory} service, so the launcher
+ * enables it. When creating Vert.x by hand, pass it in the options:
+ *
+ * <pre>
+ * Vertx.vertx(new VertxOptions().setMetricsOptions(new MetricsOptions().setEnabled(true)
+ * 		.setFactory(new BlockingPoolMetrics())));
+ * </pre>
+ */
+public class BlockingPoolMetrics implements VertxMetricsFactory {
+
+	// Weight of the last task in the recent averages
+	private static final double RECENT_WEIGHT = 0.1;
+
+	@Override
+	public VertxMetrics metrics(Vertx vertx, VertxOptions options) {
+		return new Metrics();
+	}
+
+	@Override
+	public MetricsOptions newOptions() {
+		return new MetricsOptions().setEnabled(true);
+	}
+
+	/**
+	 * @return {@code {<pool name>: {"type": "worker" | "datasource", ...}}}, empty when the metrics are not
+	 *         enabled on this Vert.x instance
+	 */
+	public static JsonObject stats(Vertx vertx) {
+		JsonObject stats = new JsonObject();
+		VertxMetrics metrics = ((VertxInternal) vertx).metricsSPI();
+		if (metrics instanceof Metrics) {
+			((Metrics) metrics).pools.forEach((name, pool) -> stats.put(name, pool.stats()));
+		}
+		return stats;
+	}
+
+	private static class Metrics extends DummyVertxMetrics {
+		private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+
+		@Override
+		public <P> PoolMetrics<?> createMetrics(P pool, String poolType, String poolName, int maxPoolSize) {
+			if (!"worker".equals(poolType) && !"datasource".equals(poolType)) {
+				return super.createMetrics(pool, poolType, poolName, maxPoolSize);
+			}
+			// A named pool is created again after all its users closed it
+			Pool metrics = new Pool(poolType, maxPoolSize);
+			metrics.onClose = () -> pools.remove(poolName, metrics);
+			pools.put(poolName, metrics);
+			return metrics;
+		}
+	}
+
+	private static class Task {
+		private final long submitted = System.nanoTime();
+		private long started;
+	}
+
+	private static class Pool implements PoolMetrics<Task> {
+		private final String type;
+		private final int size;
+		private Runnable onClose = () -> {};
+		private final AtomicInteger queued = new AtomicInteger();
+		private final AtomicInteger maxQueued = new AtomicInteger();
+		private final AtomicInteger running = new AtomicInteger();
+		private final LongAdder started = new LongAdder();
+		private final LongAdder completed = new LongAdder();
+		private final LongAdder failed = new LongAdder();
+		private final LongAdder rejected = new LongAdder();
+		private final LongAdder waitNanos = new LongAdder();
+		private final AtomicLong maxWaitNanos = new AtomicLong();
+		private final AtomicLong recentWaitNanos = new AtomicLong();
+		private final AtomicLong recentRunNanos = new AtomicLong();
+
+		Pool(String type, int size) {
+			this.type = type;
+			this.size = size;
+		}
+
+		@Override
+		public Task submitted() {
+			maxQueued.accumulateAndGet(queued.incrementAndGet(), Math::max);
+			return new Task();
+		}
+
+		@Override
+		public Task begin(Task task) {
+			queued.decrementAndGet();
+			running.incrementAndGet();
+			started.increment();
+			task.started = System.nanoTime();
+			long wait = task.started - task.submitted;
+			waitNanos.add(wait);
+			maxWaitNanos.accumulateAndGet(wait, Math::max);
+			recentWaitNanos.accumulateAndGet(wait, Pool::decay);
+			return task;
+		}
+
+		@Override
+		public void rejected(Task task) {
+			queued.decrementAndGet();
+			rejected.increment();
+		}
+
+		@Override
+		public void end(Task task, boolean succeeded) {
+			running.decrementAndGet();
+			(succeeded ? completed : failed).increment();
+			recentRunNanos.accumulateAndGet(System.nanoTime() - task.started, Pool::decay);
+		}
+
+		@Override
+		public boolean isEnabled() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+			onClose.run();
+		}
+
+		private static long decay(long average, long sample) {
+			return average + (long) ((sample - average) * RECENT_WEIGHT);
+		}
+
+		private JsonObject stats() {
+			long begun = started.sum();
+			return new JsonObject()
+					.put("type", type)
+					.put("size", size)
+					.put("queued", queued.get())
+					.put("maxQueued", maxQueued.get())
+					.put("running", running.get())
+					.put("completed", completed.sum())
+					.put("failed", failed.sum())
+					.put("rejected", rejected.sum())
+					.put("avgWaitMillis", begun == 0 ? 0.0 : waitNanos.sum() / 1e6 / begun)
+					.put("maxWaitMillis", maxWaitNanos.get() / 1e6)
+					.put("recentWaitMillis", recentWaitNanos.get() / 1e6)
+					.put("recentRunMillis", recentRunNanos.get() / 1e6);
+		}
+	}
+}
@@ -1,14 +1,34 @@
 package com.vertxexploration.webapp;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.rjeschke.txtmark.Processor;
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+import com.vertxexploration.webapp.db.WikiDatabaseVerticle;
+import com.vertxexploration.webapp.http.HttpServerVerticle;
+
+import io.reactivex.Completable;
 import io.reactivex.Single;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.client.WebClientOptions;
 import io.vertx.reactivex.core.AbstractVerticle;
+import io.vertx.reactivex.ext.web.client.WebClient;
 
 public class MainVerticle extends AbstractVerticle {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MainVerticle.class);
+
+	public static final String CONFIG_STARTUP_WARMUP_ITERATIONS = "startup.warmup.iterations";
 
 	@Override
 	public void start(Future<Void> startFuture) throws Exception {
+		long startupStart = System.currentTimeMillis();
 
 		/*
 		 * Future<String> dbVerticleDeployment = Future.future();
@@ -16,29 +36,136 @@ public class MainVerticle extends AbstractVerticle {
 		 * dbVerticleDeployment.completer());
 		 */
 
-		Single<String> dbVerticleDeployment = vertx.rxDeployVerticle("com.vertxexploration.webapp.db.WikiDatabaseVerticle");
+		Single<String> dbVerticleDeployment = timed("deploy-db", deployDatabase());
 
 		dbVerticleDeployment.flatMap(id -> {
 
-			Single<String> httpVerticleDeployment = vertx.rxDeployVerticle(
-					"com.vertxexploration.webapp.http.HttpServerVerticle", new DeploymentOptions().setInstances(2));
+			Single<String> httpVerticleDeployment = timed("deploy-http", vertx.rxDeployVerticle(
+					"com.vertxexploration.webapp.http.HttpServerVerticle",
+					new DeploymentOptions().setConfig(config()).setInstances(2)));
 
 			return httpVerticleDeployment;
-		}).subscribe(id -> startFuture.complete(), startFuture::fail);
+		}).subscribe(id -> {
+			startFuture.complete();
+			warmUp(startupStart);
+		}, startFuture::fail);
 
 		/*
 		 * dbVerticleDeployment.compose(id -> {
-		 * 
+		 *
 		 * Future<String> httpVerticleDeployment = Future.future();
 		 * vertx.deployVerticle(
 		 * "com.vertxexploration.webapp.http.HttpServerVerticle", new
 		 * DeploymentOptions().setInstances(2),
 		 * httpVerticleDeployment.completer());
-		 * 
+		 *
 		 * return httpVerticleDeployment;
-		 * 
+		 *
 		 * }).setHandler(ar -> { if (ar.succeeded()) { startFuture.complete(); }
 		 * else { startFuture.fail(ar.cause()); } });
 		 */
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Deploy the database verticle, or one per shard when the pages are
+	 * spread over several databases.
+	 */
+	private Single<String> deployDatabase() {
+		int shards = config().getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_SHARDS, 1);
+		if (shards <= 1) {
+			return vertx.rxDeployVerticle("com.vertxexploration.webapp.db.WikiDatabaseVerticle",
+					WikiDatabaseVerticle.deploymentOptions(config()));
+		}
+		List<Single<String>> deployments = new ArrayList<>();
+		for (int shard = 0; shard < shards; shard++) {
+			deployments.add(vertx.rxDeployVerticle("com.vertxexploration.webapp.db.WikiDatabaseVerticle",
+					WikiDatabaseVerticle.deploymentOptions(WikiDatabaseVerticle.shardConfig(config(), shard))));
+		}
+		return Single.zip(deployments, ids -> String.valueOf(ids[0]));
+	}
+
+	/**
+	 * Run the hot paths a few times before reporting ready, so the first real
+	 * requests don't pay for class loading, JIT compilation, pooled
+	 * connections and TLS session setup. A failing warm-up step is logged and
+	 * the application is reported ready anyway, it only runs colder.
+	 */
+	private void warmUp(long startupStart) {
+		int iterations = config().getInteger(CONFIG_STARTUP_WARMUP_ITERATIONS, 200);
+
+		timed("warmup-db", warmUpDatabase(iterations / 10 + 1))
+			.andThen(timed("warmup-render-json", warmUpRenderingAndJson(iterations)))
+			.andThen(timed("warmup-http", warmUpHttp(iterations / 10 + 1)))
+			.onErrorComplete(err -> {
+				LOGGER.warn("Warm-up did not complete", err);
+				return true;
+			})
+			.subscribe(() -> {
+				long total = System.currentTimeMillis() - startupStart;
+				StartupStatus.ready(vertx.getDelegate(), total);
+				LOGGER.info("Ready in " + total + "ms, steps: " + StartupStatus.get(vertx.getDelegate()).getJsonObject("steps").encode());
+			});
+	}
+
+	private Completable warmUpDatabase(int requests) {
+		WikiDatabaseService dbService = WikiDatabaseService.createShardedProxy(vertx.getDelegate(),
+				config().getString(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, "wikidb.queue"),
+				config().getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_SHARDS, 1), new DeliveryOptions());
+
+		List<Completable> fetches = new ArrayList<>();
+		for (int i = 0; i < requests; i++) {
+			fetches.add(Completable.create(emitter -> dbService.fetchAllPages(ar -> {
+				if (ar.succeeded()) {
+					emitter.onComplete();
+				} else {
+					emitter.onError(ar.cause());
+				}
+			})));
+		}
+		return Completable.merge(fetches);
+	}
+
+	private Completable warmUpRenderingAndJson(int iterations) {
+		String markdown = "# Warm-up\n\nSome *emphasis*, a [link](/wiki/Home) and `code`.\n\n- one\n- two\n\n> quote\n";
+		return vertx.rxExecuteBlocking(future -> {
+			for (int i = 0; i < iterations; i++) {
+				String html = Processor.process(markdown);
+				JsonObject page = new JsonObject()
+						.put("success", true)
+						.put("page", new JsonObject().put("id", i).put("name", "Warm-up").put("html", html))
+						.put("pages", new JsonArray().add("Home").add("Warm-up"));
+				new JsonObject(page.encode());
+			}
+			future.complete();
+		}, false).toCompletable();
+	}
+
+	private Completable warmUpHttp(int requests) {
+		WebClient webClient = WebClient.create(vertx, new WebClientOptions()
+				.setSsl(true)
+				.setTrustAll(true)
+				.setVerifyHost(false)
+				.setDefaultHost("localhost")
+				.setDefaultPort(config().getInteger(HttpServerVerticle.CONFIG_HTTP_SERVER_PORT, 8080)));
+
+		List<Completable> calls = new ArrayList<>();
+		for (int i = 0; i < requests; i++) {
+			calls.add(webClient.get("/login").rxSend().toCompletable());
+		}
+		return Completable.merge(calls).doFinally(webClient::close);
+	}
+
+	private <T> Single<T> timed(String step, Single<T> single) {
+		return Single.defer(() -> {
+			long start = System.currentTimeMillis();
+			return single.doOnSuccess(result -> StartupStatus.step(vertx.getDelegate(), step, System.currentTimeMillis() - start));
+		});
+	}
+
+	private Completable timed(String step, Completable completable) {
+		return Completable.defer(() -> {
+			long start = System.currentTimeMillis();
+			return completable.doOnComplete(() -> StartupStatus.step(vertx.getDelegate(), step, System.currentTimeMillis() - start));
+		});
+	}
+}
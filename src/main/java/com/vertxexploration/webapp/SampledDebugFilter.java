@@ -0,0 +1,81 @@
+package com.vertxexploration.webapp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * Logback filter letting at most maxPerSecond DEBUG and TRACE events through
+ * each second, the others are dropped before anything is allocated for them.
+ * Once the budget of the second is spent, isDebugEnabled() returns false too,
+ * so guarded log statements don't even build their message. The number of
+ * dropped events is logged when the next second starts.
+ * <p>
+ * Configured in logback.xml:
+ * <pre>
+ * &lt;turboFilter class="com.vertxexploration.webapp.SampledDebugFilter"&gt;
+ *   &lt;maxPerSecond&gt;100&lt;/maxPerSecond&gt;
+ * &lt;/turboFilter&gt;
+ * </pre>
+ */
+public class SampledDebugFilter extends TurboFilter {
+
+	private int maxPerSecond = 100;
+	// Current second in the high bits, events let through in it in the low ones
+	private final AtomicLong window = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	public void setMaxPerSecond(int maxPerSecond) {
+		this.maxPerSecond = maxPerSecond;
+	}
+
+	@Override
+	public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+		if (level == null || level.toInt() > Level.DEBUG_INT || !isStarted()) {
+			return FilterReply.NEUTRAL;
+		}
+		if (level.toInt() < logger.getEffectiveLevel().toInt()) {
+			return FilterReply.NEUTRAL; // disabled anyway
+		}
+		// No message: an isDebugEnabled() check, which shouldn't spend the budget
+		return take(logger, format != null) ? FilterReply.NEUTRAL : FilterReply.DENY;
+	}
+
+	private boolean take(Logger logger, boolean event) {
+		long second = System.currentTimeMillis() / 1000;
+		while (true) {
+			long current = window.get();
+			boolean sameSecond = current >>> 32 == second;
+			long taken = sameSecond ? current & 0xffffffffL : 0;
+			if (taken >= maxPerSecond) {
+				if (event) {
+					dropped.incrementAndGet();
+				}
+				return false;
+			}
+			if (!event && sameSecond) {
+				return true;
+			}
+			if (window.compareAndSet(current, second << 32 | (taken + (event ? 1 : 0)))) {
+				if (!sameSecond) {
+					reportDropped(logger);
+				}
+				return true;
+			}
+		}
+	}
+
+	private void reportDropped(Logger logger) {
+		long count = dropped.getAndSet(0);
+		if (count > 0) {
+			// INFO, not filtered
+			logger.getLoggerContext().getLogger(SampledDebugFilter.class)
+					.info("Dropped {} debug log events over the limit of {} per second", count, maxPerSecond);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package com.vertxexploration.webapp;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+
+/**
+ * Startup progress shared between {@link MainVerticle}, which runs the
+ * startup phase, and the HTTP verticles, which report it on the readiness
+ * endpoint.
+ */
+public final class StartupStatus {
+
+	private static final String MAP_NAME = "wiki.startup";
+	private static final String STATUS_KEY = "status";
+
+	private StartupStatus() {
+	}
+
+	/**
+	 * Record how long a startup step took.
+	 */
+	public static synchronized void step(Vertx vertx, String name, long millis) {
+		JsonObject status = get(vertx);
+		status.getJsonObject("steps").put(name, millis);
+		map(vertx).put(STATUS_KEY, status);
+	}
+
+	/**
+	 * Mark the end of the startup phase, from now on traffic is welcome.
+	 */
+	public static synchronized void ready(Vertx vertx, long totalMillis) {
+		map(vertx).put(STATUS_KEY, get(vertx).put("ready", true).put("totalMillis", totalMillis));
+	}
+
+	/**
+	 * @return a copy of the current status: {@code {"ready": ..., "steps": {<step>: <millis>}}}
+	 */
+	public static JsonObject get(Vertx vertx) {
+		JsonObject status = map(vertx).get(STATUS_KEY); // local maps hand out copies of JSON values
+		return status != null ? status : new JsonObject().put("ready", false).put("steps", new JsonObject());
+	}
+
+	private static LocalMap<String, JsonObject> map(Vertx vertx) {
+		return vertx.sharedData().getLocalMap(MAP_NAME);
+	}
+}
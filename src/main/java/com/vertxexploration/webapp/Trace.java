@@ -0,0 +1,182 @@
+package com.vertxexploration.webapp;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * Time spent by a request in each stage (authentication, event bus hop,
+ * database, JDBC, markdown, template...), whichever verticle the stage runs
+ * in. The HTTP verticle starts the trace and sends its id along with the
+ * database calls; the database side finds it again in a local map, so the
+ * stages are only recorded within one JVM. A stage reached several times
+ * (several queries) adds up.
+ * <p>
+ * Stages run on different threads, so the methods are synchronized.
+ */
+public final class Trace implements Shareable {
+
+	public static final String ID_HEADER = "trace-id";
+	// System.nanoTime() of the sender, for the event bus hop
+	public static final String SENT_HEADER = "trace-sent";
+
+	/**
+	 * Recorded nothing, used when there is no trace to record into.
+	 */
+	public static final Trace NONE = new Trace(null);
+
+	private static final String MAP_NAME = "wiki.traces";
+	private static final String CONTEXT_KEY = "trace";
+
+	private final String id;
+	private final long start = System.nanoTime();
+	// Stage name to nanos, in the order the stages were first reached
+	private final Map<String, Long> stages = new LinkedHashMap<>();
+	private final Map<String, Long> open = new LinkedHashMap<>();
+	private boolean shared;
+
+	private Trace(String id) {
+		this.id = id;
+	}
+
+	public static Trace start() {
+		return new Trace(Long.toHexString(ThreadLocalRandom.current().nextLong()));
+	}
+
+	public String id() {
+		return id;
+	}
+
+	public synchronized void begin(String stage) {
+		if (id != null) {
+			open.put(stage, System.nanoTime());
+		}
+	}
+
+	public synchronized void end(String stage) {
+		Long begin = open.remove(stage);
+		if (begin != null) {
+			add(stage, System.nanoTime() - begin);
+		}
+	}
+
+	public synchronized void add(String stage, long nanos) {
+		if (id != null) {
+			stages.merge(stage, nanos, Long::sum);
+		}
+	}
+
+	/**
+	 * @return nanos since the trace started
+	 */
+	public long elapsed() {
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Close the stages still open, e.g. a template streamed until the end of
+	 * the response.
+	 */
+	public synchronized void finish() {
+		for (String stage : open.keySet().toArray(new String[0])) {
+			end(stage);
+		}
+	}
+
+	/**
+	 * @return the stages so far as a Server-Timing header value, stages
+	 *         still open with the time spent in them so far
+	 */
+	public synchronized String serverTiming() {
+		long now = System.nanoTime();
+		Map<String, Long> timings = new LinkedHashMap<>(stages);
+		open.forEach((stage, begin) -> timings.merge(stage, now - begin, Long::sum));
+		timings.put("total", now - start);
+		return timings.entrySet().stream()
+				.map(stage -> String.format(Locale.ROOT, "%s;dur=%.2f", stage.getKey(), stage.getValue() / 1e6))
+				.collect(Collectors.joining(", "));
+	}
+
+	public synchronized JsonObject toJson() {
+		JsonObject millis = new JsonObject();
+		stages.forEach((stage, nanos) -> millis.put(stage, Math.round(nanos / 1e4) / 100.0));
+		return new JsonObject().put("id", id).put("totalMillis", Math.round(elapsed() / 1e4) / 100.0)
+				.put("stages", millis);
+	}
+
+	/**
+	 * Add the trace headers to a message, and make the trace reachable from
+	 * the handler of the message.
+	 */
+	public DeliveryOptions propagate(Vertx vertx, DeliveryOptions options) {
+		if (id == null) {
+			return options;
+		}
+		synchronized (this) {
+			if (!shared) {
+				vertx.sharedData().<String, Trace>getLocalMap(MAP_NAME).put(id, this);
+				shared = true;
+			}
+		}
+		return options.addHeader(ID_HEADER, id).addHeader(SENT_HEADER, String.valueOf(System.nanoTime()));
+	}
+
+	/**
+	 * Stop sharing the trace, once the request is over.
+	 */
+	public void release(Vertx vertx) {
+		synchronized (this) {
+			if (!shared) {
+				return;
+			}
+			shared = false;
+		}
+		vertx.sharedData().<String, Trace>getLocalMap(MAP_NAME).remove(id);
+	}
+
+	/**
+	 * @return the trace propagated with this id, {@link #NONE} if it is gone
+	 *         or was started in another JVM
+	 */
+	public static Trace find(Vertx vertx, String id) {
+		Trace trace = id == null ? null : vertx.sharedData().<String, Trace>getLocalMap(MAP_NAME).get(id);
+		return trace == null ? NONE : trace;
+	}
+
+	/**
+	 * Make the trace the current one of the context while the handler runs,
+	 * see {@link #current()}.
+	 */
+	public static void runWith(Context context, Trace trace, Runnable handler) {
+		Object previous = context.get(CONTEXT_KEY);
+		context.put(CONTEXT_KEY, trace);
+		try {
+			handler.run();
+		} finally {
+			if (previous == null) {
+				context.remove(CONTEXT_KEY);
+			} else {
+				context.put(CONTEXT_KEY, previous);
+			}
+		}
+	}
+
+	/**
+	 * @return the trace of the message being handled on this context, only
+	 *         set during the synchronous part of the handling. Capture it
+	 *         before going asynchronous.
+	 */
+	public static Trace current() {
+		Context context = Vertx.currentContext();
+		Trace trace = context == null ? null : context.get(CONTEXT_KEY);
+		return trace == null ? NONE : trace;
+	}
+}
@@ -0,0 +1,101 @@
+package com.vertxexploration.webapp.backup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * Runs backups in the background and remembers how the last ones went, so
+ * the request starting a backup returns right away and the progress is
+ * polled from a status endpoint. The registry is shared by every HTTP
+ * verticle instance, a job started through one is visible through all.
+ */
+public class BackupJobs {
+	private static final Logger LOGGER = LoggerFactory.getLogger(BackupJobs.class);
+
+	private static final String SHARED_MAP_NAME = "wiki.backup.jobs";
+
+	private final int history;
+	private final Registry registry;
+
+	/**
+	 * @param history
+	 *            number of finished jobs whose status is kept
+	 */
+	public BackupJobs(Vertx vertx, int history) {
+		this.history = history;
+
+		LocalMap<String, Registry> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+		map.putIfAbsent(SHARED_MAP_NAME, new Registry());
+		this.registry = map.get(SHARED_MAP_NAME);
+	}
+
+	/**
+	 * Start a backup to the given target.
+	 *
+	 * @return the status of the new job, {@code "state"} is {@code "running"}
+	 */
+	public JsonObject start(String targetName, BackupTarget target) {
+		long id = registry.ids.incrementAndGet();
+		JsonObject status = new JsonObject()
+				.put("id", id)
+				.put("target", targetName)
+				.put("state", "running")
+				.put("started", System.currentTimeMillis());
+		update(status);
+
+		target.backup(ar -> {
+			JsonObject done = status.copy().put("finished", System.currentTimeMillis());
+			if (ar.succeeded()) {
+				done.put("state", "succeeded").put("result", ar.result());
+			} else {
+				LOGGER.error("Backup job " + id + " to " + targetName + " failed", ar.cause());
+				done.put("state", "failed").put("error", String.valueOf(ar.cause().getMessage()));
+			}
+			update(done);
+		});
+		return status.copy();
+	}
+
+	/**
+	 * @return the status of the job, null when it is unknown or too old
+	 */
+	public JsonObject status(long id) {
+		JsonObject status = registry.jobs.get(id);
+		return status != null ? status.copy() : null;
+	}
+
+	/**
+	 * @return the status of the known jobs, most recent first
+	 */
+	public JsonArray list() {
+		JsonArray jobs = new JsonArray();
+		registry.jobs.descendingMap().values().forEach(status -> jobs.add(status.copy()));
+		return jobs;
+	}
+
+	private void update(JsonObject status) {
+		// Stored values are never modified, readers get copies
+		registry.jobs.put(status.getLong("id"), status.copy());
+		while (registry.jobs.size() > history) {
+			Map.Entry<Long, JsonObject> oldest = registry.jobs.firstEntry();
+			if (oldest == null || "running".equals(oldest.getValue().getString("state"))) {
+				break; // keep reporting jobs that are still going
+			}
+			registry.jobs.remove(oldest.getKey(), oldest.getValue());
+		}
+	}
+
+	private static class Registry implements Shareable {
+		private final AtomicLong ids = new AtomicLong();
+		private final ConcurrentSkipListMap<Long, JsonObject> jobs = new ConcurrentSkipListMap<>();
+	}
+}
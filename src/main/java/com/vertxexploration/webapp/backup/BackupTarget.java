@@ -0,0 +1,16 @@
+package com.vertxexploration.webapp.backup;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Somewhere a backup of the wiki can be written to.
+ */
+public interface BackupTarget {
+
+	/**
+	 * Back the wiki up, reporting a summary of what was written.
+	 */
+	void backup(Handler<AsyncResult<JsonObject>> resultHandler);
+}
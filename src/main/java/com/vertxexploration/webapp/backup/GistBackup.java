@@ -0,0 +1,228 @@
+package com.vertxexploration.webapp.backup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.client.HttpRequest;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.codec.BodyCodec;
+
+/**
+ * Backs the wiki up as GitHub gists, one file per page. Gists are capped in
+ * size and in number of files, so a large wiki becomes several gists,
+ * uploaded a few at a time while the next pages are read. A page bigger than
+ * a gist is split into numbered part files.
+ */
+public class GistBackup implements BackupTarget {
+	private static final Logger LOGGER = LoggerFactory.getLogger(GistBackup.class);
+
+	public static final String DEFAULT_URL = "https://api.github.com/gists";
+
+	private final WikiDatabaseService dbService;
+	private final WebClient webClient;
+	private final String url;
+	private final String token;
+	private final int maxBytes;
+	private final int maxFiles;
+	private final int parallelism;
+	private final int batchSize;
+	private final long timeout;
+
+	/**
+	 * @param webClient
+	 *            shared client, its pool size should allow parallelism
+	 *            connections
+	 * @param url
+	 *            gist creation endpoint
+	 * @param token
+	 *            GitHub token, or null for anonymous gists
+	 * @param maxBytes
+	 *            max content bytes per gist
+	 * @param maxFiles
+	 *            max files per gist
+	 * @param parallelism
+	 *            max gists uploaded at once
+	 */
+	public GistBackup(WikiDatabaseService dbService, WebClient webClient, String url, String token, int maxBytes,
+			int maxFiles, int parallelism, int batchSize, long timeout) {
+		this.dbService = dbService;
+		this.webClient = webClient;
+		this.url = url;
+		this.token = token;
+		this.maxBytes = maxBytes;
+		this.maxFiles = maxFiles;
+		this.parallelism = parallelism;
+		this.batchSize = batchSize;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Reports {@code {"gists": [<html urls>], "pages", "files", "bytes", "millis"}}.
+	 */
+	@Override
+	public void backup(Handler<AsyncResult<JsonObject>> resultHandler) {
+		new Upload(resultHandler).readAfter(-1);
+	}
+
+	/**
+	 * Reading pages is paused while the gists ready or being uploaded reach
+	 * the parallelism, so memory is bounded by about parallelism gists.
+	 */
+	private class Upload {
+		private final Handler<AsyncResult<JsonObject>> handler;
+		private final long start = System.currentTimeMillis();
+		private final Deque<JsonObject> ready = new ArrayDeque<>();
+		private final JsonArray gists = new JsonArray();
+		private JsonObject files = new JsonObject();
+		private long filesBytes;
+		private int inFlight;
+		private Runnable pausedRead;
+		private boolean readDone;
+		private boolean finished;
+		private int pages;
+		private int fileCount;
+		private long bytes;
+
+		private Upload(Handler<AsyncResult<JsonObject>> handler) {
+			this.handler = handler;
+		}
+
+		private void readAfter(int afterId) {
+			dbService.exportPages(afterId, batchSize, fetch -> {
+				if (finished) {
+					return;
+				}
+				if (fetch.failed()) {
+					fail(fetch.cause());
+					return;
+				}
+				JsonArray batch = fetch.result();
+				for (int i = 0; i < batch.size(); i++) {
+					JsonObject page = batch.getJsonObject(i);
+					addPage(page.getString("name"), page.getString("markdown"));
+				}
+				pages += batch.size();
+
+				if (batch.size() < batchSize) {
+					readDone = true;
+					seal();
+				} else {
+					int lastId = batch.getJsonObject(batch.size() - 1).getInteger("id");
+					pausedRead = () -> readAfter(lastId);
+				}
+				uploadMore();
+			});
+		}
+
+		private void addPage(String name, String markdown) {
+			// A character takes at most 3 UTF-8 bytes per UTF-16 unit
+			int partLength = Math.max(1, maxBytes / 3);
+			if (markdown.length() <= partLength) {
+				addFile(name + ".md", markdown);
+				return;
+			}
+			int part = 1;
+			for (int from = 0; from < markdown.length(); part++) {
+				int to = Math.min(markdown.length(), from + partLength);
+				if (to < markdown.length() && Character.isHighSurrogate(markdown.charAt(to - 1))) {
+					to--; // keep surrogate pairs together
+				}
+				addFile(name + ".part" + part + ".md", markdown.substring(from, to));
+				from = to;
+			}
+		}
+
+		private void addFile(String fileName, String content) {
+			int size = content.getBytes(StandardCharsets.UTF_8).length;
+			if (files.size() >= maxFiles || (filesBytes + size > maxBytes && !files.isEmpty())) {
+				seal();
+			}
+			files.put(fileName, new JsonObject().put("content", content.isEmpty() ? " " : content)); // gists reject empty files
+			filesBytes += size;
+			fileCount++;
+			bytes += size;
+		}
+
+		private void seal() {
+			if (files.isEmpty()) {
+				return;
+			}
+			ready.add(new JsonObject()
+					.put("description", "A wiki backup")
+					.put("public", true)
+					.put("files", files));
+			files = new JsonObject();
+			filesBytes = 0;
+		}
+
+		private void uploadMore() {
+			while (inFlight < parallelism && !ready.isEmpty()) {
+				inFlight++;
+				upload(ready.poll());
+			}
+			if (pausedRead != null && inFlight + ready.size() < parallelism) {
+				Runnable read = pausedRead;
+				pausedRead = null;
+				read.run();
+			}
+			if (readDone && inFlight == 0 && ready.isEmpty() && !finished) {
+				finished = true;
+				long millis = System.currentTimeMillis() - start;
+				LOGGER.info("Backed up " + pages + " pages to " + gists.size() + " gists in " + millis + "ms");
+				handler.handle(Future.succeededFuture(new JsonObject()
+						.put("gists", gists)
+						.put("pages", pages)
+						.put("files", fileCount)
+						.put("bytes", bytes)
+						.put("millis", millis)));
+			}
+		}
+
+		private void upload(JsonObject gist) {
+			HttpRequest<JsonObject> request = webClient.postAbs(url)
+					.timeout(timeout)
+					.putHeader("Accept", "application/vnd.github.v3+json")
+					.as(BodyCodec.jsonObject());
+			if (token != null) {
+				request.putHeader("Authorization", "token " + token);
+			}
+			request.sendJsonObject(gist, ar -> {
+				inFlight--;
+				if (finished) {
+					return;
+				}
+				if (ar.failed()) {
+					fail(ar.cause());
+					return;
+				}
+				HttpResponse<JsonObject> response = ar.result();
+				if (response.statusCode() != 201) {
+					JsonObject body = response.body();
+					fail(new IllegalStateException("Gist creation answered " + response.statusCode() + " "
+							+ response.statusMessage() + (body != null ? ": " + body.encode() : "")));
+					return;
+				}
+				gists.add(response.body().getString("html_url"));
+				uploadMore();
+			});
+		}
+
+		private void fail(Throwable cause) {
+			// Gists already created are kept, the report of a failed job lists them
+			finished = true;
+			handler.handle(Future.failedFuture(new IllegalStateException(cause.getMessage() + " (" + gists.size()
+					+ " gists created: " + gists.encode() + ")", cause)));
+		}
+	}
+}
@@ -0,0 +1,417 @@
+package com.vertxexploration.webapp.backup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.CopyOptions;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * Incremental backups to a local directory. Each backup is a gzipped NDJSON
+ * snapshot holding only the pages created or saved since the previous one:
+ * a header line (snapshot number, time window and the names of every page
+ * alive at that time) followed by one {@code {"name", "markdown"}} line per
+ * changed page, the same format {@code POST /api/import} reads. Snapshots
+ * are written through the async filesystem, compression runs on a worker.
+ *
+ * <p>
+ * Restore reads the snapshots newest first and imports each live page from
+ * the first snapshot it appears in, so every page is written once and older
+ * snapshots are not even opened once all the live pages are found.
+ */
+public class LocalBackup implements BackupTarget {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LocalBackup.class);
+
+	private static final String SHARED_MAP_NAME = "wiki.backup.local";
+	private static final String LATEST_FILE = "latest.json";
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".ndjson.gz";
+
+	private final FileSystem fs;
+	private final WikiDatabaseService dbService;
+	private final String directory;
+	private final int batchSize;
+	private final WorkerExecutor executor;
+	private final Lock lock;
+
+	public LocalBackup(Vertx vertx, WikiDatabaseService dbService, String directory, int batchSize) {
+		this.fs = vertx.fileSystem();
+		this.dbService = dbService;
+		this.directory = directory;
+		this.batchSize = batchSize;
+		// One thread, snapshots are compressed in order; restores may run for long
+		this.executor = vertx.createSharedWorkerExecutor("wiki-backup", 1, TimeUnit.HOURS.toNanos(1));
+
+		// A single backup or restore at a time in the process
+		LocalMap<String, Lock> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+		map.putIfAbsent(SHARED_MAP_NAME, new Lock());
+		this.lock = map.get(SHARED_MAP_NAME);
+	}
+
+	/**
+	 * Write a snapshot of the pages changed since the last backup, reporting
+	 * {@code {"snapshot", "file", "pages", "bytes", "millis"}}.
+	 */
+	@Override
+	public void backup(Handler<AsyncResult<JsonObject>> resultHandler) {
+		if (!lock.busy.compareAndSet(false, true)) {
+			resultHandler.handle(Future.failedFuture(new IllegalStateException("A backup or restore is already running")));
+			return;
+		}
+		Handler<AsyncResult<JsonObject>> done = ar -> {
+			lock.busy.set(false);
+			resultHandler.handle(ar);
+		};
+
+		fs.mkdirs(directory, mkdirs -> {
+			if (mkdirs.failed()) {
+				done.handle(Future.failedFuture(mkdirs.cause()));
+				return;
+			}
+			readLatest(latest -> {
+				if (latest.failed()) {
+					done.handle(Future.failedFuture(latest.cause()));
+					return;
+				}
+				long takenAt = System.currentTimeMillis();
+				dbService.fetchAllPages(names -> {
+					if (names.failed()) {
+						done.handle(Future.failedFuture(names.cause()));
+						return;
+					}
+					JsonObject header = new JsonObject()
+							.put("snapshot", latest.result().getInteger("snapshot", 0) + 1)
+							.put("since", latest.result().getLong("takenAt", -1L))
+							.put("takenAt", takenAt)
+							.put("live", names.result());
+					new SnapshotWriter(header, done).start();
+				});
+			});
+		});
+	}
+
+	/**
+	 * Bring the database back to the state of the last snapshot: every page
+	 * alive then gets its backed up content, pages that did not exist then
+	 * are deleted. Reports {@code {"restored", "deleted", "snapshots", "millis"}}.
+	 */
+	public void restore(Handler<AsyncResult<JsonObject>> resultHandler) {
+		if (!lock.busy.compareAndSet(false, true)) {
+			resultHandler.handle(Future.failedFuture(new IllegalStateException("A backup or restore is already running")));
+			return;
+		}
+		long start = System.currentTimeMillis();
+
+		executor.<JsonObject>executeBlocking(future -> {
+			try {
+				future.complete(importSnapshots());
+			} catch (Exception e) {
+				future.fail(e);
+			}
+		}, false, imported -> {
+			if (imported.failed()) {
+				lock.busy.set(false);
+				resultHandler.handle(Future.failedFuture(imported.cause()));
+				return;
+			}
+			JsonObject report = imported.result();
+			Set<String> live = new HashSet<>(report.getJsonArray("live").getList());
+			report.remove("live");
+			deletePagesNotIn(live, deleted -> {
+				lock.busy.set(false);
+				if (deleted.failed()) {
+					resultHandler.handle(Future.failedFuture(deleted.cause()));
+					return;
+				}
+				long millis = System.currentTimeMillis() - start;
+				report.put("deleted", deleted.result()).put("millis", millis);
+				LOGGER.info("Restored " + report.getInteger("restored") + " pages from " + report.getInteger("snapshots")
+						+ " snapshots in " + millis + "ms");
+				resultHandler.handle(Future.succeededFuture(report));
+			});
+		});
+	}
+
+	/**
+	 * Runs on the backup worker, blocking on the database calls keeps at most
+	 * one batch of pages in memory.
+	 */
+	private JsonObject importSnapshots() throws IOException, InterruptedException, ExecutionException {
+		File[] snapshots = new File(directory).listFiles((dir, name) -> name.startsWith(SNAPSHOT_PREFIX)
+				&& name.endsWith(SNAPSHOT_SUFFIX));
+		if (snapshots == null || snapshots.length == 0) {
+			throw new IllegalStateException("No backup found in " + directory);
+		}
+		Arrays.sort(snapshots, (a, b) -> b.getName().compareTo(a.getName())); // newest first, the numbers are padded
+
+		JsonArray live = null;
+		Set<String> pending = null;
+		int restored = 0;
+		int opened = 0;
+		JsonArray batch = new JsonArray();
+		for (File snapshot : snapshots) {
+			if (pending != null && pending.isEmpty()) {
+				break; // the older snapshots only hold superseded content
+			}
+			opened++;
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new GZIPInputStream(new FileInputStream(snapshot), 64 * 1024), StandardCharsets.UTF_8))) {
+				JsonObject header = new JsonObject(reader.readLine());
+				if (live == null) {
+					live = header.getJsonArray("live");
+					pending = new HashSet<>(live.getList());
+				}
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					JsonObject page = new JsonObject(line);
+					if (pending.remove(page.getString("name"))) {
+						batch.add(page);
+						if (batch.size() >= batchSize) {
+							restored += importBatch(batch);
+							batch = new JsonArray();
+						}
+					}
+				}
+			}
+		}
+		if (!batch.isEmpty()) {
+			restored += importBatch(batch);
+		}
+		if (!pending.isEmpty()) {
+			LOGGER.warn(pending.size() + " live pages were missing from the snapshots, left as they are");
+		}
+		return new JsonObject().put("restored", restored).put("snapshots", opened).put("live", live);
+	}
+
+	private int importBatch(JsonArray batch) throws InterruptedException, ExecutionException {
+		CompletableFuture<Integer> imported = new CompletableFuture<>();
+		dbService.importPages(batch, ar -> {
+			if (ar.succeeded()) {
+				imported.complete(ar.result());
+			} else {
+				imported.completeExceptionally(ar.cause());
+			}
+		});
+		return imported.get();
+	}
+
+	private void deletePagesNotIn(Set<String> live, Handler<AsyncResult<Integer>> handler) {
+		dbService.fetchAllPages(names -> {
+			if (names.failed()) {
+				handler.handle(Future.failedFuture(names.cause()));
+				return;
+			}
+			@SuppressWarnings("rawtypes")
+			List<Future> deletions = new ArrayList<>();
+			names.result().stream().map(String.class::cast).filter(name -> !live.contains(name)).forEach(name -> {
+				Future<Void> deleted = Future.future();
+				dbService.fetchPage(name, page -> {
+					if (page.failed()) {
+						deleted.fail(page.cause());
+					} else if (!page.result().getBoolean("found")) {
+						deleted.complete(); // deleted in the meantime
+					} else {
+						dbService.deletePage(page.result().getInteger("id"), deleted);
+					}
+				});
+				deletions.add(deleted);
+			});
+			CompositeFuture.all(deletions).setHandler(ar -> handler.handle(
+					ar.succeeded() ? Future.succeededFuture(deletions.size()) : Future.failedFuture(ar.cause())));
+		});
+	}
+
+	private void readLatest(Handler<AsyncResult<JsonObject>> handler) {
+		String path = directory + File.separator + LATEST_FILE;
+		fs.exists(path, exists -> {
+			if (exists.failed() || !exists.result()) {
+				handler.handle(Future.succeededFuture(new JsonObject())); // first backup, take every page
+				return;
+			}
+			fs.readFile(path, read -> handler.handle(read.map(buffer -> new JsonObject(buffer.toString(StandardCharsets.UTF_8)))));
+		});
+	}
+
+	/**
+	 * Streams the changed pages into a temporary file, then moves it into
+	 * place and records it as the latest snapshot, so an interrupted backup
+	 * never leaves a partial snapshot behind.
+	 */
+	private class SnapshotWriter {
+		private final JsonObject header;
+		private final Handler<AsyncResult<JsonObject>> handler;
+		private final String file;
+		private final String tempFile;
+		private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		private final long start = System.currentTimeMillis();
+		private GZIPOutputStream gzip;
+		private AsyncFile out;
+		private int pages;
+		private long bytes;
+
+		private SnapshotWriter(JsonObject header, Handler<AsyncResult<JsonObject>> handler) {
+			this.header = header;
+			this.handler = handler;
+			this.file = directory + File.separator + String.format("%s%08d%s", SNAPSHOT_PREFIX,
+					header.getInteger("snapshot"), SNAPSHOT_SUFFIX);
+			this.tempFile = file + ".tmp";
+		}
+
+		private void start() {
+			fs.open(tempFile, new OpenOptions().setWrite(true).setCreate(true).setTruncateExisting(true), open -> {
+				if (open.failed()) {
+					handler.handle(Future.failedFuture(open.cause()));
+					return;
+				}
+				out = open.result();
+				out.exceptionHandler(this::fail);
+				write(Buffer.buffer(header.encode()).appendByte((byte) '\n'), false, v -> writeChangesAfter(-1));
+			});
+		}
+
+		private void writeChangesAfter(int afterId) {
+			dbService.fetchChangedPages(header.getLong("since"), afterId, batchSize, fetch -> {
+				if (fetch.failed()) {
+					fail(fetch.cause());
+					return;
+				}
+				JsonArray changed = fetch.result();
+				Buffer lines = Buffer.buffer();
+				for (int i = 0; i < changed.size(); i++) {
+					JsonObject page = changed.getJsonObject(i);
+					lines.appendString(new JsonObject()
+							.put("name", page.getString("name"))
+							.put("markdown", page.getString("markdown"))
+							.encode()).appendByte((byte) '\n');
+				}
+				pages += changed.size();
+				boolean last = changed.size() < batchSize;
+				int lastId = changed.isEmpty() ? afterId : changed.getJsonObject(changed.size() - 1).getInteger("id");
+				write(lines, last, v -> {
+					if (last) {
+						complete();
+					} else {
+						writeChangesAfter(lastId);
+					}
+				});
+			});
+		}
+
+		private void write(Buffer lines, boolean last, Handler<Void> next) {
+			executor.<Buffer>executeBlocking(future -> {
+				try {
+					if (gzip == null) {
+						gzip = new GZIPOutputStream(compressed, 64 * 1024);
+					}
+					gzip.write(lines.getBytes());
+					if (last) {
+						gzip.finish();
+					}
+					Buffer output = Buffer.buffer(compressed.toByteArray());
+					compressed.reset();
+					future.complete(output);
+				} catch (IOException e) {
+					future.fail(e);
+				}
+			}, true, compress -> {
+				if (compress.failed()) {
+					fail(compress.cause());
+					return;
+				}
+				if (compress.result().length() == 0) {
+					next.handle(null); // still buffered in the compressor
+					return;
+				}
+				bytes += compress.result().length();
+				out.write(compress.result());
+				if (out.writeQueueFull()) {
+					out.drainHandler(next);
+				} else {
+					next.handle(null);
+				}
+			});
+		}
+
+		private void complete() {
+			out.close(closed -> {
+				if (closed.failed()) {
+					fail(closed.cause());
+					return;
+				}
+				JsonObject latest = new JsonObject()
+						.put("snapshot", header.getInteger("snapshot"))
+						.put("takenAt", header.getLong("takenAt"))
+						.put("file", file);
+				String latestPath = directory + File.separator + LATEST_FILE;
+				Future<Void> moved = Future.future();
+				fs.move(tempFile, file, new CopyOptions().setReplaceExisting(true), moved);
+				moved.compose(v -> {
+					Future<Void> written = Future.future();
+					fs.writeFile(latestPath + ".tmp", Buffer.buffer(latest.encode()), written);
+					return written;
+				}).compose(v -> {
+					Future<Void> replaced = Future.future();
+					fs.move(latestPath + ".tmp", latestPath, new CopyOptions().setReplaceExisting(true), replaced);
+					return replaced;
+				}).setHandler(ar -> {
+					if (ar.failed()) {
+						handler.handle(Future.failedFuture(ar.cause()));
+						return;
+					}
+					long millis = System.currentTimeMillis() - start;
+					LOGGER.info("Backed up " + pages + " changed pages to " + file + " (" + bytes + " bytes) in "
+							+ millis + "ms");
+					handler.handle(Future.succeededFuture(latest.copy()
+							.put("pages", pages)
+							.put("bytes", bytes)
+							.put("millis", millis)));
+				});
+			});
+		}
+
+		private void fail(Throwable cause) {
+			LOGGER.error("Backup to " + file + " failed", cause);
+			if (out != null) {
+				out.close(closed -> fs.delete(tempFile, deleted -> handler.handle(Future.failedFuture(cause))));
+			} else {
+				handler.handle(Future.failedFuture(cause));
+			}
+		}
+	}
+
+	private static class Lock implements Shareable {
+		private final AtomicBoolean busy = new AtomicBoolean();
+	}
+}
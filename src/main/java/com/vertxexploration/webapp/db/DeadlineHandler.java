@@ -0,0 +1,56 @@
+package com.vertxexploration.webapp.db;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+/**
+ * Sits in front of the service proxy handler and drops requests whose
+ * caller has already given up, instead of spending a JDBC connection on a
+ * reply nobody is waiting for. The deadline travels as an epoch-millis
+ * message header set by {@link #options(long)}: the HTTP server gives these
+ * options, along with its trace headers, to
+ * {@link WikiDatabaseService#createShardedProxy(io.vertx.core.Vertx, String, int, DeliveryOptions)}
+ * for the requests it admitted with a deadline.
+ */
+public class DeadlineHandler implements Handler<Message<JsonObject>> {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DeadlineHandler.class);
+
+	public static final String DEADLINE_HEADER = "deadline";
+
+	private final Handler<Message<JsonObject>> delegate;
+	private final LongAdder expired = new LongAdder();
+
+	public DeadlineHandler(Handler<Message<JsonObject>> delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @return options for a call that times out at the deadline (epoch millis)
+	 *         and carries it in its headers
+	 */
+	public static DeliveryOptions options(long deadline) {
+		return new DeliveryOptions()
+				.setSendTimeout(Math.max(1, deadline - System.currentTimeMillis()))
+				.addHeader(DEADLINE_HEADER, String.valueOf(deadline));
+	}
+
+	@Override
+	public void handle(Message<JsonObject> msg) {
+		String deadline = msg.headers().get(DEADLINE_HEADER);
+		if (deadline != null && System.currentTimeMillis() > Long.parseLong(deadline)) {
+			expired.increment();
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Dropping expired " + msg.headers().get("action") + " request, " + expired.sum()
+						+ " dropped so far");
+			}
+			return; // the sender timed out already, nobody would read the reply
+		}
+		delegate.handle(msg);
+	}
+}
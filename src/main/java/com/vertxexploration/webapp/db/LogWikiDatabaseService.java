@@ -0,0 +1,665 @@
+package com.vertxexploration.webapp.db;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+/**
+ * Keeps the pages in a {@link PageLog} instead of HSQLDB, with the id and
+ * name index in memory. Reads are served straight from the mapped segments
+ * on the event loop: no worker thread, no SQL. Every revision is appended
+ * as the full content; background compaction rewrites older revisions as
+ * deltas against the next one (reverse deltas, so the latest content is
+ * always read in one go) and drops deleted pages.
+ * <p>
+ * Everything but the syncs and the compaction runs on the verticle event
+ * loop, so the index needs no synchronization.
+ */
+public class LogWikiDatabaseService implements WikiDatabaseService {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LogWikiDatabaseService.class);
+
+	// View counts of the pages, {"<id>": views}, rewritten whenever views are added
+	private static final String VIEWS_FILE = "views.json";
+
+	private final Vertx vertx;
+	private final int maxBufferedContentLength;
+	private final int snapshotInterval;
+	private final long syncInterval;
+	private final double compactionRatio;
+	private final long compactionMinBytes;
+	private PageLog log;
+
+	private final TreeMap<Integer, Page> byId = new TreeMap<>();
+	private final Map<String, Page> byName = new TreeMap<>();
+	private int maxId;
+	// Ids of the pages created here are equal to the shard modulo the number of shards
+	private final int shard;
+	private final int shards;
+	private boolean compacting;
+	private boolean dirty;
+	private boolean preparingSegment;
+	private final Path viewsFile;
+	private boolean writingViews;
+	private boolean viewsDirty;
+
+	private static class Page {
+		private final int id;
+		private final String name;
+		private final TreeMap<Integer, PageLog.Record> revisions = new TreeMap<>();
+		private long viewCount;
+
+		private Page(int id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		private PageLog.Record latest() {
+			return revisions.lastEntry().getValue();
+		}
+	}
+
+	public LogWikiDatabaseService(Vertx vertx, JsonObject config, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
+		this.vertx = vertx;
+		this.maxBufferedContentLength = config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_MAX_BUFFERED_CONTENT_LENGTH,
+				1024 * 1024);
+		this.snapshotInterval = config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_REVISIONS_SNAPSHOT_INTERVAL, 10);
+		// 0 forces the appended records to disk before every reply
+		this.syncInterval = config.getLong(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_SYNC_INTERVAL_MS, 1000L);
+		// Compact once the bytes appended since the last compaction reach this share of the compacted ones
+		this.compactionRatio = config.getDouble(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_COMPACTION_RATIO, 1.0);
+		this.compactionMinBytes = config.getLong(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_COMPACTION_MIN_BYTES,
+				16L * 1024 * 1024);
+		String directory = config.getString(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_DIR, "db/pages");
+		this.shard = config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_SHARD, 0);
+		this.shards = config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_SHARDS, 1);
+		this.viewsFile = Paths.get(directory, VIEWS_FILE);
+		int segmentSize = config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_SEGMENT_SIZE, 64 * 1024 * 1024);
+		long compactionInterval = config.getLong(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_COMPACTION_INTERVAL_MS, 60000L);
+
+		vertx.<PageLog>executeBlocking(future -> {
+			long start = System.currentTimeMillis();
+			Map<Integer, Page> pages = new HashMap<>();
+			Set<Integer> deleted = new HashSet<>();
+			try {
+				PageLog opened = PageLog.open(Paths.get(directory), segmentSize, record -> {
+					maxId = Math.max(maxId, record.id);
+					if (record.type == PageLog.DELETE) {
+						deleted.add(record.id);
+						return;
+					}
+					// After a crash during a compaction a revision may be found twice, either copy is good
+					pages.computeIfAbsent(record.id, id -> new Page(id, record.name)).revisions
+							.putIfAbsent(record.revision, record);
+				});
+				deleted.forEach(pages::remove);
+				if (Files.exists(viewsFile)) {
+					new JsonObject(new String(Files.readAllBytes(viewsFile), StandardCharsets.UTF_8)).forEach(view -> {
+						Page page = pages.get(Integer.valueOf(view.getKey()));
+						if (page != null) {
+							page.viewCount = ((Number) view.getValue()).longValue();
+						}
+					});
+				}
+				pages.values().forEach(page -> {
+					byId.put(page.id, page);
+					byName.put(page.name, page);
+				});
+				LOGGER.info("Page log opened with " + byId.size() + " pages in "
+						+ (System.currentTimeMillis() - start) + "ms");
+				future.complete(opened);
+			} catch (IOException e) {
+				future.fail(e);
+			}
+		}, opened -> {
+			if (opened.failed()) {
+				readyHandler.handle(Future.failedFuture(opened.cause()));
+				return;
+			}
+			log = opened.result();
+			if (syncInterval > 0) {
+				vertx.setPeriodic(syncInterval, id -> sync(ar -> {
+				}));
+			}
+			vertx.setPeriodic(compactionInterval, id -> compactIfNeeded());
+			readyHandler.handle(Future.succeededFuture(this));
+		});
+	}
+
+	@Override
+	public WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
+		resultHandler.handle(Future.succeededFuture(new JsonArray(new ArrayList<>(byName.keySet()))));
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
+		Page page = byName.get(name);
+		if (page == null) {
+			resultHandler.handle(Future.succeededFuture(new JsonObject().put("found", false)));
+			return this;
+		}
+		PageLog.Record latest = page.latest();
+		JsonObject response = new JsonObject()
+				.put("found", true)
+				.put("id", page.id)
+				.put("contentLength", latest.textLength);
+		if (latest.textLength > maxBufferedContentLength) {
+			response.put("tooLarge", true);
+		} else {
+			response.put("rawContent", content(latest));
+		}
+		resultHandler.handle(Future.succeededFuture(response));
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+		if (byName.containsKey(title)) {
+			resultHandler.handle(Future.failedFuture("A page named " + title + " already exists"));
+			return this;
+		}
+		Page page = new Page(nextId(), title);
+		if (appendRevision(page, markdown, resultHandler)) {
+			maxId = page.id;
+			byId.put(page.id, page);
+			byName.put(title, page);
+			publish(new JsonObject().put("event", "created").put("name", title));
+			replyWhenWritten(resultHandler);
+		}
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+		Page page = byId.get(id);
+		if (page == null) {
+			resultHandler.handle(Future.succeededFuture()); // same as an update matching no row
+			return this;
+		}
+		if (appendRevision(page, markdown, resultHandler)) {
+			vertx.eventBus().publish(WikiDatabaseVerticle.PAGE_UPDATES_ADDRESS,
+					new JsonObject().put("event", "updated").put("id", id));
+			replyWhenWritten(resultHandler);
+		}
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
+		Page page = byId.get(id);
+		if (page == null) {
+			resultHandler.handle(Future.succeededFuture());
+			return this;
+		}
+		try {
+			log.append(PageLog.encodeDelete(id));
+		} catch (IOException e) {
+			LOGGER.error("Page log append error", e);
+			resultHandler.handle(Future.failedFuture(e));
+			return this;
+		}
+		dirty = true;
+		prepareSegment();
+		byId.remove(id);
+		byName.remove(page.name);
+		publish(new JsonObject().put("event", "deleted").put("id", id));
+		replyWhenWritten(resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchAllPagesData(Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+		// Same columns as the JDBC rows
+		List<JsonObject> rows = new ArrayList<>(byId.size());
+		byId.values().forEach(page -> rows.add(new JsonObject()
+				.put("ID", page.id)
+				.put("NAME", page.name)
+				.put("CONTENT", content(page.latest()))
+				.put("UPDATED", page.latest().time)
+				.put("VIEWCOUNT", page.viewCount)));
+		resultHandler.handle(Future.succeededFuture(rows));
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchPageById(int id, Handler<AsyncResult<JsonObject>> resultHandler) {
+		Page page = byId.get(id);
+		if (page == null) {
+			resultHandler.handle(Future.succeededFuture(new JsonObject().put("found", false)));
+			return this;
+		}
+		PageLog.Record latest = page.latest();
+		JsonObject response = new JsonObject()
+				.put("found", true)
+				.put("id", page.id)
+				.put("name", page.name)
+				.put("contentLength", latest.textLength);
+		if (latest.textLength > maxBufferedContentLength) {
+			response.put("tooLarge", true);
+		} else {
+			response.put("content", content(latest));
+		}
+		resultHandler.handle(Future.succeededFuture(response));
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchPageContentChunk(int id, int offset, int length,
+			Handler<AsyncResult<String>> resultHandler) {
+		Page page = byId.get(id);
+		if (page == null) {
+			resultHandler.handle(Future.succeededFuture(null));
+			return this;
+		}
+		String content = content(page.latest());
+		int from = Math.min(offset, content.length());
+		resultHandler.handle(Future.succeededFuture(content.substring(from, Math.min(content.length(), from + length))));
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchPageRevisions(int id, Handler<AsyncResult<JsonArray>> resultHandler) {
+		JsonArray revisions = new JsonArray();
+		Page page = byId.get(id);
+		if (page != null) {
+			page.revisions.values().forEach(record -> revisions.add(new JsonObject()
+					.put("revision", record.revision)
+					.put("snapshot", record.snapshot)
+					.put("storedLength", record.textLength)
+					.put("created", Instant.ofEpochMilli(record.time).toString())));
+		}
+		resultHandler.handle(Future.succeededFuture(revisions));
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchPageRevision(int id, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+		Page page = byId.get(id);
+		if (page == null || !page.revisions.containsKey(revision)) {
+			resultHandler.handle(Future.succeededFuture(new JsonObject().put("found", false)));
+			return this;
+		}
+		// Deltas lead from a revision to the previous one: start at the closest snapshot after it
+		List<PageLog.Record> chain = new ArrayList<>();
+		for (PageLog.Record record : page.revisions.tailMap(revision, true).values()) {
+			chain.add(record);
+			if (record.snapshot) {
+				break;
+			}
+		}
+		String content = PageLog.readText(chain.get(chain.size() - 1).segment, chain.get(chain.size() - 1).offset);
+		for (int i = chain.size() - 2; i >= 0; i--) {
+			content = RevisionDelta.apply(content, PageLog.readText(chain.get(i).segment, chain.get(i).offset));
+		}
+		resultHandler.handle(Future.succeededFuture(new JsonObject()
+				.put("found", true)
+				.put("id", id)
+				.put("revision", revision)
+				.put("content", content)));
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService exportPages(int afterId, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+		return fetchChangedPages(Long.MIN_VALUE, afterId, limit, resultHandler);
+	}
+
+	@Override
+	public WikiDatabaseService fetchChangedPages(long since, int afterId, int limit,
+			Handler<AsyncResult<JsonArray>> resultHandler) {
+		JsonArray pages = new JsonArray();
+		for (Page page : byId.tailMap(afterId, false).values()) {
+			if (pages.size() >= limit) {
+				break;
+			}
+			PageLog.Record latest = page.latest();
+			if (latest.time >= since) {
+				pages.add(new JsonObject()
+						.put("id", page.id)
+						.put("name", page.name)
+						.put("markdown", content(latest)));
+			}
+		}
+		resultHandler.handle(Future.succeededFuture(pages));
+		return this;
+	}
+
+	private int nextId() {
+		return maxId + 1 + Math.floorMod(shard - maxId - 1, shards);
+	}
+
+	@Override
+	public WikiDatabaseService importPages(JsonArray pages, Handler<AsyncResult<Integer>> resultHandler) {
+		Handler<AsyncResult<Void>> failure = ar -> resultHandler.handle(Future.failedFuture(ar.cause()));
+		for (int i = 0; i < pages.size(); i++) {
+			JsonObject imported = pages.getJsonObject(i);
+			Page page = byName.get(imported.getString("name"));
+			boolean created = page == null;
+			if (created) {
+				page = new Page(nextId(), imported.getString("name"));
+			}
+			if (!appendRevision(page, imported.getString("markdown"), failure)) {
+				// Pages of the batch written so far stay imported
+				publish(new JsonObject().put("event", "imported").put("count", i));
+				return this;
+			}
+			if (created) {
+				maxId = page.id;
+				byId.put(page.id, page);
+				byName.put(page.name, page);
+			}
+		}
+		publish(new JsonObject().put("event", "imported").put("count", pages.size()));
+		replyWhenWritten(ar -> resultHandler.handle(ar.map(pages.size())));
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService addPageViews(JsonObject views, Handler<AsyncResult<Void>> resultHandler) {
+		views.forEach(view -> {
+			Page page = byId.get(Integer.valueOf(view.getKey()));
+			if (page != null) {
+				page.viewCount += ((Number) view.getValue()).longValue();
+			}
+		});
+		writeViews(resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchTopViewedPages(int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+		List<Object> top = byId.values().stream()
+				.filter(page -> page.viewCount > 0)
+				.sorted((a, b) -> Long.compare(b.viewCount, a.viewCount))
+				.limit(limit)
+				.map(page -> new JsonObject().put("id", page.id).put("name", page.name).put("viewCount", page.viewCount))
+				.collect(Collectors.toList());
+		resultHandler.handle(Future.succeededFuture(new JsonArray(top)));
+		return this;
+	}
+
+	/**
+	 * Rewrite the view counts file, a single write at a time: views added
+	 * during a write are written once it is done.
+	 */
+	private void writeViews(Handler<AsyncResult<Void>> resultHandler) {
+		if (writingViews) {
+			viewsDirty = true;
+			resultHandler.handle(Future.succeededFuture());
+			return;
+		}
+		writingViews = true;
+		JsonObject views = new JsonObject();
+		byId.values().stream().filter(page -> page.viewCount > 0)
+				.forEach(page -> views.put(String.valueOf(page.id), page.viewCount));
+		byte[] content = views.encode().getBytes(StandardCharsets.UTF_8);
+		vertx.<Void>executeBlocking(future -> {
+			try {
+				// Left over .tmp files are deleted when the page log is opened
+				Path written = Files.write(viewsFile.resolveSibling(VIEWS_FILE + ".tmp"), content);
+				Files.move(written, viewsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				future.complete();
+			} catch (IOException e) {
+				future.fail(e);
+			}
+		}, false, written -> {
+			writingViews = false;
+			if (written.failed()) {
+				LOGGER.error("Could not write the view counts", written.cause());
+			}
+			if (viewsDirty) {
+				viewsDirty = false;
+				writeViews(ar -> {
+				});
+			}
+			resultHandler.handle(written);
+		});
+	}
+
+	@Override
+	public WikiDatabaseService flush(Handler<AsyncResult<Void>> resultHandler) {
+		sync(resultHandler);
+		return this;
+	}
+
+	/**
+	 * Append the markdown as the next revision of the page.
+	 *
+	 * @return false when the append failed, the failure is then reported to
+	 *         the handler
+	 */
+	private boolean appendRevision(Page page, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+		int revision = page.revisions.isEmpty() ? 1 : page.revisions.lastKey() + 1;
+		long time = System.currentTimeMillis();
+		try {
+			PageLog.Record record = log.append(PageLog.encodeRevision(page.id, revision, true, time, page.name, markdown));
+			record.type = PageLog.REVISION;
+			record.id = page.id;
+			record.revision = revision;
+			record.snapshot = true;
+			record.time = time;
+			record.textLength = markdown.length();
+			record.name = page.name;
+			page.revisions.put(revision, record);
+			dirty = true;
+			prepareSegment();
+			return true;
+		} catch (IOException | IllegalArgumentException e) {
+			LOGGER.error("Page log append error", e);
+			resultHandler.handle(Future.failedFuture(e));
+			return false;
+		}
+	}
+
+	private String content(PageLog.Record latest) {
+		// The latest revision is always stored in full
+		return PageLog.readText(latest.segment, latest.offset);
+	}
+
+	private void replyWhenWritten(Handler<AsyncResult<Void>> resultHandler) {
+		if (syncInterval > 0) {
+			resultHandler.handle(Future.succeededFuture());
+		} else {
+			sync(resultHandler);
+		}
+	}
+
+	private void sync(Handler<AsyncResult<Void>> resultHandler) {
+		if (!dirty) {
+			resultHandler.handle(Future.succeededFuture());
+			return;
+		}
+		dirty = false;
+		PageLog current = log;
+		vertx.<Void>executeBlocking(future -> {
+			current.force();
+			future.complete();
+		}, true, resultHandler);
+	}
+
+	/**
+	 * Map the next segment off the event loop once the appends moved to the
+	 * one mapped ahead.
+	 */
+	private void prepareSegment() {
+		if (preparingSegment || !log.needsSpare()) {
+			return;
+		}
+		preparingSegment = true;
+		PageLog current = log;
+		vertx.<Void>executeBlocking(future -> {
+			try {
+				current.prepareSpare();
+				future.complete();
+			} catch (IOException e) {
+				future.fail(e);
+			}
+		}, false, ar -> {
+			preparingSegment = false;
+			if (ar.failed()) {
+				LOGGER.error("Could not map the next page log segment", ar.cause());
+			}
+		});
+	}
+
+	private void publish(JsonObject event) {
+		vertx.eventBus().publish(WikiDatabaseVerticle.PAGE_EVENTS_ADDRESS, event);
+	}
+
+	/**
+	 * Compact once enough has been appended since the last compaction, so
+	 * the rewriting cost stays proportional to the appended bytes.
+	 */
+	private void compactIfNeeded() {
+		long raw = log.rawBytes();
+		if (compacting || raw == 0 || raw < compactionMinBytes || raw < compactionRatio * log.compactedBytes()) {
+			return;
+		}
+		compact(ar -> {
+			if (ar.failed()) {
+				LOGGER.error("Page log compaction failed", ar.cause());
+			}
+		});
+	}
+
+	/**
+	 * Rewrite every segment but a new active one, keeping the live pages
+	 * only. Appends go on meanwhile; records of pages deleted during the
+	 * compaction are copied but stay hidden by their tombstone, which is in
+	 * a segment this compaction doesn't touch.
+	 */
+	void compact(Handler<AsyncResult<Void>> resultHandler) {
+		if (compacting) {
+			resultHandler.handle(Future.failedFuture("A compaction is already running"));
+			return;
+		}
+		long before = log.rawBytes() + log.compactedBytes();
+		List<PageLog.Segment> sealed;
+		try {
+			sealed = log.sealForCompaction();
+		} catch (IOException e) {
+			resultHandler.handle(Future.failedFuture(e));
+			return;
+		}
+		prepareSegment();
+		compacting = true;
+		Set<PageLog.Segment> input = new HashSet<>(sealed);
+
+		// Snapshot of the revisions to rewrite, the index keeps changing on the event loop
+		List<Page> pages = new ArrayList<>();
+		for (Page page : byId.values()) {
+			Page copy = new Page(page.id, page.name);
+			page.revisions.values().stream().filter(record -> input.contains(record.segment))
+					.forEach(record -> copy.revisions.put(record.revision, record));
+			if (!copy.revisions.isEmpty()) {
+				pages.add(copy);
+			}
+		}
+
+		int highestId = maxId;
+		boolean highestIdLive = byId.containsKey(highestId);
+
+		long start = System.currentTimeMillis();
+		vertx.<List<PageLog.Segment>>executeBlocking(future -> {
+			try {
+				PageLog.Compaction compaction = log.compaction();
+				for (Page page : pages) {
+					rewrite(page, compaction);
+				}
+				if (!highestIdLive && highestId > 0) {
+					// Ids are never reused: remember the highest one even when its page is gone
+					compaction.write(PageLog.encodeDelete(highestId));
+				}
+				future.complete(compaction.finish());
+			} catch (IOException e) {
+				future.fail(e);
+			}
+		}, false, written -> {
+			compacting = false;
+			if (written.failed()) {
+				resultHandler.handle(Future.failedFuture(written.cause()));
+				return;
+			}
+			for (Page copy : pages) {
+				Page page = byId.get(copy.id);
+				if (page == null) {
+					continue; // deleted meanwhile
+				}
+				copy.revisions.forEach((revision, record) -> {
+					if (input.contains(page.revisions.get(revision).segment)) {
+						page.revisions.put(revision, record);
+					}
+				});
+			}
+			try {
+				log.replace(sealed, written.result());
+			} catch (IOException e) {
+				resultHandler.handle(Future.failedFuture(e));
+				return;
+			}
+			LOGGER.info("Page log compacted from " + before / 1024 + "KB to "
+					+ (log.rawBytes() + log.compactedBytes()) / 1024 + "KB in " + (System.currentTimeMillis() - start)
+					+ "ms");
+			resultHandler.handle(Future.succeededFuture());
+		});
+	}
+
+	/**
+	 * Write the revisions of the page, newest first: the newest in full, the
+	 * others as the delta from the next one, with a full snapshot every
+	 * snapshotInterval revisions so rebuilding an old revision stays cheap.
+	 * Replaces the records of the page copy with the written ones.
+	 */
+	private void rewrite(Page page, PageLog.Compaction compaction) throws IOException {
+		String newer = null;
+		int sinceSnapshot = 0;
+		for (PageLog.Record record : new ArrayList<>(page.revisions.descendingMap().values())) {
+			String text = PageLog.readText(record.segment, record.offset);
+			String content = record.snapshot ? text : RevisionDelta.apply(newer, text);
+
+			String stored = content;
+			boolean snapshot = true;
+			if (newer != null && sinceSnapshot + 1 < snapshotInterval) {
+				String delta = RevisionDelta.diff(newer, content);
+				if (delta.length() < content.length()) {
+					stored = delta;
+					snapshot = false;
+				}
+			}
+			sinceSnapshot = snapshot ? 0 : sinceSnapshot + 1;
+
+			PageLog.Record written = compaction.write(PageLog.encodeRevision(page.id, record.revision, snapshot,
+					record.time, page.name, stored));
+			written.type = PageLog.REVISION;
+			written.id = page.id;
+			written.revision = record.revision;
+			written.snapshot = snapshot;
+			written.time = record.time;
+			written.textLength = stored.length();
+			written.name = page.name;
+			page.revisions.put(record.revision, written);
+			newer = content;
+		}
+	}
+}
@@ -0,0 +1,408 @@
+package com.vertxexploration.webapp.db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only page storage split in memory-mapped segment files. Records
+ * are never modified: a save appends the new revision of the page, a delete
+ * appends a tombstone, and compaction writes the live records to new
+ * segments before dropping the old ones.
+ * <p>
+ * Page ids are never reused and every record carries the id and revision it
+ * belongs to, so replaying the segments in any order rebuilds the same
+ * state. That lets compaction run without stopping the appends.
+ * <p>
+ * Record layout: {@code int payloadLength, int crc32, payload}. A zero
+ * length (the unwritten tail of a mapped segment) or a bad checksum (a torn
+ * write) ends a segment.
+ * <p>
+ * Mapping a segment and forcing a full one to disk both block, so neither
+ * happens on the append path: the next segment is mapped ahead with
+ * {@link #prepareSpare()}, and a full segment is forced by the next
+ * {@link #force()}, both called off the event loop.
+ */
+class PageLog {
+
+	static final byte REVISION = 1;
+	static final byte DELETE = 2;
+
+	private static final int HEADER_SIZE = 8;
+	private static final String RAW_PREFIX = "segment-";
+	private static final String COMPACTED_PREFIX = "compacted-";
+	private static final String SUFFIX = ".log";
+
+	private final Path directory;
+	private final int segmentSize;
+	private final AtomicLong numbers = new AtomicLong();
+	// Only touched from the verticle event loop
+	private final List<Segment> segments = new ArrayList<>();
+	private volatile Segment active;
+	// Full segments not forced to disk yet
+	private final Queue<Segment> unforced = new ConcurrentLinkedQueue<>();
+	// The next active segment, mapped ahead
+	private final AtomicReference<Segment> spare = new AtomicReference<>();
+
+	/**
+	 * A segment file, mapped once. Its buffer is only read through duplicates
+	 * so readers on different threads don't share a position.
+	 */
+	static class Segment {
+		private final Path path;
+		private final boolean compacted;
+		private final MappedByteBuffer buffer;
+		private int size;
+
+		private Segment(Path path, boolean compacted, MappedByteBuffer buffer, int size) {
+			this.path = path;
+			this.compacted = compacted;
+			this.buffer = buffer;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Fields of a record, the stored text is only decoded on demand with
+	 * {@link PageLog#readText(Segment, int)}.
+	 */
+	static class Record {
+		byte type;
+		int id;
+		int revision;
+		boolean snapshot;
+		long time;
+		int textLength;
+		String name;
+		Segment segment;
+		int offset;
+		int size;
+	}
+
+	private PageLog(Path directory, int segmentSize) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Open (or create) the log in the directory and hand every valid record
+	 * to the replay consumer, in no particular order. Blocking.
+	 */
+	static PageLog open(Path directory, int segmentSize, Consumer<Record> replay) throws IOException {
+		Files.createDirectories(directory);
+		PageLog log = new PageLog(directory, segmentSize);
+
+		List<Path> files;
+		try (Stream<Path> listing = Files.list(directory)) {
+			files = listing.sorted().collect(Collectors.toList());
+		}
+		for (Path file : files) {
+			String name = file.getFileName().toString();
+			if (name.endsWith(".tmp")) {
+				Files.delete(file); // compaction output that never got renamed
+				continue;
+			}
+			boolean compacted = name.startsWith(COMPACTED_PREFIX);
+			if (!name.endsWith(SUFFIX) || !(compacted || name.startsWith(RAW_PREFIX))) {
+				continue;
+			}
+			String number = name.substring((compacted ? COMPACTED_PREFIX : RAW_PREFIX).length(),
+					name.length() - SUFFIX.length());
+			log.numbers.accumulateAndGet(Long.parseLong(number), Math::max);
+
+			MappedByteBuffer buffer;
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			Segment segment = new Segment(file, compacted, buffer, 0);
+			segment.size = scan(segment, replay);
+			if (segment.size == 0 && !compacted) {
+				Files.delete(file); // the spare or the active segment of the last run, never written
+				continue;
+			}
+			log.segments.add(segment);
+		}
+		log.active = log.newSegment(segmentSize);
+		log.segments.add(log.active);
+		log.prepareSpare();
+		return log;
+	}
+
+	/**
+	 * @return the size of the valid records
+	 */
+	private static int scan(Segment segment, Consumer<Record> replay) {
+		int offset = 0;
+		while (true) {
+			Record record = read(segment, offset);
+			if (record == null) {
+				return offset;
+			}
+			replay.accept(record);
+			offset += record.size;
+		}
+	}
+
+	private static Record read(Segment segment, int offset) {
+		ByteBuffer buffer = segment.buffer.duplicate();
+		if (offset + HEADER_SIZE > buffer.limit()) {
+			return null;
+		}
+		int length = buffer.getInt(offset);
+		if (length <= 0 || offset + HEADER_SIZE + length > buffer.limit()) {
+			return null;
+		}
+		buffer.position(offset + HEADER_SIZE);
+		buffer.limit(offset + HEADER_SIZE + length);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.slice());
+		if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+			return null;
+		}
+
+		Record record = new Record();
+		record.segment = segment;
+		record.offset = offset;
+		record.size = HEADER_SIZE + length;
+		record.type = buffer.get();
+		record.id = buffer.getInt();
+		if (record.type == REVISION) {
+			record.revision = buffer.getInt();
+			record.snapshot = buffer.get() != 0;
+			record.time = buffer.getLong();
+			record.textLength = buffer.getInt();
+			byte[] name = new byte[buffer.getShort() & 0xffff];
+			buffer.get(name);
+			record.name = new String(name, StandardCharsets.UTF_8);
+		}
+		return record;
+	}
+
+	/**
+	 * @return the stored text (full content or delta) of a revision record
+	 */
+	static String readText(Segment segment, int offset) {
+		ByteBuffer buffer = segment.buffer.duplicate();
+		buffer.position(offset + HEADER_SIZE + 1 + 4 + 4 + 1 + 8 + 4);
+		buffer.position(buffer.position() + 2 + (buffer.getShort() & 0xffff));
+		byte[] text = new byte[buffer.getInt()];
+		buffer.get(text);
+		return new String(text, StandardCharsets.UTF_8);
+	}
+
+	static ByteBuffer encodeRevision(int id, int revision, boolean snapshot, long time, String name, String text) {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		if (nameBytes.length > 0xffff) {
+			throw new IllegalArgumentException("Page name too long");
+		}
+		byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer payload = ByteBuffer.allocate(1 + 4 + 4 + 1 + 8 + 4 + 2 + nameBytes.length + 4 + textBytes.length);
+		payload.put(REVISION).putInt(id).putInt(revision).put((byte) (snapshot ? 1 : 0)).putLong(time)
+				.putInt(text.length()).putShort((short) nameBytes.length).put(nameBytes)
+				.putInt(textBytes.length).put(textBytes);
+		return frame(payload);
+	}
+
+	static ByteBuffer encodeDelete(int id) {
+		ByteBuffer payload = ByteBuffer.allocate(1 + 4);
+		payload.put(DELETE).putInt(id);
+		return frame(payload);
+	}
+
+	private static ByteBuffer frame(ByteBuffer payload) {
+		payload.flip();
+		CRC32 crc = new CRC32();
+		crc.update(payload.duplicate());
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.remaining());
+		record.putInt(payload.remaining()).putInt((int) crc.getValue()).put(payload);
+		record.flip();
+		return record;
+	}
+
+	/**
+	 * Append an encoded record to the active segment, starting a new one
+	 * when it is full.
+	 */
+	Record append(ByteBuffer record) throws IOException {
+		int size = record.remaining();
+		if (active.size + size > active.buffer.capacity()) {
+			roll(size);
+		}
+		Record appended = new Record();
+		appended.segment = active;
+		appended.offset = active.size;
+		appended.size = size;
+
+		ByteBuffer target = active.buffer.duplicate();
+		target.position(active.size);
+		// The length goes in last, so a record is never seen before it is complete
+		target.putInt(0).put((ByteBuffer) record.position(4));
+		active.buffer.putInt(appended.offset, record.getInt(0));
+		active.size += size;
+		return appended;
+	}
+
+	/**
+	 * Write the appended records to disk, those of the full segments and of
+	 * the active one. Blocking.
+	 */
+	void force() {
+		Segment full;
+		while ((full = unforced.poll()) != null) {
+			full.buffer.force();
+		}
+		active.buffer.force();
+	}
+
+	/**
+	 * @return true once the spare segment became the active one
+	 */
+	boolean needsSpare() {
+		return spare.get() == null;
+	}
+
+	/**
+	 * Map the segment the appends move to once the active one is full.
+	 * Blocking, not to be called concurrently.
+	 */
+	void prepareSpare() throws IOException {
+		if (spare.get() == null) {
+			spare.set(newSegment(segmentSize));
+		}
+	}
+
+	/**
+	 * Make the spare segment the active one, the full one is forced by the
+	 * next {@link #force()}.
+	 */
+	private void roll(int recordSize) throws IOException {
+		Segment next = spare.getAndSet(null);
+		if (next == null || next.buffer.capacity() < recordSize) {
+			// Not mapped ahead yet, or a record larger than a segment: map it now
+			spare.compareAndSet(null, next);
+			next = newSegment(Math.max(segmentSize, recordSize));
+		}
+		unforced.add(active);
+		segments.add(next);
+		active = next;
+	}
+
+	private Segment newSegment(int capacity) throws IOException {
+		Path path = directory.resolve(String.format("%s%016d%s", RAW_PREFIX, numbers.incrementAndGet(), SUFFIX));
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			// The file grows to the mapped size, pages never written stay sparse
+			return new Segment(path, false, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity), 0);
+		}
+	}
+
+	long rawBytes() {
+		return segments.stream().filter(segment -> !segment.compacted).mapToLong(segment -> segment.size).sum();
+	}
+
+	long compactedBytes() {
+		return segments.stream().filter(segment -> segment.compacted).mapToLong(segment -> segment.size).sum();
+	}
+
+	/**
+	 * Start a new active segment and return every other one, the input of a
+	 * compaction.
+	 */
+	List<Segment> sealForCompaction() throws IOException {
+		roll(0);
+		return segments.stream().filter(segment -> segment != active).collect(Collectors.toList());
+	}
+
+	/**
+	 * Writes compacted records to new segment files, off the event loop.
+	 */
+	Compaction compaction() {
+		return new Compaction();
+	}
+
+	/**
+	 * Swap the segments a compaction read for the ones it wrote, and delete
+	 * the former. Records of the old segments must not be referenced anymore.
+	 */
+	void replace(List<Segment> compacted, List<Segment> written) throws IOException {
+		segments.removeAll(compacted);
+		segments.addAll(written);
+		for (Segment segment : compacted) {
+			Files.deleteIfExists(segment.path);
+		}
+	}
+
+	class Compaction {
+		private final List<Segment> written = new ArrayList<>();
+		// Records of the file being written, they get their segment once it is mapped
+		private final List<Record> current = new ArrayList<>();
+		private Path tmp;
+		private FileChannel channel;
+		private int size;
+
+		/**
+		 * @return where the record was written; the record segment is only
+		 *         set once {@link #finish()} returns
+		 */
+		Record write(ByteBuffer record) throws IOException {
+			if (channel == null || size + record.remaining() > segmentSize) {
+				close();
+				tmp = directory.resolve(String.format("%s%016d%s.tmp", COMPACTED_PREFIX, numbers.incrementAndGet(),
+						SUFFIX));
+				channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+						StandardOpenOption.WRITE);
+				size = 0;
+			}
+			Record appended = new Record();
+			appended.offset = size;
+			appended.size = record.remaining();
+			while (record.hasRemaining()) {
+				channel.write(record);
+			}
+			size += appended.size;
+			current.add(appended);
+			return appended;
+		}
+
+		/**
+		 * Sync, rename and map the written segments.
+		 *
+		 * @return the new segments
+		 */
+		List<Segment> finish() throws IOException {
+			close();
+			return written;
+		}
+
+		private void close() throws IOException {
+			if (channel == null) {
+				return;
+			}
+			channel.force(true);
+			Path path = directory.resolve(tmp.getFileName().toString().replaceFirst("\\.tmp$", ""));
+			Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+			Segment segment = new Segment(path, true, channel.map(FileChannel.MapMode.READ_ONLY, 0, size), size);
+			channel.close();
+			channel = null;
+			written.add(segment);
+			current.forEach(record -> record.segment = segment);
+			current.clear();
+		}
+	}
+}
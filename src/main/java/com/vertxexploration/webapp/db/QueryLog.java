@@ -0,0 +1,174 @@
+package com.vertxexploration.webapp.db;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.jdbc.JDBCClient;
+
+/**
+ * Latency statistics of the SQL statements, by {@link SqlQuery}. Statements
+ * slower than the threshold are logged with the size of their parameters
+ * (never their values, they hold page contents), and the first time a query
+ * is slow its HSQLDB plan is captured with EXPLAIN PLAN FOR and logged too.
+ * Statements which aren't one of the SqlQuery (maintenance) are counted as
+ * OTHER.
+ * <p>
+ * The statistics are shared by the database verticle instances and read by
+ * {@link #stats(Vertx)}.
+ */
+public class QueryLog {
+	private static final Logger LOGGER = LoggerFactory.getLogger(QueryLog.class);
+
+	private static final String SHARED_MAP_NAME = "wikidb.queries";
+	private static final String OTHER = "OTHER";
+
+	private final JDBCClient planClient;
+	private final long slowNanos;
+	private final Map<String, SqlQuery> queriesBySql = new HashMap<>();
+	private final Stats stats;
+
+	/**
+	 * @param planClient runs the EXPLAIN statements, they are not recorded
+	 */
+	QueryLog(Vertx vertx, JDBCClient planClient, Map<SqlQuery, String> sqlQueries, long slowMillis) {
+		this.planClient = planClient;
+		this.slowNanos = slowMillis * 1_000_000;
+		sqlQueries.forEach((query, sql) -> queriesBySql.put(sql, query));
+
+		LocalMap<String, Stats> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+		map.putIfAbsent(SHARED_MAP_NAME, new Stats());
+		this.stats = map.get(SHARED_MAP_NAME);
+		stats.slowMillis = slowMillis;
+	}
+
+	/**
+	 * @return the statistics of each query, and the captured plans, empty
+	 *         when the wiki doesn't use the JDBC backend
+	 */
+	public static JsonObject stats(Vertx vertx) {
+		Stats stats = vertx.sharedData().<String, Stats>getLocalMap(SHARED_MAP_NAME).get(SHARED_MAP_NAME);
+		JsonObject queries = new JsonObject();
+		if (stats == null) {
+			return new JsonObject().put("queries", queries);
+		}
+		stats.queries.entrySet().stream().sorted(Map.Entry.comparingByKey())
+				.forEach(query -> queries.put(query.getKey(), query.getValue().toJson()));
+		return new JsonObject().put("slowMillis", stats.slowMillis).put("queries", queries);
+	}
+
+	void record(String sql, JsonArray params, long nanos, boolean failed) {
+		record(sql, () -> sizes(params), nanos, failed);
+	}
+
+	void recordBatch(String sql, List<JsonArray> batch, long nanos, boolean failed) {
+		record(sql, () -> batch.size() + " rows, first " + (batch.isEmpty() ? "[]" : sizes(batch.get(0))), nanos, failed);
+	}
+
+	private void record(String sql, Supplier<String> params, long nanos, boolean failed) {
+		SqlQuery query = queriesBySql.get(sql);
+		QueryStats queryStats = stats.queries.computeIfAbsent(query == null ? OTHER : query.name(),
+				name -> new QueryStats());
+		queryStats.record(nanos, failed);
+		if (nanos < slowNanos) {
+			return;
+		}
+		queryStats.slow.increment();
+		String name = query == null ? OTHER + " " + sql : query.name();
+		LOGGER.warn(String.format("Slow query %s: %.1f ms, parameters %s%s", name, nanos / 1e6, params.get(),
+				failed ? ", failed" : ""));
+		if (query != null && queryStats.planRequested.compareAndSet(false, true)) {
+			capturePlan(query, sql, queryStats);
+		}
+	}
+
+	private void capturePlan(SqlQuery query, String sql, QueryStats queryStats) {
+		// Parameter markers are fine, HSQLDB prepares the statement without executing it
+		planClient.query("EXPLAIN PLAN FOR " + sql, explained -> {
+			if (explained.failed()) {
+				queryStats.plan = "unavailable: " + explained.cause().getMessage();
+				return;
+			}
+			String plan = explained.result().getResults().stream()
+					.map(row -> row.getString(0))
+					.collect(Collectors.joining("\n"));
+			if (plan.trim().isEmpty()) {
+				// DDL statements have an empty one
+				queryStats.plan = "unavailable";
+				return;
+			}
+			queryStats.plan = plan;
+			LOGGER.warn("Plan of slow query " + query + ":\n" + plan);
+		});
+	}
+
+	/**
+	 * @return the size of each parameter: chars of the strings, bytes of the
+	 *         binaries, the type of the others
+	 */
+	private static String sizes(JsonArray params) {
+		if (params == null) {
+			return "[]";
+		}
+		return params.stream().map(param -> {
+			if (param == null) {
+				return "null";
+			} else if (param instanceof String) {
+				return ((String) param).length() + " chars";
+			} else if (param instanceof byte[]) {
+				return ((byte[]) param).length + " bytes";
+			}
+			return param.getClass().getSimpleName();
+		}).collect(Collectors.joining(", ", "[", "]"));
+	}
+
+	private static class Stats implements Shareable {
+		private final Map<String, QueryStats> queries = new ConcurrentHashMap<>();
+		private volatile long slowMillis;
+	}
+
+	private static class QueryStats {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder failed = new LongAdder();
+		private final LongAdder slow = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+		private final AtomicBoolean planRequested = new AtomicBoolean();
+		private volatile String plan;
+
+		private void record(long nanos, boolean failed) {
+			count.increment();
+			if (failed) {
+				this.failed.increment();
+			}
+			totalNanos.add(nanos);
+			maxNanos.accumulate(nanos);
+		}
+
+		private JsonObject toJson() {
+			long count = this.count.sum();
+			long nanos = totalNanos.sum();
+			return new JsonObject()
+					.put("count", count)
+					.put("failed", failed.sum())
+					.put("slow", slow.sum())
+					.put("avgMillis", count == 0 ? 0 : Math.round(nanos / count / 1e4) / 100.0)
+					.put("maxMillis", Math.round(maxNanos.get() / 1e4) / 100.0)
+					.put("totalMillis", Math.round(nanos / 1e4) / 100.0)
+					.put("plan", plan);
+		}
+	}
+}
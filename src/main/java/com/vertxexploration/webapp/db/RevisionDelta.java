@@ -0,0 +1,45 @@
+package com.vertxexploration.webapp.db;
+
+/**
+ * Delta encoding used to store page revisions. An edit usually touches one
+ * region of a page, so a revision is stored as the length of the prefix and
+ * suffix it shares with the previous one plus the text in between:
+ * {@code <prefixLength>,<suffixLength>:<inserted text>}.
+ */
+final class RevisionDelta {
+
+	private RevisionDelta() {
+	}
+
+	static String diff(String from, String to) {
+		int maxCommon = Math.min(from.length(), to.length());
+
+		int prefix = 0;
+		while (prefix < maxCommon && from.charAt(prefix) == to.charAt(prefix)) {
+			prefix++;
+		}
+		int suffix = 0;
+		while (suffix < maxCommon - prefix
+				&& from.charAt(from.length() - 1 - suffix) == to.charAt(to.length() - 1 - suffix)) {
+			suffix++;
+		}
+
+		return new StringBuilder()
+				.append(prefix).append(',').append(suffix).append(':')
+				.append(to, prefix, to.length() - suffix)
+				.toString();
+	}
+
+	static String apply(String base, String delta) {
+		int comma = delta.indexOf(',');
+		int colon = delta.indexOf(':', comma);
+		int prefix = Integer.parseInt(delta.substring(0, comma));
+		int suffix = Integer.parseInt(delta.substring(comma + 1, colon));
+
+		return new StringBuilder(prefix + (delta.length() - colon - 1) + suffix)
+				.append(base, 0, prefix)
+				.append(delta, colon + 1, delta.length())
+				.append(base, base.length() - suffix, base.length())
+				.toString();
+	}
+}
@@ -0,0 +1,240 @@
+package com.vertxexploration.webapp.db;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ServiceException;
+
+/**
+ * Spreads the pages over several database verticles, each with its own
+ * database (see {@link WikiDatabaseVerticle#shardConfig}). A page lives on
+ * the shard given by the hash of its name, which is where it is created and
+ * looked up by name. The shards generate ids equal to their number modulo
+ * the number of shards, so calls by id go straight to the shard of the page
+ * and ids stay unique. Listings are asked to every shard and merged.
+ * <p>
+ * An import is split by shard, it is atomic on each shard but not across
+ * them. So are view count additions, which report the views of the shards
+ * that failed.
+ */
+class ShardedWikiDatabaseService implements WikiDatabaseService {
+
+	private final List<WikiDatabaseService> shards;
+
+	ShardedWikiDatabaseService(List<WikiDatabaseService> shards) {
+		this.shards = shards;
+	}
+
+	private WikiDatabaseService byName(String name) {
+		return shards.get(Math.floorMod(name.hashCode(), shards.size()));
+	}
+
+	private WikiDatabaseService byId(int id) {
+		return shards.get(Math.floorMod(id, shards.size()));
+	}
+
+	@Override
+	public WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
+		all(WikiDatabaseService::fetchAllPages, resultHandler, results -> {
+			List<String> names = new ArrayList<>();
+			results.forEach(pages -> pages.forEach(name -> names.add((String) name)));
+			names.sort(null);
+			return new JsonArray(names);
+		});
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
+		byName(name).fetchPage(name, resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+		byName(title).createPage(title, markdown, resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+		byId(id).savePage(id, markdown, resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
+		byId(id).deletePage(id, resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchAllPagesData(Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+		all(WikiDatabaseService::fetchAllPagesData, resultHandler, results -> {
+			List<JsonObject> pages = new ArrayList<>();
+			results.forEach(pages::addAll);
+			return pages;
+		});
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchPageById(int id, Handler<AsyncResult<JsonObject>> resultHandler) {
+		byId(id).fetchPageById(id, resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchPageContentChunk(int id, int offset, int length,
+			Handler<AsyncResult<String>> resultHandler) {
+		byId(id).fetchPageContentChunk(id, offset, length, resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchPageRevisions(int id, Handler<AsyncResult<JsonArray>> resultHandler) {
+		byId(id).fetchPageRevisions(id, resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchPageRevision(int id, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+		byId(id).fetchPageRevision(id, revision, resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService exportPages(int afterId, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+		this.<JsonArray, JsonArray>all((shard, handler) -> shard.exportPages(afterId, limit, handler), resultHandler,
+				results -> firstById(results, limit));
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchChangedPages(long since, int afterId, int limit,
+			Handler<AsyncResult<JsonArray>> resultHandler) {
+		this.<JsonArray, JsonArray>all((shard, handler) -> shard.fetchChangedPages(since, afterId, limit, handler),
+				resultHandler, results -> firstById(results, limit));
+		return this;
+	}
+
+	/**
+	 * Each shard returns its next pages after the same id, the first limit of
+	 * them all are the next pages of the wiki.
+	 */
+	private static JsonArray firstById(List<JsonArray> results, int limit) {
+		List<JsonObject> pages = new ArrayList<>();
+		results.forEach(shardPages -> shardPages.forEach(page -> pages.add((JsonObject) page)));
+		pages.sort(Comparator.comparing(page -> page.getInteger("id")));
+		return new JsonArray(new ArrayList<>(pages.subList(0, Math.min(limit, pages.size()))));
+	}
+
+	@Override
+	public WikiDatabaseService importPages(JsonArray pages, Handler<AsyncResult<Integer>> resultHandler) {
+		List<JsonArray> batches = new ArrayList<>();
+		shards.forEach(shard -> batches.add(new JsonArray()));
+		pages.forEach(page -> batches.get(Math.floorMod(((JsonObject) page).getString("name").hashCode(), shards.size()))
+				.add(page));
+
+		List<Future> imports = new ArrayList<>();
+		for (int i = 0; i < shards.size(); i++) {
+			if (!batches.get(i).isEmpty()) {
+				Future<Integer> imported = Future.future();
+				shards.get(i).importPages(batches.get(i), imported.completer());
+				imports.add(imported);
+			}
+		}
+		CompositeFuture.all(imports).setHandler(ar -> {
+			if (ar.failed()) {
+				resultHandler.handle(Future.failedFuture(ar.cause()));
+				return;
+			}
+			resultHandler.handle(Future.succeededFuture(
+					ar.result().<Integer>list().stream().mapToInt(Integer::intValue).sum()));
+		});
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService addPageViews(JsonObject views, Handler<AsyncResult<Void>> resultHandler) {
+		List<JsonObject> batches = new ArrayList<>();
+		shards.forEach(shard -> batches.add(new JsonObject()));
+		views.forEach(view -> batches.get(Math.floorMod(Integer.parseInt(view.getKey()), shards.size()))
+				.put(view.getKey(), view.getValue()));
+		List<Future> additions = new ArrayList<>();
+		List<JsonObject> sent = new ArrayList<>();
+		for (int i = 0; i < shards.size(); i++) {
+			if (!batches.get(i).isEmpty()) {
+				Future<Void> added = Future.future();
+				shards.get(i).addPageViews(batches.get(i), added.completer());
+				additions.add(added);
+				sent.add(batches.get(i));
+			}
+		}
+		// Wait for every shard, the caller must only send again the views of those which failed
+		CompositeFuture.join(additions).setHandler(ar -> {
+			if (ar.succeeded()) {
+				resultHandler.handle(Future.succeededFuture());
+				return;
+			}
+			JsonObject notAdded = new JsonObject();
+			for (int i = 0; i < additions.size(); i++) {
+				if (additions.get(i).failed()) {
+					notAdded.mergeIn(sent.get(i));
+				}
+			}
+			resultHandler.handle(ServiceException.fail(500, ar.cause().getMessage(),
+					new JsonObject().put("notAdded", notAdded)));
+		});
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchTopViewedPages(int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+		this.<JsonArray, JsonArray>all((shard, handler) -> shard.fetchTopViewedPages(limit, handler), resultHandler,
+				results -> {
+			List<JsonObject> pages = new ArrayList<>();
+			results.forEach(shardPages -> shardPages.forEach(page -> pages.add((JsonObject) page)));
+			pages.sort(Comparator.<JsonObject, Long>comparing(page -> page.getLong("viewCount")).reversed()
+					.thenComparing(page -> page.getInteger("id")));
+			return new JsonArray(new ArrayList<>(pages.subList(0, Math.min(limit, pages.size()))));
+		});
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService flush(Handler<AsyncResult<Void>> resultHandler) {
+		all(WikiDatabaseService::flush, resultHandler, results -> null);
+		return this;
+	}
+
+	/**
+	 * Make the call on every shard, and merge their results once they all
+	 * succeeded.
+	 */
+	private <T, R> void all(BiConsumer<WikiDatabaseService, Handler<AsyncResult<T>>> call,
+			Handler<AsyncResult<R>> resultHandler, Function<List<T>, R> merge) {
+		List<Future> calls = new ArrayList<>();
+		for (WikiDatabaseService shard : shards) {
+			Future<T> result = Future.future();
+			call.accept(shard, result.completer());
+			calls.add(result);
+		}
+		CompositeFuture.all(calls).setHandler(ar -> {
+			if (ar.failed()) {
+				resultHandler.handle(Future.failedFuture(ar.cause()));
+				return;
+			}
+			resultHandler.handle(Future.succeededFuture(merge.apply(ar.result().list())));
+		});
+	}
+}
@@ -2,11 +2,31 @@ package com.vertxexploration.webapp.db;
 
 public enum SqlQuery {
 	CREATE_PAGES_TABLE, 
+	ADD_PAGES_UPDATED_COLUMN,
+	ADD_PAGES_VIEW_COUNT_COLUMN,
 	ALL_PAGES, 
 	GET_PAGE, 
 	CREATE_PAGE, 
 	SAVE_PAGE, 
+	LOCK_PAGE,
 	DELETE_PAGE, 
 	ALL_PAGES_DATA, 
-	GET_PAGE_BY_ID
+	GET_PAGE_BY_ID,
+	GET_PAGE_CONTENT_CHUNK,
+	GET_PAGE_CONTENT,
+	CREATE_REVISIONS_TABLE,
+	CREATE_PAGE_REVISION,
+	GET_REVISION_STATE,
+	INSERT_REVISION,
+	DELETE_PAGE_REVISIONS,
+	PAGE_REVISIONS,
+	REVISION_CHAIN,
+	EXPORT_PAGES,
+	IMPORT_PAGE,
+	IMPORT_PAGE_REVISION,
+	CHANGED_PAGES,
+	ADD_PAGE_VIEWS,
+	TOP_VIEWED_PAGES,
+	MAX_PAGE_ID,
+	RESTART_PAGE_ID
 }
@@ -0,0 +1,238 @@
+package com.vertxexploration.webapp.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.ext.jdbc.JDBCClient;
+
+/**
+ * HSQLDB storage settings, picked from a named profile and optionally
+ * overridden one by one:
+ * <ul>
+ * <li>{@code table_type}: {@code memory} tables are fully loaded in the heap
+ * at startup, {@code cached} tables keep only {@code cache_rows} rows (or
+ * {@code cache_size_kb}) in memory and read the rest from the .data file</li>
+ * <li>{@code tx_control}: {@code locks}, {@code mvlocks} or {@code mvcc}, the
+ * latter lets readers run while a page is being saved</li>
+ * <li>{@code write_delay_ms}: how long commits may sit in memory before the
+ * log is synced, 0 syncs on every commit</li>
+ * <li>{@code log_size_mb}: log size that triggers an automatic checkpoint</li>
+ * <li>{@code defrag_percent}: wasted .data space that makes a checkpoint
+ * defragment the file</li>
+ * <li>{@code checkpoint_interval_ms}: background checkpoints, 0 for none. A
+ * checkpoint rewrites the .script (or .data) file, so it is throttled: it
+ * only runs once the log has grown by {@code checkpoint_min_log_kb}, and
+ * never while the previous one is still running</li>
+ * <li>{@code defrag_interval_ms}: background {@code CHECKPOINT DEFRAG}, 0
+ * for none</li>
+ * </ul>
+ * The {@code default} profile changes nothing, the database keeps whatever
+ * settings it was created with.
+ */
+public class StorageProfile {
+	private static final Logger LOGGER = LoggerFactory.getLogger(StorageProfile.class);
+
+	public static final String DEFAULT = "default";
+
+	private static final JsonObject PROFILES = new JsonObject()
+			.put(DEFAULT, new JsonObject())
+			// Small wikis: everything in the heap, fast reads, startup grows with the data
+			.put("memory", new JsonObject()
+					.put("table_type", "memory")
+					.put("tx_control", "mvcc")
+					.put("write_delay_ms", 500)
+					.put("log_size_mb", 50)
+					.put("checkpoint_interval_ms", 3600000L)
+					.put("checkpoint_min_log_kb", 1024))
+			// Large wikis: bounded heap and quick startup, rows are read from disk on cache misses
+			.put("large", new JsonObject()
+					.put("table_type", "cached")
+					.put("tx_control", "mvcc")
+					.put("cache_rows", 20000)
+					.put("cache_size_kb", 64 * 1024)
+					.put("write_delay_ms", 1000)
+					.put("log_size_mb", 200)
+					.put("defrag_percent", 30)
+					.put("checkpoint_interval_ms", 600000L)
+					.put("checkpoint_min_log_kb", 8 * 1024)
+					.put("defrag_interval_ms", 6 * 3600000L))
+			// No commit lost on a crash, at the cost of a sync per commit
+			.put("durable", new JsonObject()
+					.put("table_type", "cached")
+					.put("tx_control", "mvcc")
+					.put("cache_rows", 20000)
+					.put("cache_size_kb", 64 * 1024)
+					.put("write_delay_ms", 0)
+					.put("log_size_mb", 50)
+					.put("defrag_percent", 30)
+					.put("checkpoint_interval_ms", 300000L)
+					.put("checkpoint_min_log_kb", 1024));
+
+	private final String name;
+	private final JsonObject settings;
+
+	/**
+	 * @param overrides
+	 *            settings replacing those of the profile, may be null
+	 * @throws IllegalArgumentException
+	 *             for an unknown profile
+	 */
+	public StorageProfile(String name, JsonObject overrides) {
+		JsonObject profile = PROFILES.getJsonObject(name);
+		if (profile == null) {
+			throw new IllegalArgumentException("Unknown storage profile " + name + ", expected one of "
+					+ PROFILES.fieldNames());
+		}
+		this.name = name;
+		this.settings = profile.copy().mergeIn(overrides != null ? overrides : new JsonObject());
+	}
+
+	public static List<String> names() {
+		return new ArrayList<>(PROFILES.fieldNames());
+	}
+
+	public String name() {
+		return name;
+	}
+
+	public JsonObject settings() {
+		return settings.copy();
+	}
+
+	/**
+	 * Apply the settings to the database. They are persistent, so this is
+	 * mostly a no-op after the first start with a profile; tables only get
+	 * converted when their type differs.
+	 */
+	public Completable apply(JDBCClient dbClient) {
+		List<String> statements = new ArrayList<>();
+		if (settings.containsKey("tx_control")) {
+			statements.add("set database transaction control " + settings.getString("tx_control"));
+		}
+		if (settings.containsKey("cache_rows")) {
+			statements.add("set files cache rows " + settings.getInteger("cache_rows"));
+		}
+		if (settings.containsKey("cache_size_kb")) {
+			statements.add("set files cache size " + settings.getInteger("cache_size_kb"));
+		}
+		if (settings.containsKey("write_delay_ms")) {
+			int delay = settings.getInteger("write_delay_ms");
+			statements.add(delay == 0 ? "set files write delay false" : "set files write delay " + delay + " millis");
+		}
+		if (settings.containsKey("log_size_mb")) {
+			statements.add("set files log size " + settings.getInteger("log_size_mb"));
+		}
+		if (settings.containsKey("defrag_percent")) {
+			statements.add("set files defrag " + settings.getInteger("defrag_percent"));
+		}
+
+		Completable tables = Completable.complete();
+		if (settings.containsKey("table_type")) {
+			String type = settings.getString("table_type").toUpperCase();
+			statements.add("set database default table type " + type);
+			tables = dbClient.rxQueryWithParams("select TABLE_NAME from INFORMATION_SCHEMA.SYSTEM_TABLES "
+					+ "where TABLE_SCHEM = 'PUBLIC' and TABLE_TYPE = 'TABLE' and HSQLDB_TYPE <> ?",
+					new JsonArray().add(type))
+					.flatMapPublisher(rs -> Flowable.fromIterable(rs.getResults()))
+					.concatMap(row -> {
+						long start = System.currentTimeMillis();
+						return dbClient.rxUpdate("set table " + row.getString(0) + " type " + type).toFlowable()
+								.doOnComplete(() -> LOGGER.info("Converted table " + row.getString(0) + " to " + type
+										+ " in " + (System.currentTimeMillis() - start) + "ms"));
+					})
+					.ignoreElements();
+		}
+
+		return Flowable.fromIterable(statements)
+				.concatMap(sql -> dbClient.rxUpdate(sql).toFlowable())
+				.ignoreElements()
+				.andThen(tables)
+				.doOnComplete(() -> LOGGER.info("Storage profile " + name + " applied: " + settings.encode()));
+	}
+
+	/**
+	 * Schedule the background checkpoints and defrags of a file database.
+	 *
+	 * @param databasePath
+	 *            path of the database files without extension, e.g.
+	 *            {@code db/wiki}; null for a memory database, which has
+	 *            nothing to checkpoint
+	 * @return the timer ids, to be cancelled on undeploy
+	 */
+	public List<Long> scheduleMaintenance(Vertx vertx, JDBCClient dbClient, String databasePath) {
+		List<Long> timers = new ArrayList<>();
+		if (databasePath == null) {
+			return timers;
+		}
+		Maintenance maintenance = new Maintenance(vertx, dbClient, databasePath + ".log",
+				settings.getLong("checkpoint_min_log_kb", 0L) * 1024);
+		long checkpointInterval = settings.getLong("checkpoint_interval_ms", 0L);
+		if (checkpointInterval > 0) {
+			timers.add(vertx.setPeriodic(checkpointInterval, id -> maintenance.run(false)));
+		}
+		long defragInterval = settings.getLong("defrag_interval_ms", 0L);
+		if (defragInterval > 0) {
+			timers.add(vertx.setPeriodic(defragInterval, id -> maintenance.run(true)));
+		}
+		return timers;
+	}
+
+	/**
+	 * @return the path of the database files of an {@code jdbc:hsqldb:file:}
+	 *         url, null for other urls
+	 */
+	public static String databasePath(String jdbcUrl) {
+		String prefix = "jdbc:hsqldb:file:";
+		if (!jdbcUrl.startsWith(prefix)) {
+			return null;
+		}
+		int properties = jdbcUrl.indexOf(';');
+		return jdbcUrl.substring(prefix.length(), properties < 0 ? jdbcUrl.length() : properties);
+	}
+
+	private static class Maintenance {
+		private final Vertx vertx;
+		private final JDBCClient dbClient;
+		private final String logPath;
+		private final long minLogBytes;
+		private boolean running;
+
+		private Maintenance(Vertx vertx, JDBCClient dbClient, String logPath, long minLogBytes) {
+			this.vertx = vertx;
+			this.dbClient = dbClient;
+			this.logPath = logPath;
+			this.minLogBytes = minLogBytes;
+		}
+
+		private void run(boolean defrag) {
+			if (running) {
+				return; // a slow checkpoint must not pile up with the next ones
+			}
+			running = true;
+			vertx.fileSystem().rxExists(logPath)
+					.flatMap(exists -> exists ? vertx.fileSystem().rxProps(logPath).map(props -> props.size())
+							: Single.just(0L))
+					.flatMapCompletable(logBytes -> {
+						if (!defrag && logBytes < minLogBytes) {
+							return Completable.complete(); // not worth rewriting the files yet
+						}
+						long start = System.currentTimeMillis();
+						return dbClient.rxUpdate(defrag ? "checkpoint defrag" : "checkpoint").toCompletable()
+								.doOnComplete(() -> LOGGER.info((defrag ? "Checkpoint with defrag" : "Checkpoint")
+										+ " of a " + logBytes / 1024 + "KB log done in "
+										+ (System.currentTimeMillis() - start) + "ms"));
+					})
+					.doFinally(() -> running = false)
+					.subscribe(() -> {
+					}, err -> LOGGER.error("Background checkpoint failed", err));
+		}
+	}
+}
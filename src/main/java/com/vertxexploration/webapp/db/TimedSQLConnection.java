@@ -0,0 +1,167 @@
+package com.vertxexploration.webapp.db;
+
+import java.util.List;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.SQLConnection;
+import io.vertx.ext.sql.SQLOptions;
+import io.vertx.ext.sql.SQLRowStream;
+import io.vertx.ext.sql.TransactionIsolation;
+import io.vertx.ext.sql.UpdateResult;
+
+/**
+ * Connection recording the time of its statements in the {@link QueryLog}.
+ * Streamed queries are timed until the first rows are available, reading
+ * the stream is up to the caller.
+ */
+class TimedSQLConnection implements SQLConnection {
+
+	private final SQLConnection delegate;
+	private final QueryLog queryLog;
+
+	TimedSQLConnection(SQLConnection delegate, QueryLog queryLog) {
+		this.delegate = delegate;
+		this.queryLog = queryLog;
+	}
+
+	@Override
+	public SQLConnection execute(String sql, Handler<AsyncResult<Void>> resultHandler) {
+		delegate.execute(sql, timed(sql, null, resultHandler));
+		return this;
+	}
+
+	@Override
+	public SQLConnection query(String sql, Handler<AsyncResult<ResultSet>> resultHandler) {
+		delegate.query(sql, timed(sql, null, resultHandler));
+		return this;
+	}
+
+	@Override
+	public SQLConnection queryWithParams(String sql, JsonArray params, Handler<AsyncResult<ResultSet>> resultHandler) {
+		delegate.queryWithParams(sql, params, timed(sql, params, resultHandler));
+		return this;
+	}
+
+	@Override
+	public SQLConnection queryStream(String sql, Handler<AsyncResult<SQLRowStream>> handler) {
+		delegate.queryStream(sql, timed(sql, null, handler));
+		return this;
+	}
+
+	@Override
+	public SQLConnection queryStreamWithParams(String sql, JsonArray params, Handler<AsyncResult<SQLRowStream>> handler) {
+		delegate.queryStreamWithParams(sql, params, timed(sql, params, handler));
+		return this;
+	}
+
+	@Override
+	public SQLConnection update(String sql, Handler<AsyncResult<UpdateResult>> resultHandler) {
+		delegate.update(sql, timed(sql, null, resultHandler));
+		return this;
+	}
+
+	@Override
+	public SQLConnection updateWithParams(String sql, JsonArray params, Handler<AsyncResult<UpdateResult>> resultHandler) {
+		delegate.updateWithParams(sql, params, timed(sql, params, resultHandler));
+		return this;
+	}
+
+	@Override
+	public SQLConnection call(String sql, Handler<AsyncResult<ResultSet>> resultHandler) {
+		delegate.call(sql, timed(sql, null, resultHandler));
+		return this;
+	}
+
+	@Override
+	public SQLConnection callWithParams(String sql, JsonArray params, JsonArray outputs,
+			Handler<AsyncResult<ResultSet>> resultHandler) {
+		delegate.callWithParams(sql, params, outputs, timed(sql, params, resultHandler));
+		return this;
+	}
+
+	@Override
+	public SQLConnection batch(List<String> sqlStatements, Handler<AsyncResult<List<Integer>>> handler) {
+		delegate.batch(sqlStatements, handler);
+		return this;
+	}
+
+	@Override
+	public SQLConnection batchWithParams(String sqlStatement, List<JsonArray> args,
+			Handler<AsyncResult<List<Integer>>> handler) {
+		long start = System.nanoTime();
+		delegate.batchWithParams(sqlStatement, args, result -> {
+			queryLog.recordBatch(sqlStatement, args, System.nanoTime() - start, result.failed());
+			handler.handle(result);
+		});
+		return this;
+	}
+
+	@Override
+	public SQLConnection batchCallableWithParams(String sqlStatement, List<JsonArray> inArgs, List<JsonArray> outArgs,
+			Handler<AsyncResult<List<Integer>>> handler) {
+		delegate.batchCallableWithParams(sqlStatement, inArgs, outArgs, handler);
+		return this;
+	}
+
+	@Override
+	public SQLConnection setOptions(SQLOptions options) {
+		delegate.setOptions(options);
+		return this;
+	}
+
+	@Override
+	public SQLConnection setAutoCommit(boolean autoCommit, Handler<AsyncResult<Void>> resultHandler) {
+		delegate.setAutoCommit(autoCommit, resultHandler);
+		return this;
+	}
+
+	@Override
+	public SQLConnection commit(Handler<AsyncResult<Void>> handler) {
+		delegate.commit(handler);
+		return this;
+	}
+
+	@Override
+	public SQLConnection rollback(Handler<AsyncResult<Void>> handler) {
+		delegate.rollback(handler);
+		return this;
+	}
+
+	@Override
+	public SQLConnection setTransactionIsolation(TransactionIsolation isolation, Handler<AsyncResult<Void>> handler) {
+		delegate.setTransactionIsolation(isolation, handler);
+		return this;
+	}
+
+	@Override
+	public SQLConnection getTransactionIsolation(Handler<AsyncResult<TransactionIsolation>> handler) {
+		delegate.getTransactionIsolation(handler);
+		return this;
+	}
+
+	@Override
+	public <N> N unwrap() {
+		return delegate.unwrap();
+	}
+
+	@Override
+	public void close(Handler<AsyncResult<Void>> handler) {
+		delegate.close(handler);
+	}
+
+	@Override
+	public void close() {
+		delegate.close();
+	}
+
+	private <T> Handler<AsyncResult<T>> timed(String sql, JsonArray params, Handler<AsyncResult<T>> handler) {
+		long start = System.nanoTime();
+		return result -> {
+			queryLog.record(sql, params, System.nanoTime() - start, result.failed());
+			handler.handle(result);
+		};
+	}
+}
@@ -0,0 +1,118 @@
+package com.vertxexploration.webapp.db;
+
+import com.vertxexploration.webapp.Trace;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Records the event bus hop ("eventbus") and the time until the reply
+ * ("db") of service requests sent with a trace, see
+ * {@link Trace#propagate(Vertx, DeliveryOptions)}. While the request is
+ * handled the trace is the current one, so the service and the JDBC client
+ * can add their own stages.
+ */
+class TracingHandler implements Handler<Message<JsonObject>> {
+
+	private final Vertx vertx;
+	private final Handler<Message<JsonObject>> delegate;
+
+	TracingHandler(Vertx vertx, Handler<Message<JsonObject>> delegate) {
+		this.vertx = vertx;
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void handle(Message<JsonObject> msg) {
+		Trace trace = Trace.find(vertx, msg.headers().get(Trace.ID_HEADER));
+		if (trace == Trace.NONE) {
+			delegate.handle(msg);
+			return;
+		}
+		long received = System.nanoTime();
+		String sent = msg.headers().get(Trace.SENT_HEADER);
+		if (sent != null) {
+			trace.add("eventbus", received - Long.parseLong(sent));
+		}
+		Trace.runWith(vertx.getOrCreateContext(), trace, () -> delegate.handle(new TimedMessage(msg, trace, received)));
+	}
+
+	/**
+	 * Ends the "db" stage on the first reply or failure.
+	 */
+	private static class TimedMessage implements Message<JsonObject> {
+		private final Message<JsonObject> msg;
+		private final Trace trace;
+		private final long received;
+
+		private TimedMessage(Message<JsonObject> msg, Trace trace, long received) {
+			this.msg = msg;
+			this.trace = trace;
+			this.received = received;
+		}
+
+		private void replied() {
+			trace.add("db", System.nanoTime() - received);
+		}
+
+		@Override
+		public String address() {
+			return msg.address();
+		}
+
+		@Override
+		public MultiMap headers() {
+			return msg.headers();
+		}
+
+		@Override
+		public JsonObject body() {
+			return msg.body();
+		}
+
+		@Override
+		public String replyAddress() {
+			return msg.replyAddress();
+		}
+
+		@Override
+		public boolean isSend() {
+			return msg.isSend();
+		}
+
+		@Override
+		public void reply(Object message) {
+			replied();
+			msg.reply(message);
+		}
+
+		@Override
+		public <R> void reply(Object message, Handler<AsyncResult<Message<R>>> replyHandler) {
+			replied();
+			msg.reply(message, replyHandler);
+		}
+
+		@Override
+		public void reply(Object message, DeliveryOptions options) {
+			replied();
+			msg.reply(message, options);
+		}
+
+		@Override
+		public <R> void reply(Object message, DeliveryOptions options, Handler<AsyncResult<Message<R>>> replyHandler) {
+			replied();
+			msg.reply(message, options, replyHandler);
+		}
+
+		@Override
+		public void fail(int failureCode, String message) {
+			replied();
+			msg.fail(failureCode, message);
+		}
+	}
+}
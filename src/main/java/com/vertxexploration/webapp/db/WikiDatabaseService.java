@@ -1,5 +1,6 @@
 package com.vertxexploration.webapp.db;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
@@ -8,6 +9,7 @@ import io.vertx.codegen.annotations.ProxyGen;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.reactivex.ext.jdbc.JDBCClient;
@@ -33,15 +35,108 @@ public interface WikiDatabaseService {
 	@Fluent
 	WikiDatabaseService fetchAllPagesData(Handler<AsyncResult<List<JsonObject>>> resultHandler);
 
-	static WikiDatabaseService create(JDBCClient dbClient, HashMap<SqlQuery, String> sqlQueries,
-			Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
-		return new WikiDatabaseServiceImpl(dbClient, sqlQueries, readyHandler);
+	static WikiDatabaseService create(Vertx vertx, JDBCClient dbClient, HashMap<SqlQuery, String> sqlQueries,
+			JsonObject config, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
+		return new WikiDatabaseServiceImpl(vertx, dbClient, sqlQueries, config, readyHandler);
 	}
 
 	static WikiDatabaseService createProxy(Vertx vertx, String address) {
 		return new WikiDatabaseServiceVertxEBProxy(vertx, address);
 	}
 
+	/**
+	 * Proxy sending its calls with these options, e.g. with the deadline and
+	 * trace headers.
+	 */
+	static WikiDatabaseService createProxyWithOptions(Vertx vertx, String address, DeliveryOptions options) {
+		return new WikiDatabaseServiceVertxEBProxy(vertx, address, options);
+	}
+
+	/**
+	 * Proxy to the wiki database spread over the given number of shards, each
+	 * listening on the address suffixed with its number, or a plain proxy to
+	 * the address when there is only one.
+	 */
+	static WikiDatabaseService createShardedProxy(Vertx vertx, String address, int shards, DeliveryOptions options) {
+		if (shards <= 1) {
+			return createProxyWithOptions(vertx, address, options);
+		}
+		List<WikiDatabaseService> proxies = new ArrayList<>();
+		for (int shard = 0; shard < shards; shard++) {
+			proxies.add(createProxyWithOptions(vertx, address + "." + shard, options));
+		}
+		return new ShardedWikiDatabaseService(proxies);
+	}
+
 	@Fluent
 	WikiDatabaseService fetchPageById(int id, Handler<AsyncResult<JsonObject>> resultHandler);
+
+	/**
+	 * Read a slice of a page content, so that pages too large to be fetched
+	 * in one message can be streamed. The offset is 0-based and counted in
+	 * characters; the result is null when the page doesn't exist and shorter
+	 * than length (possibly empty) once the end of the content is reached.
+	 */
+	@Fluent
+	WikiDatabaseService fetchPageContentChunk(int id, int offset, int length, Handler<AsyncResult<String>> resultHandler);
+
+	/**
+	 * List the stored revisions of a page, oldest first.
+	 */
+	@Fluent
+	WikiDatabaseService fetchPageRevisions(int id, Handler<AsyncResult<JsonArray>> resultHandler);
+
+	/**
+	 * Rebuild the content of a page as it was at the given revision.
+	 */
+	@Fluent
+	WikiDatabaseService fetchPageRevision(int id, int revision, Handler<AsyncResult<JsonObject>> resultHandler);
+
+	/**
+	 * Read the next pages in id order, at most limit of them, each as
+	 * {@code {"id", "name", "markdown"}}. Start with afterId -1 and continue
+	 * with the id of the last page returned, until an empty array comes back.
+	 */
+	@Fluent
+	WikiDatabaseService exportPages(int afterId, int limit, Handler<AsyncResult<JsonArray>> resultHandler);
+
+	/**
+	 * Same as {@link #exportPages(int, int, Handler)}, restricted to the pages
+	 * created or saved at or after since (epoch millis).
+	 */
+	@Fluent
+	WikiDatabaseService fetchChangedPages(long since, int afterId, int limit,
+			Handler<AsyncResult<JsonArray>> resultHandler);
+
+	/**
+	 * Insert or overwrite (by name) the given {@code {"name", "markdown"}}
+	 * pages in one batch, reporting how many were written. An overwritten page
+	 * that has a history gets the imported content as a new snapshot revision.
+	 */
+	@Fluent
+	WikiDatabaseService importPages(JsonArray pages, Handler<AsyncResult<Integer>> resultHandler);
+
+	/**
+	 * Add views to the view count of pages, given as {@code {"<id>": views}}.
+	 * Pages which no longer exist are skipped. A failure adds none of the
+	 * views, unless it is a {@link io.vertx.serviceproxy.ServiceException}
+	 * whose debug info lists the views not added under {@code "notAdded"}:
+	 * the others were.
+	 */
+	@Fluent
+	WikiDatabaseService addPageViews(JsonObject views, Handler<AsyncResult<Void>> resultHandler);
+
+	/**
+	 * The most viewed pages, at most limit of them, most viewed first, each as
+	 * {@code {"id", "name", "viewCount"}}.
+	 */
+	@Fluent
+	WikiDatabaseService fetchTopViewedPages(int limit, Handler<AsyncResult<JsonArray>> resultHandler);
+
+	/**
+	 * Make every save acknowledged so far durable. Only meaningful when the
+	 * write-behind buffer is enabled, otherwise saves are already written.
+	 */
+	@Fluent
+	WikiDatabaseService flush(Handler<AsyncResult<Void>> resultHandler);
 }
\ No newline at end of file
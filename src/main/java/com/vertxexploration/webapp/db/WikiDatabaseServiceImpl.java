@@ -1,36 +1,56 @@
 package com.vertxexploration.webapp.db;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
+import com.vertxexploration.webapp.Trace;
+
+import io.reactivex.Completable;
 import io.reactivex.Flowable;
 import io.reactivex.Single;
+import io.reactivex.functions.Function;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.sql.ResultSet;
+import io.vertx.reactivex.CompletableHelper;
 import io.vertx.reactivex.SingleHelper;
 import io.vertx.reactivex.ext.jdbc.JDBCClient;
 import io.vertx.reactivex.ext.sql.SQLConnection;
+import io.vertx.reactivex.ext.sql.SQLRowStream;
 
 public class WikiDatabaseServiceImpl implements WikiDatabaseService {
 	private static final Logger LOGGER = LoggerFactory.getLogger(WikiDatabaseServiceImpl.class);
 
+	private final Vertx vertx;
 	private final HashMap<SqlQuery, String> sqlQueries;
 	private final JDBCClient dbClient;
+	private final int maxBufferedContentLength;
+	private final int snapshotInterval;
 
-	public WikiDatabaseServiceImpl(JDBCClient dbClient, HashMap<SqlQuery, String> sqlQueries,
-			Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
+	public WikiDatabaseServiceImpl(Vertx vertx, JDBCClient dbClient, HashMap<SqlQuery, String> sqlQueries,
+			JsonObject config, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
+		this.vertx = vertx;
 		this.dbClient = dbClient;
 		this.sqlQueries = sqlQueries;
+		// Bigger pages are not sent in one message, they must be read with fetchPageContentChunk
+		this.maxBufferedContentLength = config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_MAX_BUFFERED_CONTENT_LENGTH,
+				1024 * 1024);
+
+		this.snapshotInterval = config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_REVISIONS_SNAPSHOT_INTERVAL, 10);
 
-		getConnection().flatMapCompletable(conn -> {
-			return conn.rxExecute(sqlQueries.get(SqlQuery.CREATE_PAGES_TABLE));
-		}).andThen(Single.just(this)).subscribe(SingleHelper.toObserver(readyHandler));
+		inTransaction(conn -> conn.rxExecute(sqlQueries.get(SqlQuery.CREATE_PAGES_TABLE))
+				.andThen(conn.rxExecute(sqlQueries.get(SqlQuery.CREATE_REVISIONS_TABLE))))
+		// Tables created before pages had an update time, fails harmlessly when the column is there
+		.andThen(dbClient.rxUpdate(sqlQueries.get(SqlQuery.ADD_PAGES_UPDATED_COLUMN)).toCompletable().onErrorComplete())
+		.andThen(dbClient.rxUpdate(sqlQueries.get(SqlQuery.ADD_PAGES_VIEW_COUNT_COLUMN)).toCompletable().onErrorComplete())
+		.andThen(Single.just(this)).subscribe(SingleHelper.toObserver(readyHandler));
 	}
 
 	@Override
@@ -46,7 +66,8 @@ public class WikiDatabaseServiceImpl implements WikiDatabaseService {
 
 	@Override
 	public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
-		dbClient.queryWithParams(sqlQueries.get(SqlQuery.GET_PAGE), new JsonArray().add(name), fetch -> {
+		JsonArray params = new JsonArray().add(maxBufferedContentLength).add(name);
+		dbClient.queryWithParams(sqlQueries.get(SqlQuery.GET_PAGE), params, fetch -> {
 			if (fetch.succeeded()) {
 				JsonObject response = new JsonObject();
 				ResultSet resultSet = fetch.result();
@@ -56,7 +77,12 @@ public class WikiDatabaseServiceImpl implements WikiDatabaseService {
 					response.put("found", true);
 					JsonArray row = resultSet.getResults().get(0);
 					response.put("id", row.getInteger(0));
-					response.put("rawContent", row.getString(1));
+					response.put("contentLength", row.getInteger(2));
+					if (row.getInteger(2) > maxBufferedContentLength) {
+						response.put("tooLarge", true);
+					} else {
+						response.put("rawContent", row.getString(1));
+					}
 				}
 				resultHandler.handle(Future.succeededFuture(response));
 			} else {
@@ -69,43 +95,80 @@ public class WikiDatabaseServiceImpl implements WikiDatabaseService {
 
 	@Override
 	public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
-		JsonArray data = new JsonArray().add(title).add(markdown);
-		dbClient.updateWithParams(sqlQueries.get(SqlQuery.CREATE_PAGE), data, res -> {
-			if (res.succeeded()) {
-				resultHandler.handle(Future.succeededFuture());
-			} else {
-				LOGGER.error("Database query error", res.cause());
-				resultHandler.handle(Future.failedFuture(res.cause()));
-			}
-		});
+		JsonArray data = new JsonArray().add(title).add(markdown).add(System.currentTimeMillis());
+		inTransaction(conn -> conn.rxUpdateWithParams(sqlQueries.get(SqlQuery.CREATE_PAGE), data)
+				// The first revision is always a full snapshot
+				.flatMap(res -> conn.rxUpdateWithParams(sqlQueries.get(SqlQuery.CREATE_PAGE_REVISION),
+						new JsonArray().add(title)))
+				.toCompletable())
+		.doOnComplete(() -> publish(new JsonObject().put("event", "created").put("name", title)))
+		.doOnError(err -> LOGGER.error("Database query error", err))
+		.subscribe(CompletableHelper.toObserver(resultHandler));
 		return this;
 	}
 
 	@Override
 	public WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler) {
-		JsonArray data = new JsonArray().add(markdown).add(id);
-		dbClient.updateWithParams(sqlQueries.get(SqlQuery.SAVE_PAGE), data, res -> {
-			if (res.succeeded()) {
-				resultHandler.handle(Future.succeededFuture());
-			} else {
-				LOGGER.error("Database query error", res.cause());
-				resultHandler.handle(Future.failedFuture(res.cause()));
-			}
-		});
+		long time = System.currentTimeMillis();
+		JsonArray data = new JsonArray().add(markdown).add(time).add(id);
+		// Lock the page row first: a concurrent save of the page waits for this transaction before reading the
+		// revision state, instead of numbering its revision the same
+		inTransaction(conn -> conn.rxUpdateWithParams(sqlQueries.get(SqlQuery.LOCK_PAGE), new JsonArray().add(time).add(id))
+				.flatMap(locked -> conn.rxQueryWithParams(sqlQueries.get(SqlQuery.GET_PAGE_CONTENT), new JsonArray().add(id)))
+				.flatMapCompletable(page -> {
+					if (page.getNumRows() == 0) {
+						return Completable.complete(); // nothing to keep history for
+					}
+					String previous = page.getResults().get(0).getString(0);
+					return conn.rxQueryWithParams(sqlQueries.get(SqlQuery.GET_REVISION_STATE), new JsonArray().add(id))
+							.flatMapCompletable(state -> recordRevision(conn, id, previous, markdown,
+									state.getResults().get(0)));
+				})
+				.andThen(conn.rxUpdateWithParams(sqlQueries.get(SqlQuery.SAVE_PAGE), data))
+				.toCompletable())
+		.doOnComplete(() -> vertx.eventBus().publish(WikiDatabaseVerticle.PAGE_UPDATES_ADDRESS,
+				new JsonObject().put("event", "updated").put("id", id)))
+		.doOnError(err -> LOGGER.error("Database query error", err))
+		.subscribe(CompletableHelper.toObserver(resultHandler));
 		return this;
 	}
 
+	/**
+	 * Store the new content as a delta against the previous revision, or as a
+	 * full snapshot when the delta chain since the last snapshot is long
+	 * enough (or the delta wouldn't save anything).
+	 */
+	private Completable recordRevision(SQLConnection conn, int id, String previous, String markdown,
+			JsonArray revisionState) {
+		Integer lastRevision = revisionState.getInteger(0);
+		Integer lastSnapshot = revisionState.getInteger(1);
+		String insertRevision = sqlQueries.get(SqlQuery.INSERT_REVISION);
+
+		Completable baseline = Completable.complete();
+		if (lastRevision == null) {
+			// Page created before revisions existed (or imported): its current content becomes revision 1
+			lastRevision = 1;
+			lastSnapshot = 1;
+			baseline = conn.rxUpdateWithParams(insertRevision,
+					new JsonArray().add(id).add(1).add(true).add(previous)).toCompletable();
+		}
+
+		int revision = lastRevision + 1;
+		String delta = RevisionDelta.diff(previous, markdown);
+		boolean snapshot = revision - lastSnapshot >= snapshotInterval || delta.length() >= markdown.length();
+		JsonArray params = new JsonArray().add(id).add(revision).add(snapshot).add(snapshot ? markdown : delta);
+		return baseline.andThen(conn.rxUpdateWithParams(insertRevision, params).toCompletable());
+	}
+
 	@Override
 	public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
 		JsonArray data = new JsonArray().add(id);
-		dbClient.updateWithParams(sqlQueries.get(SqlQuery.DELETE_PAGE), data, res -> {
-			if (res.succeeded()) {
-				resultHandler.handle(Future.succeededFuture());
-			} else {
-				LOGGER.error("Database query error", res.cause());
-				resultHandler.handle(Future.failedFuture(res.cause()));
-			}
-		});
+		inTransaction(conn -> conn.rxUpdateWithParams(sqlQueries.get(SqlQuery.DELETE_PAGE_REVISIONS), data)
+				.flatMap(res -> conn.rxUpdateWithParams(sqlQueries.get(SqlQuery.DELETE_PAGE), data))
+				.toCompletable())
+		.doOnComplete(() -> publish(new JsonObject().put("event", "deleted").put("id", id)))
+		.doOnError(err -> LOGGER.error("Database query error", err))
+		.subscribe(CompletableHelper.toObserver(resultHandler));
 		return this;
 	}
 
@@ -124,7 +187,8 @@ public class WikiDatabaseServiceImpl implements WikiDatabaseService {
 
 	@Override
 	public WikiDatabaseService fetchPageById(int id, Handler<AsyncResult<JsonObject>> resultHandler) {
-		dbClient.rxQueryWithParams(sqlQueries.get(SqlQuery.GET_PAGE_BY_ID), new JsonArray().add(id)).doOnError(err -> {
+		JsonArray params = new JsonArray().add(maxBufferedContentLength).add(id);
+		dbClient.rxQueryWithParams(sqlQueries.get(SqlQuery.GET_PAGE_BY_ID), params).doOnError(err -> {
 			LOGGER.error("Database query error", err);
 			resultHandler.handle(Future.failedFuture(err));
 			return;
@@ -136,19 +200,192 @@ public class WikiDatabaseServiceImpl implements WikiDatabaseService {
 			}
 
 			JsonObject result = res.getRows().get(0);
+			JsonObject page = new JsonObject().put("found", true).put("id", result.getInteger("ID"))
+					.put("name", result.getString("NAME")).put("contentLength", result.getInteger("CONTENTLENGTH"));
+			if (result.getInteger("CONTENTLENGTH") > maxBufferedContentLength) {
+				page.put("tooLarge", true);
+			} else {
+				page.put("content", result.getString("CONTENT"));
+			}
+
+			resultHandler.handle(Future.succeededFuture(page));
+		});
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchPageContentChunk(int id, int offset, int length,
+			Handler<AsyncResult<String>> resultHandler) {
+		JsonArray params = new JsonArray().add(offset + 1).add(length).add(id); // SQL substring is 1-based
+		dbClient.queryWithParams(sqlQueries.get(SqlQuery.GET_PAGE_CONTENT_CHUNK), params, fetch -> {
+			if (fetch.succeeded()) {
+				List<JsonArray> rows = fetch.result().getResults();
+				String chunk = rows.isEmpty() ? null : rows.get(0).getString(0);
+				if (!rows.isEmpty() && chunk == null) {
+					chunk = ""; // offset past the end of the content
+				}
+				resultHandler.handle(Future.succeededFuture(chunk));
+			} else {
+				LOGGER.error("Database query error", fetch.cause());
+				resultHandler.handle(Future.failedFuture(fetch.cause()));
+			}
+		});
+		return this;
+	}
 
-			resultHandler.handle(
-					Future.succeededFuture(new JsonObject().put("found", true).put("id", result.getInteger("ID"))
-							.put("name", result.getString("NAME")).put("content", result.getString("CONTENT"))));
+	@Override
+	public WikiDatabaseService fetchPageRevisions(int id, Handler<AsyncResult<JsonArray>> resultHandler) {
+		dbClient.queryWithParams(sqlQueries.get(SqlQuery.PAGE_REVISIONS), new JsonArray().add(id), fetch -> {
+			if (fetch.succeeded()) {
+				JsonArray revisions = new JsonArray();
+				fetch.result().getResults().forEach(row -> revisions.add(new JsonObject()
+						.put("revision", row.getInteger(0))
+						.put("snapshot", row.getBoolean(1))
+						.put("storedLength", row.getInteger(2))
+						.put("created", row.getString(3))));
+				resultHandler.handle(Future.succeededFuture(revisions));
+			} else {
+				LOGGER.error("Database query error", fetch.cause());
+				resultHandler.handle(Future.failedFuture(fetch.cause()));
+			}
 		});
 		return this;
 	}
 
-	private Single<SQLConnection> getConnection() {
-		return dbClient.rxGetConnection().flatMap(conn -> {
-			Single<SQLConnection> connectionSingle = Single.just(conn);
-			return connectionSingle.doFinally(conn::close); // so after finally,
-															// it will be closed
+	@Override
+	public WikiDatabaseService fetchPageRevision(int id, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+		// Latest snapshot at or before the revision followed by the deltas up to it
+		JsonArray params = new JsonArray().add(id).add(revision).add(id).add(revision);
+		dbClient.queryWithParams(sqlQueries.get(SqlQuery.REVISION_CHAIN), params, fetch -> {
+			if (fetch.succeeded()) {
+				List<JsonArray> chain = fetch.result().getResults();
+				if (chain.isEmpty() || chain.get(chain.size() - 1).getInteger(0) != revision) {
+					resultHandler.handle(Future.succeededFuture(new JsonObject().put("found", false)));
+					return;
+				}
+				String content = chain.get(0).getString(2);
+				for (JsonArray delta : chain.subList(1, chain.size())) {
+					content = delta.getBoolean(1) ? delta.getString(2) : RevisionDelta.apply(content, delta.getString(2));
+				}
+				resultHandler.handle(Future.succeededFuture(new JsonObject()
+						.put("found", true)
+						.put("id", id)
+						.put("revision", revision)
+						.put("content", content)));
+			} else {
+				LOGGER.error("Database query error", fetch.cause());
+				resultHandler.handle(Future.failedFuture(fetch.cause()));
+			}
+		});
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService exportPages(int afterId, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+		streamPages(sqlQueries.get(SqlQuery.EXPORT_PAGES), new JsonArray().add(afterId).add(limit), resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchChangedPages(long since, int afterId, int limit,
+			Handler<AsyncResult<JsonArray>> resultHandler) {
+		streamPages(sqlQueries.get(SqlQuery.CHANGED_PAGES), new JsonArray().add(since).add(afterId).add(limit),
+				resultHandler);
+		return this;
+	}
+
+	private void streamPages(String query, JsonArray params, Handler<AsyncResult<JsonArray>> resultHandler) {
+		// Rows are turned into JSON as the driver reads them, not collected into a ResultSet first
+		dbClient.rxGetConnection().flatMap(conn -> conn
+				.rxQueryStreamWithParams(query, params)
+				.flatMapPublisher(SQLRowStream::toFlowable)
+				.map(row -> new JsonObject()
+						.put("id", row.getInteger(0))
+						.put("name", row.getString(1))
+						.put("markdown", row.getString(2)))
+				.collect(JsonArray::new, JsonArray::add)
+				.doFinally(conn::close))
+		.doOnError(err -> LOGGER.error("Database query error", err))
+		.subscribe(SingleHelper.toObserver(resultHandler));
+	}
+
+	@Override
+	public WikiDatabaseService importPages(JsonArray pages, Handler<AsyncResult<Integer>> resultHandler) {
+		List<JsonArray> merges = new ArrayList<>(pages.size());
+		List<JsonArray> names = new ArrayList<>(pages.size());
+		long updated = System.currentTimeMillis();
+		for (int i = 0; i < pages.size(); i++) {
+			JsonObject page = pages.getJsonObject(i);
+			merges.add(new JsonArray().add(page.getString("name")).add(page.getString("markdown")).add(updated));
+			names.add(new JsonArray().add(page.getString("name")));
+		}
+		inTransaction(conn -> conn.rxBatchWithParams(sqlQueries.get(SqlQuery.IMPORT_PAGE), merges)
+				.flatMap(res -> conn.rxBatchWithParams(sqlQueries.get(SqlQuery.IMPORT_PAGE_REVISION), names))
+				.toCompletable())
+		// Merges may create pages, listeners can't tell so they get a single event per batch
+		.doOnComplete(() -> publish(new JsonObject().put("event", "imported").put("count", pages.size())))
+		.andThen(Single.just(pages.size()))
+		.doOnError(err -> LOGGER.error("Database query error", err))
+		.subscribe(SingleHelper.toObserver(resultHandler));
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService addPageViews(JsonObject views, Handler<AsyncResult<Void>> resultHandler) {
+		List<JsonArray> updates = new ArrayList<>(views.size());
+		views.forEach(view -> updates.add(new JsonArray().add(view.getValue()).add(Integer.valueOf(view.getKey()))));
+		if (updates.isEmpty()) {
+			resultHandler.handle(Future.succeededFuture());
+			return this;
+		}
+		// One batch for all the pages viewed since the last call
+		inTransaction(conn -> conn.rxBatchWithParams(sqlQueries.get(SqlQuery.ADD_PAGE_VIEWS), updates).toCompletable())
+				.doOnError(err -> LOGGER.error("Database query error", err))
+				.subscribe(CompletableHelper.toObserver(resultHandler));
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchTopViewedPages(int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+		dbClient.rxQueryWithParams(sqlQueries.get(SqlQuery.TOP_VIEWED_PAGES), new JsonArray().add(limit))
+				.map(result -> result.getResults().stream()
+						.map(row -> new JsonObject()
+								.put("id", row.getInteger(0))
+								.put("name", row.getString(1))
+								.put("viewCount", row.getLong(2)))
+						.collect(JsonArray::new, JsonArray::add, JsonArray::addAll))
+				.doOnError(err -> LOGGER.error("Database query error", err))
+				.subscribe(SingleHelper.toObserver(resultHandler));
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService flush(Handler<AsyncResult<Void>> resultHandler) {
+		// Every update is executed right away, nothing to flush
+		resultHandler.handle(Future.succeededFuture());
+		return this;
+	}
+
+	private void publish(JsonObject event) {
+		vertx.eventBus().publish(WikiDatabaseVerticle.PAGE_EVENTS_ADDRESS, event);
+	}
+
+	/**
+	 * Run the statements on a single connection and commit them together,
+	 * or roll everything back if one of them fails.
+	 */
+	private Completable inTransaction(Function<SQLConnection, Completable> statements) {
+		Trace trace = Trace.current();
+		return dbClient.rxGetConnection().flatMapCompletable(conn -> {
+			long start = System.nanoTime();
+			return conn.rxSetAutoCommit(false)
+					.andThen(Completable.defer(() -> statements.apply(conn)))
+					.andThen(conn.rxCommit())
+					.onErrorResumeNext(err -> conn.rxRollback().onErrorComplete().andThen(Completable.error(err)))
+					.doFinally(() -> {
+						conn.close();
+						trace.add("jdbc", System.nanoTime() - start);
+					});
 		});
 	}
 }
\ No newline at end of file
@@ -3,46 +3,135 @@ package com.vertxexploration.webapp.db;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Properties;
 
+import io.reactivex.Completable;
 import io.vertx.reactivex.core.AbstractVerticle;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.reactivex.ext.jdbc.JDBCClient;
-import io.vertx.serviceproxy.ProxyHelper;
 
 public class WikiDatabaseVerticle extends AbstractVerticle {
 
 	public static final String CONFIG_WIKIDB_JDBC_URL = "wikidb.jdbc.url";
 	public static final String CONFIG_WIKIDB_JDBC_DRIVER_CLASS = "wikidb.jdbc.driver_class";
 	public static final String CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE = "wikidb.jdbc.max_pool_size";
+	public static final String CONFIG_WIKIDB_JDBC_INITIAL_POOL_SIZE = "wikidb.jdbc.initial_pool_size";
 	public static final String CONFIG_WIKIDB_SQL_QUERIES_RESOURCE_FILE = "wikidb.sqlqueries.resource.file";
+	public static final String CONFIG_WIKIDB_WRITE_BEHIND_WINDOW_MS = "wikidb.writebehind.window_ms";
+	public static final String CONFIG_WIKIDB_MAX_BUFFERED_CONTENT_LENGTH = "wikidb.content.max_buffered_length";
+	public static final String CONFIG_WIKIDB_REVISIONS_SNAPSHOT_INTERVAL = "wikidb.revisions.snapshot_interval";
+	// One of StorageProfile.names(), with optional per setting overrides, e.g. {"write_delay_ms": 0}
+	public static final String CONFIG_WIKIDB_STORAGE_PROFILE = "wikidb.storage.profile";
+	public static final String CONFIG_WIKIDB_STORAGE_SETTINGS = "wikidb.storage.settings";
+	// Statements slower than this are logged, with the plan of their query the first time, see QueryLog
+	public static final String CONFIG_WIKIDB_SLOW_QUERY_MS = "wikidb.slow_query_ms";
+
+	// "jdbc" (HSQLDB) or "log" (LogWikiDatabaseService), the wikidb.log.* settings only apply to the latter
+	public static final String CONFIG_WIKIDB_BACKEND = "wikidb.backend";
+	public static final String CONFIG_WIKIDB_LOG_DIR = "wikidb.log.dir";
+	public static final String CONFIG_WIKIDB_LOG_SEGMENT_SIZE = "wikidb.log.segment_size";
+	public static final String CONFIG_WIKIDB_LOG_SYNC_INTERVAL_MS = "wikidb.log.sync_interval_ms";
+	public static final String CONFIG_WIKIDB_LOG_COMPACTION_INTERVAL_MS = "wikidb.log.compaction_interval_ms";
+	public static final String CONFIG_WIKIDB_LOG_COMPACTION_RATIO = "wikidb.log.compaction_ratio";
+	public static final String CONFIG_WIKIDB_LOG_COMPACTION_MIN_BYTES = "wikidb.log.compaction_min_bytes";
 
 	public static final String CONFIG_WIKIDB_QUEUE = "wikidb.queue";
 
+	// Number of database verticles the pages are spread over, see ShardedWikiDatabaseService.
+	// Each one has its own database and listens on wikidb.queue.<shard>, see shardConfig(config, shard)
+	public static final String CONFIG_WIKIDB_SHARDS = "wikidb.shards";
+	public static final String CONFIG_WIKIDB_SHARD = "wikidb.shard";
+
+	// Blocking work of the verticle runs on this pool when deployed with deploymentOptions(config)
+	public static final String WORKER_POOL_NAME = "wikidb-worker";
+	public static final String CONFIG_WIKIDB_WORKER_POOL_SIZE = "wikidb.worker_pool.size";
+
+	// Published when the set of pages changes: {"event": "created" | "deleted" | "imported", ...}
+	public static final String PAGE_EVENTS_ADDRESS = "wikidb.page.events";
+	// Published when a page is saved: {"event": "updated", "id": ...}
+	public static final String PAGE_UPDATES_ADDRESS = "wikidb.page.updates";
+
+	private static final int DEFAULT_JDBC_MAX_POOL_SIZE = 30;
+	private static final String DEFAULT_JDBC_URL = "jdbc:hsqldb:file:db/wiki";
+	private static final String DEFAULT_LOG_DIR = "db/pages";
+
 	private static final Logger LOGGER = LoggerFactory.getLogger(WikiDatabaseVerticle.class);
+	private WikiDatabaseService service;
 	private JDBCClient dbClient;
+	private List<Long> maintenanceTimers = new ArrayList<>();
+
+	/**
+	 * Deployment options giving the verticle its own worker pool, sized to the
+	 * JDBC connection pool. The JDBC client runs statements on the worker pool
+	 * of the calling context, so slow queries queue up there instead of
+	 * starving the other blocking code of the application. The queue length
+	 * and wait time of the pool, and of the connection pool in front of it,
+	 * are reported by BlockingPoolMetrics.
+	 */
+	public static DeploymentOptions deploymentOptions(JsonObject config) {
+		int maxPoolSize = config.getInteger(CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, DEFAULT_JDBC_MAX_POOL_SIZE);
+		Integer shard = config.getInteger(CONFIG_WIKIDB_SHARD);
+		return new DeploymentOptions()
+				.setConfig(config)
+				.setWorkerPoolName(shard == null ? WORKER_POOL_NAME : WORKER_POOL_NAME + "-" + shard)
+				.setWorkerPoolSize(config.getInteger(CONFIG_WIKIDB_WORKER_POOL_SIZE, maxPoolSize));
+	}
+
+	/**
+	 * Configuration of one of the CONFIG_WIKIDB_SHARDS verticles: its own
+	 * database, the JDBC URL or log directory suffixed with the shard, e.g.
+	 * {@code db/wiki-2}, and its own address, {@code wikidb.queue.2}.
+	 */
+	public static JsonObject shardConfig(JsonObject config, int shard) {
+		String url = config.getString(CONFIG_WIKIDB_JDBC_URL, DEFAULT_JDBC_URL);
+		int urlOptions = url.indexOf(';');
+		return config.copy()
+				.put(CONFIG_WIKIDB_SHARD, shard)
+				.put(CONFIG_WIKIDB_JDBC_URL, urlOptions < 0 ? url + "-" + shard
+						: url.substring(0, urlOptions) + "-" + shard + url.substring(urlOptions))
+				.put(CONFIG_WIKIDB_LOG_DIR, config.getString(CONFIG_WIKIDB_LOG_DIR, DEFAULT_LOG_DIR) + "-" + shard);
+	}
 
-	@SuppressWarnings("deprecation")
 	@Override
 	public void start(Future<Void> startFuture) throws Exception {
+		Future<WikiDatabaseService> created = Future.future();
+		String backend = config().getString(CONFIG_WIKIDB_BACKEND, "jdbc");
+		switch (backend) {
+		case "jdbc":
+			createJdbcService(created);
+			break;
+		case "log":
+			new LogWikiDatabaseService(vertx.getDelegate(), config(), created);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown " + CONFIG_WIKIDB_BACKEND + " " + backend);
+		}
 
-		HashMap<SqlQuery, String> sqlQueries = loadSqlQueries();
+		created.setHandler(ready -> {
+			if (ready.succeeded()) {
+				service = ready.result();
 
-		JDBCClient dbClient = JDBCClient.createShared(vertx,
-				new JsonObject().put("url", 
-						config().getString(CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:file:db/wiki")) // Get the config. If not found, use the default value!!
-						.put("driver_class", config().getString(CONFIG_WIKIDB_JDBC_DRIVER_CLASS, "org.hsqldb.jdbcDriver"))
-						.put("max_pool_size", config().getInteger(CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 30)));
+				// Coalesce rapid successive saves of the same page, disabled by default
+				long writeBehindWindow = config().getLong(CONFIG_WIKIDB_WRITE_BEHIND_WINDOW_MS, 0L);
+				if (writeBehindWindow > 0) {
+					service = new WriteBehindWikiDatabaseService(vertx.getDelegate(), service, writeBehindWindow);
+				}
 
-		WikiDatabaseService.create(dbClient, sqlQueries, ready -> {
-			if (ready.succeeded()) {
-				
-				// Basically service injection like @Service in Spring
-				ProxyHelper.registerService(WikiDatabaseService.class, vertx.getDelegate(), ready.result(), CONFIG_WIKIDB_QUEUE);
+				// Basically service injection like @Service in Spring. Same as ProxyHelper.registerService,
+				// except that requests past their deadline are dropped before reaching the service
+				WikiDatabaseServiceVertxProxyHandler proxyHandler = new WikiDatabaseServiceVertxProxyHandler(
+						vertx.getDelegate(), service);
+				Integer shard = config().getInteger(CONFIG_WIKIDB_SHARD);
+				String address = shard == null ? CONFIG_WIKIDB_QUEUE : CONFIG_WIKIDB_QUEUE + "." + shard;
+				vertx.getDelegate().eventBus().consumer(address,
+						new TracingHandler(vertx.getDelegate(), new DeadlineHandler(proxyHandler)));
 				startFuture.complete();
 			} else {
 				startFuture.fail(ready.cause());
@@ -50,6 +139,92 @@ public class WikiDatabaseVerticle extends AbstractVerticle {
 		});
 	}
 
+	@SuppressWarnings("deprecation")
+	private void createJdbcService(Future<WikiDatabaseService> created) throws IOException {
+		HashMap<SqlQuery, String> sqlQueries = loadSqlQueries();
+		StorageProfile profile = new StorageProfile(config().getString(CONFIG_WIKIDB_STORAGE_PROFILE, StorageProfile.DEFAULT),
+				config().getJsonObject(CONFIG_WIKIDB_STORAGE_SETTINGS));
+		String jdbcUrl = config().getString(CONFIG_WIKIDB_JDBC_URL, DEFAULT_JDBC_URL);
+		Integer shard = config().getInteger(CONFIG_WIKIDB_SHARD);
+
+		// Open the connections up front, rather than on the first requests
+		int maxPoolSize = config().getInteger(CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, DEFAULT_JDBC_MAX_POOL_SIZE);
+		int initialPoolSize = Math.min(maxPoolSize, config().getInteger(CONFIG_WIKIDB_JDBC_INITIAL_POOL_SIZE, maxPoolSize));
+		JDBCClient sharedClient = JDBCClient.createShared(vertx,
+				new JsonObject().put("url", jdbcUrl)
+						.put("driver_class", config().getString(CONFIG_WIKIDB_JDBC_DRIVER_CLASS, "org.hsqldb.jdbcDriver"))
+						.put("max_pool_size", maxPoolSize)
+						.put("initial_pool_size", initialPoolSize)
+						.put("min_pool_size", initialPoolSize),
+				// Shards don't share their connections
+				shard == null ? io.vertx.ext.jdbc.JDBCClient.DEFAULT_DS_NAME : "wikidb-shard-" + shard);
+		// Statements run on the worker pool of this verticle, see deploymentOptions(config)
+		QueryLog queryLog = new QueryLog(vertx.getDelegate(), sharedClient.getDelegate(), sqlQueries,
+				config().getLong(CONFIG_WIKIDB_SLOW_QUERY_MS, 200L));
+		dbClient = JDBCClient.newInstance(new WorkerJDBCClient(sharedClient.getDelegate(), queryLog));
+
+		// The tables exist once the service is ready, the profile may then convert them
+		Future<WikiDatabaseService> tablesCreated = Future.future();
+		WikiDatabaseService.create(vertx.getDelegate(), dbClient, sqlQueries, config(), tablesCreated);
+		tablesCreated.compose(createdService -> {
+			Future<WikiDatabaseService> applied = Future.future();
+			Completable identity = shard == null ? Completable.complete()
+					: shardIdentity(sqlQueries, shard, config().getInteger(CONFIG_WIKIDB_SHARDS));
+			identity.andThen(profile.apply(dbClient)).subscribe(() -> {
+				maintenanceTimers = profile.scheduleMaintenance(vertx, dbClient, StorageProfile.databasePath(jdbcUrl));
+				applied.complete(createdService);
+			}, applied::fail);
+			return applied;
+		}).setHandler(created);
+	}
+
+	/**
+	 * Make the shard generate the page ids equal to the shard modulo the
+	 * number of shards, so that ids are unique across the shards and tell
+	 * which shard a page is on.
+	 */
+	private Completable shardIdentity(HashMap<SqlQuery, String> sqlQueries, int shard, int shards) {
+		return dbClient.rxQuery(sqlQueries.get(SqlQuery.MAX_PAGE_ID)).flatMapCompletable(max -> {
+			Integer maxId = max.getResults().get(0).getInteger(0);
+			int last = maxId == null ? 0 : maxId;
+			int next = last + 1 + Math.floorMod(shard - last - 1, shards);
+			// DDL takes no parameters, the start and increment are formatted in
+			return dbClient.rxUpdate(String.format(sqlQueries.get(SqlQuery.RESTART_PAGE_ID), next, shards))
+					.toCompletable();
+		});
+	}
+
+	@Override
+	public void stop(Future<Void> stopFuture) throws Exception {
+		maintenanceTimers.forEach(vertx::cancelTimer);
+		Future<Void> flushed = Future.future();
+		if (service == null) {
+			flushed.complete();
+		} else {
+			// Don't lose buffered saves on undeploy
+			service.flush(ar -> {
+				if (ar.failed()) {
+					LOGGER.error("Could not flush pending saves", ar.cause());
+				}
+				flushed.complete();
+			});
+		}
+		flushed.setHandler(v -> {
+			if (dbClient == null) {
+				stopFuture.complete();
+				return;
+			}
+			// Closing the connections is blocking work, it can't be left to the context
+			// close hooks which run once the worker pool of the verticle is gone
+			dbClient.close(ar -> {
+				if (ar.failed()) {
+					LOGGER.error("Could not close the database connections", ar.cause());
+				}
+				stopFuture.complete();
+			});
+		});
+	}
+
 	/**
 	 * Put in the hashMap so it can be easily retrieved later
 	 * 
@@ -71,13 +246,33 @@ public class WikiDatabaseVerticle extends AbstractVerticle {
 
 		HashMap<SqlQuery, String> sqlQueries = new HashMap<>();
 		sqlQueries.put(SqlQuery.CREATE_PAGES_TABLE, queriesProps.getProperty("create-pages-table"));
+		sqlQueries.put(SqlQuery.ADD_PAGES_UPDATED_COLUMN, queriesProps.getProperty("add-pages-updated-column"));
+		sqlQueries.put(SqlQuery.ADD_PAGES_VIEW_COUNT_COLUMN, queriesProps.getProperty("add-pages-view-count-column"));
 		sqlQueries.put(SqlQuery.ALL_PAGES, queriesProps.getProperty("all-pages"));
 		sqlQueries.put(SqlQuery.GET_PAGE, queriesProps.getProperty("get-page"));
 		sqlQueries.put(SqlQuery.CREATE_PAGE, queriesProps.getProperty("create-page"));
 		sqlQueries.put(SqlQuery.SAVE_PAGE, queriesProps.getProperty("save-page"));
+		sqlQueries.put(SqlQuery.LOCK_PAGE, queriesProps.getProperty("lock-page"));
 		sqlQueries.put(SqlQuery.DELETE_PAGE, queriesProps.getProperty("delete-page"));
 		sqlQueries.put(SqlQuery.ALL_PAGES_DATA, queriesProps.getProperty("all-pages-data"));
 		sqlQueries.put(SqlQuery.GET_PAGE_BY_ID, queriesProps.getProperty("get-page-by-id"));
+		sqlQueries.put(SqlQuery.GET_PAGE_CONTENT_CHUNK, queriesProps.getProperty("get-page-content-chunk"));
+		sqlQueries.put(SqlQuery.GET_PAGE_CONTENT, queriesProps.getProperty("get-page-content"));
+		sqlQueries.put(SqlQuery.CREATE_REVISIONS_TABLE, queriesProps.getProperty("create-revisions-table"));
+		sqlQueries.put(SqlQuery.CREATE_PAGE_REVISION, queriesProps.getProperty("create-page-revision"));
+		sqlQueries.put(SqlQuery.GET_REVISION_STATE, queriesProps.getProperty("get-revision-state"));
+		sqlQueries.put(SqlQuery.INSERT_REVISION, queriesProps.getProperty("insert-revision"));
+		sqlQueries.put(SqlQuery.DELETE_PAGE_REVISIONS, queriesProps.getProperty("delete-page-revisions"));
+		sqlQueries.put(SqlQuery.PAGE_REVISIONS, queriesProps.getProperty("page-revisions"));
+		sqlQueries.put(SqlQuery.REVISION_CHAIN, queriesProps.getProperty("revision-chain"));
+		sqlQueries.put(SqlQuery.EXPORT_PAGES, queriesProps.getProperty("export-pages"));
+		sqlQueries.put(SqlQuery.IMPORT_PAGE, queriesProps.getProperty("import-page"));
+		sqlQueries.put(SqlQuery.IMPORT_PAGE_REVISION, queriesProps.getProperty("import-page-revision"));
+		sqlQueries.put(SqlQuery.CHANGED_PAGES, queriesProps.getProperty("changed-pages"));
+		sqlQueries.put(SqlQuery.ADD_PAGE_VIEWS, queriesProps.getProperty("add-page-views"));
+		sqlQueries.put(SqlQuery.TOP_VIEWED_PAGES, queriesProps.getProperty("top-viewed-pages"));
+		sqlQueries.put(SqlQuery.MAX_PAGE_ID, queriesProps.getProperty("max-page-id"));
+		sqlQueries.put(SqlQuery.RESTART_PAGE_ID, queriesProps.getProperty("restart-page-id"));
 		return sqlQueries;
 	}
 }
@@ -0,0 +1,98 @@
+package com.vertxexploration.webapp.db;
+
+import java.util.function.BiConsumer;
+
+import com.vertxexploration.webapp.Trace;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.SQLClient;
+import io.vertx.ext.sql.SQLConnection;
+import io.vertx.ext.sql.UpdateResult;
+
+/**
+ * JDBC client running every statement on a pooled connection, that is on the
+ * worker pool of the calling verticle. The one-shot query and update methods
+ * of the Vert.x client execute the statement on the thread handing out the
+ * connections, a single thread shared by every caller, which this client
+ * only uses to wait for a free connection.
+ * <p>
+ * The wait for a connection and the statements are recorded in the current
+ * {@link Trace} as "jdbc-wait" and "jdbc", each statement is also recorded in
+ * the {@link QueryLog}.
+ */
+class WorkerJDBCClient implements JDBCClient {
+
+	private final JDBCClient delegate;
+	private final QueryLog queryLog;
+
+	WorkerJDBCClient(JDBCClient delegate, QueryLog queryLog) {
+		this.delegate = delegate;
+		this.queryLog = queryLog;
+	}
+
+	@Override
+	public JDBCClient query(String sql, Handler<AsyncResult<ResultSet>> resultHandler) {
+		return withConnection((conn, handler) -> conn.query(sql, handler), resultHandler);
+	}
+
+	@Override
+	public JDBCClient queryWithParams(String sql, JsonArray params, Handler<AsyncResult<ResultSet>> resultHandler) {
+		return withConnection((conn, handler) -> conn.queryWithParams(sql, params, handler), resultHandler);
+	}
+
+	@Override
+	public JDBCClient update(String sql, Handler<AsyncResult<UpdateResult>> resultHandler) {
+		return withConnection((conn, handler) -> conn.update(sql, handler), resultHandler);
+	}
+
+	@Override
+	public JDBCClient updateWithParams(String sql, JsonArray params, Handler<AsyncResult<UpdateResult>> resultHandler) {
+		return withConnection((conn, handler) -> conn.updateWithParams(sql, params, handler), resultHandler);
+	}
+
+	@Override
+	public SQLClient getConnection(Handler<AsyncResult<SQLConnection>> handler) {
+		Trace trace = Trace.current();
+		long requested = System.nanoTime();
+		delegate.getConnection(connected -> {
+			trace.add("jdbc-wait", System.nanoTime() - requested);
+			handler.handle(connected.map(conn -> new TimedSQLConnection(conn, queryLog)));
+		});
+		return this;
+	}
+
+	@Override
+	public void close(Handler<AsyncResult<Void>> handler) {
+		delegate.close(handler);
+	}
+
+	@Override
+	public void close() {
+		delegate.close();
+	}
+
+	private <T> JDBCClient withConnection(BiConsumer<SQLConnection, Handler<AsyncResult<T>>> statement,
+			Handler<AsyncResult<T>> resultHandler) {
+		Trace trace = Trace.current();
+		getConnection(connected -> {
+			if (connected.failed()) {
+				resultHandler.handle(Future.failedFuture(connected.cause()));
+				return;
+			}
+			SQLConnection conn = connected.result();
+			long start = System.nanoTime();
+			statement.accept(conn, result -> {
+				trace.add("jdbc", System.nanoTime() - start);
+				// Queued behind the statement on the connection, no need to wait for it
+				conn.close();
+				resultHandler.handle(result);
+			});
+		});
+		return this;
+	}
+}
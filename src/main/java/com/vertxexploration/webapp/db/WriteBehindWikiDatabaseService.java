@@ -0,0 +1,308 @@
+package com.vertxexploration.webapp.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+/**
+ * Buffers savePage calls so that rapid successive saves of the same page
+ * (e.g. editor autosave) only hit the database once per window. The last
+ * markdown received within the window wins, reads see the buffered content
+ * and {@link #flush(Handler)} writes everything that is still pending.
+ * <p>
+ * A page has at most one write in flight: saves received meanwhile are
+ * written once it is done. The buffered content is only dropped once the
+ * database has it, a failed write is retried after another window.
+ */
+public class WriteBehindWikiDatabaseService implements WikiDatabaseService {
+	private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindWikiDatabaseService.class);
+
+	private final Vertx vertx;
+	private final WikiDatabaseService delegate;
+	private final long windowMillis;
+
+	// Only touched from the verticle event loop, so no synchronization needed
+	private final Map<Integer, PendingSave> pendingSaves = new HashMap<>();
+
+	private static class PendingSave {
+		private String markdown;
+		// Saved since the last write was sent
+		private boolean dirty;
+		private boolean inFlight;
+		private long timerId = -1;
+		// Flushes waiting for the page to be written
+		private final List<Future<Void>> waiters = new ArrayList<>();
+	}
+
+	public WriteBehindWikiDatabaseService(Vertx vertx, WikiDatabaseService delegate, long windowMillis) {
+		this.vertx = vertx;
+		this.delegate = delegate;
+		this.windowMillis = windowMillis;
+	}
+
+	@Override
+	public WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
+		delegate.fetchAllPages(resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
+		delegate.fetchPage(name, fetch -> {
+			if (fetch.succeeded() && fetch.result().getBoolean("found")) {
+				PendingSave pending = pendingSaves.get(fetch.result().getInteger("id"));
+				if (pending != null) {
+					JsonObject page = fetch.result().put("rawContent", pending.markdown)
+							.put("contentLength", pending.markdown.length());
+					page.remove("tooLarge");
+					resultHandler.handle(Future.succeededFuture(page));
+					return;
+				}
+			}
+			resultHandler.handle(fetch);
+		});
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+		delegate.createPage(title, markdown, resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+		PendingSave pending = pendingSaves.get(id);
+		if (pending == null) {
+			pending = new PendingSave();
+			pendingSaves.put(id, pending);
+		}
+		pending.markdown = markdown; // later saves replace the earlier ones
+		pending.dirty = true;
+		if (!pending.inFlight && pending.timerId < 0) {
+			schedule(id, pending);
+		}
+		resultHandler.handle(Future.succeededFuture());
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
+		PendingSave pending = pendingSaves.remove(id);
+		if (pending == null) {
+			delegate.deletePage(id, resultHandler);
+			return this;
+		}
+		vertx.cancelTimer(pending.timerId); // no point writing a page that is about to be deleted
+		if (pending.inFlight) {
+			// Delete after the write in flight, not before it
+			Future<Void> written = Future.future();
+			written.setHandler(ar -> delegate.deletePage(id, resultHandler));
+			pending.waiters.add(written);
+		} else {
+			delegate.deletePage(id, resultHandler);
+		}
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchAllPagesData(Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+		delegate.fetchAllPagesData(fetch -> {
+			if (fetch.succeeded() && !pendingSaves.isEmpty()) {
+				fetch.result().forEach(page -> {
+					PendingSave pending = pendingSaves.get(page.getInteger("ID"));
+					if (pending != null) {
+						page.put("CONTENT", pending.markdown);
+					}
+				});
+			}
+			resultHandler.handle(fetch);
+		});
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchPageById(int id, Handler<AsyncResult<JsonObject>> resultHandler) {
+		delegate.fetchPageById(id, fetch -> {
+			PendingSave pending = pendingSaves.get(id);
+			if (fetch.succeeded() && pending != null && fetch.result().getBoolean("found")) {
+				JsonObject page = fetch.result().put("content", pending.markdown)
+						.put("contentLength", pending.markdown.length());
+				page.remove("tooLarge");
+				resultHandler.handle(Future.succeededFuture(page));
+			} else {
+				resultHandler.handle(fetch);
+			}
+		});
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchPageContentChunk(int id, int offset, int length,
+			Handler<AsyncResult<String>> resultHandler) {
+		PendingSave pending = pendingSaves.get(id);
+		if (pending == null) {
+			delegate.fetchPageContentChunk(id, offset, length, resultHandler);
+		} else {
+			int start = Math.min(offset, pending.markdown.length());
+			int end = Math.min(start + length, pending.markdown.length());
+			resultHandler.handle(Future.succeededFuture(pending.markdown.substring(start, end)));
+		}
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchPageRevisions(int id, Handler<AsyncResult<JsonArray>> resultHandler) {
+		delegate.fetchPageRevisions(id, resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchPageRevision(int id, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+		delegate.fetchPageRevision(id, revision, resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService exportPages(int afterId, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+		delegate.exportPages(afterId, limit, ar -> {
+			if (ar.succeeded()) {
+				ar.result().forEach(page -> {
+					JsonObject json = (JsonObject) page;
+					PendingSave pending = pendingSaves.get(json.getInteger("id"));
+					if (pending != null) {
+						json.put("markdown", pending.markdown);
+					}
+				});
+			}
+			resultHandler.handle(ar);
+		});
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchChangedPages(long since, int afterId, int limit,
+			Handler<AsyncResult<JsonArray>> resultHandler) {
+		// Buffered saves have no update time in the database yet
+		flush(ar -> {
+			if (ar.succeeded()) {
+				delegate.fetchChangedPages(since, afterId, limit, resultHandler);
+			} else {
+				resultHandler.handle(Future.failedFuture(ar.cause()));
+			}
+		});
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService importPages(JsonArray pages, Handler<AsyncResult<Integer>> resultHandler) {
+		// Imported content must win over saves still waiting in the buffer
+		flush(ar -> {
+			if (ar.succeeded()) {
+				delegate.importPages(pages, resultHandler);
+			} else {
+				resultHandler.handle(Future.failedFuture(ar.cause()));
+			}
+		});
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService addPageViews(JsonObject views, Handler<AsyncResult<Void>> resultHandler) {
+		delegate.addPageViews(views, resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService fetchTopViewedPages(int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+		delegate.fetchTopViewedPages(limit, resultHandler);
+		return this;
+	}
+
+	@Override
+	public WikiDatabaseService flush(Handler<AsyncResult<Void>> resultHandler) {
+		@SuppressWarnings("rawtypes")
+		List<Future> flushes = new ArrayList<>(pendingSaves.keySet()).stream().map(id -> {
+			Future<Void> flushed = Future.future();
+			flushPage(id, flushed);
+			return flushed;
+		}).collect(Collectors.toList());
+
+		CompositeFuture.all(flushes).setHandler(ar -> {
+			if (ar.succeeded()) {
+				delegate.flush(resultHandler);
+			} else {
+				resultHandler.handle(Future.failedFuture(ar.cause()));
+			}
+		});
+		return this;
+	}
+
+	private void schedule(int id, PendingSave pending) {
+		pending.timerId = vertx.setTimer(windowMillis, timerId -> {
+			pending.timerId = -1;
+			flushPage(id, Future.future());
+		});
+	}
+
+	private void flushPage(int id, Future<Void> flushed) {
+		PendingSave pending = pendingSaves.get(id);
+		if (pending == null) {
+			flushed.complete();
+			return;
+		}
+		pending.waiters.add(flushed);
+		if (!pending.inFlight) {
+			vertx.cancelTimer(pending.timerId);
+			pending.timerId = -1;
+			write(id, pending);
+		}
+	}
+
+	private void write(int id, PendingSave pending) {
+		pending.inFlight = true;
+		pending.dirty = false;
+		delegate.savePage(id, pending.markdown, res -> {
+			pending.inFlight = false;
+			if (pendingSaves.get(id) != pending) {
+				// Deleted meanwhile
+				complete(pending, res);
+				return;
+			}
+			if (res.failed()) {
+				LOGGER.error("Write-behind save of page " + id + " failed, retrying", res.cause());
+				pending.dirty = true;
+				complete(pending, res);
+				schedule(id, pending);
+			} else if (pending.dirty) {
+				// Saved again while written
+				if (pending.waiters.isEmpty()) {
+					schedule(id, pending);
+				} else {
+					write(id, pending);
+				}
+			} else {
+				pendingSaves.remove(id);
+				complete(pending, res);
+			}
+		});
+	}
+
+	private void complete(PendingSave pending, AsyncResult<Void> res) {
+		List<Future<Void>> waiters = new ArrayList<>(pending.waiters);
+		pending.waiters.clear();
+		waiters.forEach(waiter -> waiter.handle(res));
+	}
+}
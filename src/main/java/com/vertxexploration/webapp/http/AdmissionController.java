@@ -0,0 +1,135 @@
+package com.vertxexploration.webapp.http;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpConnection;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.reactivex.ext.web.RoutingContext;
+
+/**
+ * Bounds the number of requests waiting on the database, separately for
+ * reads and writes, and gives every admitted request a deadline. When the
+ * database slows down, extra requests are shed right away with a 503
+ * instead of piling up behind the event-bus proxy.
+ * <p>
+ * This class owns the close handler of the connections it admits requests
+ * on: it gives back the slots of the requests a closed connection leaves
+ * behind. {@link HttpConnection#closeHandler(Handler)} keeps a single
+ * handler, so no other code may set one on these connections.
+ */
+public class AdmissionController implements Handler<RoutingContext> {
+
+	/** Routing context key holding the deadline (epoch millis) of an admitted request. */
+	public static final String DEADLINE_KEY = "deadline";
+
+	private static final String SHARED_MAP_NAME = "http.admission";
+
+	private final int maxReads;
+	private final int maxWrites;
+	private final long readTimeout;
+	private final long writeTimeout;
+	private final int retryAfterSeconds;
+	private final InFlight inFlight;
+	// Requests admitted and not released yet, by connection. Each verticle instance has its own controller, only
+	// touched from its event loop, which serves its connections
+	private final Map<HttpConnection, Set<Admission>> admittedByConnection = new HashMap<>();
+
+	public AdmissionController(Vertx vertx, int maxReads, int maxWrites, long readTimeout, long writeTimeout,
+			int retryAfterSeconds) {
+		this.maxReads = maxReads;
+		this.maxWrites = maxWrites;
+		this.readTimeout = readTimeout;
+		this.writeTimeout = writeTimeout;
+		this.retryAfterSeconds = retryAfterSeconds;
+
+		// The limits apply to the process, not to each HTTP verticle instance
+		LocalMap<String, InFlight> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+		map.putIfAbsent(SHARED_MAP_NAME, new InFlight());
+		this.inFlight = map.get(SHARED_MAP_NAME);
+	}
+
+	@Override
+	public void handle(RoutingContext context) {
+		boolean read = context.request().method() == HttpMethod.GET || context.request().method() == HttpMethod.HEAD;
+		AtomicInteger counter = read ? inFlight.reads : inFlight.writes;
+		int limit = read ? maxReads : maxWrites;
+
+		if (counter.incrementAndGet() > limit) {
+			counter.decrementAndGet();
+			inFlight.shed.increment();
+			context.response()
+				.setStatusCode(503)
+				.putHeader("Retry-After", String.valueOf(retryAfterSeconds))
+				.end();
+			return;
+		}
+
+		// Released when the response is sent, or when the connection closes before: the response close handler
+		// can't be used, streaming handlers set their own and would replace it. The connection close handler is
+		// ours alone, see the class comment
+		HttpConnection connection = context.request().getDelegate().connection();
+		Set<Admission> admitted = admittedByConnection.get(connection);
+		if (admitted == null) {
+			Set<Admission> created = new HashSet<>();
+			admittedByConnection.put(connection, created);
+			connection.closeHandler(v -> new ArrayList<>(admittedByConnection.remove(connection))
+					.forEach(admission -> admission.handle(null)));
+			admitted = created;
+		}
+		Admission admission = new Admission(counter, admitted);
+		admitted.add(admission);
+		context.addBodyEndHandler(admission);
+
+		context.put(DEADLINE_KEY, System.currentTimeMillis() + (read ? readTimeout : writeTimeout));
+		context.next();
+	}
+
+	public JsonObject stats() {
+		return new JsonObject()
+				.put("reads", inFlight.reads.get())
+				.put("maxReads", maxReads)
+				.put("writes", inFlight.writes.get())
+				.put("maxWrites", maxWrites)
+				.put("shed", inFlight.shed.sum());
+	}
+
+	/**
+	 * The slot of an admitted request, given back once.
+	 */
+	private static class Admission implements Handler<Void> {
+		private final AtomicInteger counter;
+		private final Set<Admission> ofConnection;
+		private boolean released;
+
+		private Admission(AtomicInteger counter, Set<Admission> ofConnection) {
+			this.counter = counter;
+			this.ofConnection = ofConnection;
+		}
+
+		@Override
+		public void handle(Void v) {
+			if (!released) {
+				released = true;
+				counter.decrementAndGet();
+				ofConnection.remove(this);
+			}
+		}
+	}
+
+	private static class InFlight implements Shareable {
+		private final AtomicInteger reads = new AtomicInteger();
+		private final AtomicInteger writes = new AtomicInteger();
+		private final LongAdder shed = new LongAdder();
+	}
+}
@@ -0,0 +1,153 @@
+package com.vertxexploration.webapp.http;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.github.rjeschke.txtmark.Processor;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * Renders markdown block by block, reusing the HTML of the blocks already
+ * rendered, so a small edit to a long page only renders the blocks it
+ * touched. A block is cached under its own text, least recently used blocks
+ * are dropped past maxChars (markdown and HTML).
+ * <p>
+ * The document is only split where txtmark renders both sides independently,
+ * so the stitched HTML is identical to a full render: before an unindented
+ * line following a blank line, unless that line could continue a list, a
+ * blockquote or an HTML block. Documents with link references (their
+ * definitions apply to the whole document) or HTML blocks are rendered
+ * whole.
+ */
+class BlockRenderCache {
+
+	private static final String SHARED_MAP_NAME = "wiki.markdown.blocks";
+
+	// Lines which may belong to the block before the blank line
+	private static final Pattern CONTINUATION = Pattern.compile("[ \\t*+\\->]|\\d+\\.|<");
+	// A link reference definition, or an HTML block
+	private static final Pattern DOCUMENT_WIDE = Pattern.compile("(?m)^ {0,3}(\\[[^\\]]+\\]:|<)");
+
+	private final Blocks blocks;
+
+	BlockRenderCache(Vertx vertx, long maxChars) {
+		// The renderer workers of every HTTP verticle instance share the blocks
+		LocalMap<String, Blocks> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+		map.putIfAbsent(SHARED_MAP_NAME, new Blocks(maxChars));
+		this.blocks = map.get(SHARED_MAP_NAME);
+	}
+
+	String render(String markdown) {
+		List<String> parts = split(markdown);
+		if (parts == null) {
+			blocks.wholeRenders.increment();
+			return Processor.process(markdown);
+		}
+		StringBuilder html = new StringBuilder(markdown.length() + markdown.length() / 4);
+		for (String part : parts) {
+			String rendered = blocks.get(part);
+			if (rendered == null) {
+				rendered = Processor.process(part);
+				blocks.put(part, rendered);
+			}
+			html.append(rendered);
+		}
+		return html.toString();
+	}
+
+	/**
+	 * @return the blocks of the document, null when it must be rendered whole
+	 */
+	static List<String> split(String markdown) {
+		if (DOCUMENT_WIDE.matcher(markdown).find()) {
+			return null;
+		}
+		List<String> parts = new ArrayList<>();
+		Matcher continuation = CONTINUATION.matcher(markdown);
+		int blockStart = 0;
+		boolean afterBlank = false;
+		for (int lineStart = 0; lineStart < markdown.length();) {
+			int lineEnd = markdown.indexOf('\n', lineStart);
+			lineEnd = lineEnd < 0 ? markdown.length() : lineEnd + 1;
+			boolean blank = isBlank(markdown, lineStart, lineEnd);
+			if (!blank && afterBlank && !continuation.region(lineStart, lineEnd).lookingAt()) {
+				parts.add(markdown.substring(blockStart, lineStart));
+				blockStart = lineStart;
+			}
+			afterBlank = blank;
+			lineStart = lineEnd;
+		}
+		parts.add(markdown.substring(blockStart));
+		return parts;
+	}
+
+	private static boolean isBlank(String markdown, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (!Character.isWhitespace(markdown.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	JsonObject stats() {
+		synchronized (blocks) {
+			return new JsonObject()
+					.put("blocks", blocks.cache.size())
+					.put("chars", blocks.chars)
+					.put("maxChars", blocks.maxChars)
+					.put("hits", blocks.hits.sum())
+					.put("misses", blocks.misses.sum())
+					.put("wholeRenders", blocks.wholeRenders.sum());
+		}
+	}
+
+	private static class Blocks implements Shareable {
+		private final long maxChars;
+		// Access ordered, the eldest is the least recently used
+		private final LinkedHashMap<String, String> cache = new LinkedHashMap<>(256, 0.75f, true);
+		private long chars;
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder misses = new LongAdder();
+		private final LongAdder wholeRenders = new LongAdder();
+
+		private Blocks(long maxChars) {
+			this.maxChars = maxChars;
+		}
+
+		private synchronized String get(String markdown) {
+			String html = cache.get(markdown);
+			if (html == null) {
+				misses.increment();
+			} else {
+				hits.increment();
+			}
+			return html;
+		}
+
+		private synchronized void put(String markdown, String html) {
+			long size = markdown.length() + html.length();
+			if (size > maxChars || cache.containsKey(markdown)) {
+				return;
+			}
+			cache.put(markdown, html);
+			chars += size;
+			Iterator<Map.Entry<String, String>> eldest = cache.entrySet().iterator();
+			while (chars > maxChars) {
+				Map.Entry<String, String> entry = eldest.next();
+				chars -= entry.getKey().length() + entry.getValue().length();
+				eldest.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package com.vertxexploration.webapp.http;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.parsetools.RecordParser;
+import io.vertx.reactivex.ext.web.RoutingContext;
+import io.vertx.reactivex.ext.web.handler.BodyHandler;
+
+/**
+ * The one place request bodies are read. Requests announcing a body over
+ * the limit are answered with a 413 before a single byte is read, and the
+ * connection is closed so the client stops sending. Bodies of streamed
+ * routes are left unread (the request is paused) for {@link #readText} or
+ * {@link #readLines} to consume as they arrive, everything else goes
+ * through a size limited {@link BodyHandler}.
+ */
+public class BodyLimitHandler implements Handler<RoutingContext> {
+
+	private final long bodyLimit;
+	private final long streamedLimit;
+	private final Pattern streamedPaths;
+	private final BodyHandler bodyHandler;
+
+	/**
+	 * @param bodyLimit
+	 *            max bytes of a buffered body
+	 * @param streamedLimit
+	 *            max bytes of a streamed text body, or of one line of a
+	 *            streamed body read by lines
+	 * @param streamedPaths
+	 *            request paths whose bodies are streamed
+	 */
+	public BodyLimitHandler(long bodyLimit, long streamedLimit, Pattern streamedPaths) {
+		this.bodyLimit = bodyLimit;
+		this.streamedLimit = streamedLimit;
+		this.streamedPaths = streamedPaths;
+		this.bodyHandler = BodyHandler.create().setBodyLimit(bodyLimit);
+	}
+
+	@Override
+	public void handle(RoutingContext context) {
+		if (streamedPaths.matcher(context.request().path()).matches()) {
+			// Nothing may be lost while the auth handlers run, the route handler resumes the request
+			context.request().pause();
+			// Answered without reading the body (auth failure...), drain it so the connection isn't stuck
+			context.addBodyEndHandler(v -> context.request().resume());
+			context.next();
+			return;
+		}
+
+		String contentLength = context.request().getHeader("Content-Length");
+		if (contentLength != null && exceeds(contentLength, bodyLimit)) {
+			reject(context);
+			return;
+		}
+		bodyHandler.handle(context);
+	}
+
+	/**
+	 * Decode the UTF-8 body of a streamed request chunk by chunk, so it is
+	 * held once as text rather than as a buffer plus its string copy. A body
+	 * growing past the limit gets a 413 and {@code textHandler} is never
+	 * called.
+	 */
+	public void readText(RoutingContext context, Handler<String> textHandler) {
+		HttpServerRequest request = context.request().getDelegate();
+		String contentLength = request.getHeader("Content-Length");
+		if (contentLength != null && exceeds(contentLength, streamedLimit)) {
+			reject(context);
+			return;
+		}
+
+		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		StringBuilder text = new StringBuilder();
+		ByteBuffer[] pending = { ByteBuffer.allocate(0) }; // trailing bytes of a character split across chunks
+		long[] received = { 0 };
+
+		request.handler(chunk -> {
+			received[0] += chunk.length();
+			if (received[0] > streamedLimit) {
+				request.handler(null);
+				reject(context);
+				return;
+			}
+			ByteBuffer bytes = pending[0].hasRemaining()
+					? ByteBuffer.allocate(pending[0].remaining() + chunk.length()).put(pending[0]).put(chunk.getBytes())
+					: ByteBuffer.wrap(chunk.getBytes());
+			if (bytes.position() > 0) {
+				bytes.flip();
+			}
+			decode(decoder, bytes, text, false);
+			pending[0] = bytes;
+		});
+		request.exceptionHandler(context::fail);
+		request.endHandler(v -> {
+			if (request.response().ended()) {
+				return; // already rejected
+			}
+			decode(decoder, pending[0], text, true);
+			CharBuffer rest = CharBuffer.allocate(4);
+			decoder.flush(rest);
+			text.append((CharBuffer) rest.flip());
+			textHandler.handle(text.toString());
+		});
+		request.resume();
+	}
+
+	/**
+	 * Split the body of a streamed request into newline separated lines as it
+	 * arrives. Only the current line is buffered, and a line growing past the
+	 * streamed limit gets a 413. Pausing the request stops the lines too,
+	 * although the ones already received are still delivered. The last line
+	 * doesn't need a trailing newline.
+	 */
+	public void readLines(RoutingContext context, Handler<Buffer> lineHandler, Handler<Void> endHandler) {
+		HttpServerRequest request = context.request().getDelegate();
+		long[] sinceLastLine = { 0 };
+		RecordParser parser = RecordParser.newDelimited("\n", line -> {
+			sinceLastLine[0] = 0;
+			lineHandler.handle(line);
+		});
+
+		request.handler(chunk -> {
+			sinceLastLine[0] += chunk.length();
+			parser.handle(chunk);
+			if (sinceLastLine[0] > streamedLimit) {
+				request.handler(null);
+				reject(context);
+			}
+		});
+		request.exceptionHandler(context::fail);
+		request.endHandler(v -> {
+			if (request.response().ended()) {
+				return; // already rejected
+			}
+			parser.handle(Buffer.buffer("\n"));
+			endHandler.handle(null);
+		});
+		request.resume();
+	}
+
+	private static void decode(CharsetDecoder decoder, ByteBuffer bytes, StringBuilder text, boolean endOfInput) {
+		CharBuffer chars = CharBuffer.allocate(bytes.remaining() + 1); // UTF-8 never decodes to more chars than bytes
+		decoder.decode(bytes, chars, endOfInput);
+		text.append((CharBuffer) chars.flip());
+	}
+
+	private static boolean exceeds(String contentLength, long limit) {
+		try {
+			return Long.parseLong(contentLength) > limit;
+		} catch (NumberFormatException e) {
+			return false; // let the body handler deal with it
+		}
+	}
+
+	private static void reject(RoutingContext context) {
+		HttpServerRequest request = context.request().getDelegate();
+		// Next to the other body end handlers of the route, rather than replacing them
+		context.addBodyEndHandler(v -> request.connection().close());
+		request.response().setStatusCode(413).putHeader("Connection", "close").end();
+	}
+}
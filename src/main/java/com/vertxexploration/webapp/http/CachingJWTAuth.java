@@ -0,0 +1,128 @@
+package com.vertxexploration.webapp.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.auth.User;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTOptions;
+import io.vertx.ext.auth.jwt.impl.JWTUser;
+
+/**
+ * Remembers the principals of tokens that were already verified, so
+ * repeated calls with the same bearer token skip the signature check. An
+ * entry lives until the token's {@code exp} claim or the configured TTL,
+ * whichever comes first. Failed verifications are never cached.
+ * <p>
+ * Only the principal is cached: a User caches its permissions unsynchronized,
+ * so each request gets its own, built like the JWT provider builds them.
+ */
+public class CachingJWTAuth implements JWTAuth {
+
+	private static final String SHARED_MAP_NAME = "http.jwt.cache";
+
+	private final JWTAuth delegate;
+	private final String permissionsClaimKey;
+	private final int maxSize;
+	private final long ttl;
+	private final Cache cache;
+
+	/**
+	 * @param permissionsClaimKey
+	 *            the claim holding the permissions, as configured for the
+	 *            delegate
+	 */
+	public CachingJWTAuth(Vertx vertx, JWTAuth delegate, String permissionsClaimKey, int maxSize, long ttl) {
+		this.delegate = delegate;
+		this.permissionsClaimKey = permissionsClaimKey;
+		this.maxSize = maxSize;
+		this.ttl = ttl;
+
+		// One cache for all the HTTP verticle instances, a client hits any of them
+		LocalMap<String, Cache> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+		map.putIfAbsent(SHARED_MAP_NAME, new Cache());
+		this.cache = map.get(SHARED_MAP_NAME);
+	}
+
+	@Override
+	public void authenticate(JsonObject authInfo, Handler<AsyncResult<User>> resultHandler) {
+		String token = authInfo.getString("jwt");
+		if (token == null) {
+			delegate.authenticate(authInfo, resultHandler);
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		Entry entry = cache.entries.get(token);
+		if (entry != null) {
+			if (entry.expiresAt > now) {
+				cache.hits.increment();
+				resultHandler.handle(Future.succeededFuture(new JWTUser(entry.principal.copy(), permissionsClaimKey)));
+				return;
+			}
+			cache.entries.remove(token, entry);
+		}
+
+		cache.misses.increment();
+		delegate.authenticate(authInfo, ar -> {
+			if (ar.succeeded()) {
+				put(token, ar.result().principal().copy(), now);
+			}
+			resultHandler.handle(ar);
+		});
+	}
+
+	@Override
+	public String generateToken(JsonObject claims, JWTOptions options) {
+		return delegate.generateToken(claims, options);
+	}
+
+	public JsonObject stats() {
+		long hits = cache.hits.sum();
+		long misses = cache.misses.sum();
+		return new JsonObject()
+				.put("size", cache.entries.size())
+				.put("hits", hits)
+				.put("misses", misses)
+				.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+	}
+
+	private void put(String token, JsonObject principal, long now) {
+		long expiresAt = now + ttl;
+		Long exp = principal.getLong("exp");
+		if (exp != null) {
+			expiresAt = Math.min(expiresAt, exp * 1000);
+		}
+
+		if (cache.entries.size() >= maxSize) {
+			cache.entries.values().removeIf(entry -> entry.expiresAt <= now);
+			if (cache.entries.size() >= maxSize) {
+				return; // still full of live tokens, this one will just be verified every time
+			}
+		}
+		cache.entries.put(token, new Entry(principal, expiresAt));
+	}
+
+	private static class Entry {
+		private final JsonObject principal;
+		private final long expiresAt;
+
+		private Entry(JsonObject principal, long expiresAt) {
+			this.principal = principal;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private static class Cache implements Shareable {
+		private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder misses = new LongAdder();
+	}
+}
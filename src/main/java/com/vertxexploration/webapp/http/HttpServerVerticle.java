@@ -1,28 +1,44 @@
 package com.vertxexploration.webapp.http;
 
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.github.rjeschke.txtmark.Processor;
+import com.vertxexploration.webapp.StartupStatus;
+import com.vertxexploration.webapp.Trace;
+import com.vertxexploration.webapp.BlockingPoolMetrics;
+import com.vertxexploration.webapp.backup.BackupJobs;
+import com.vertxexploration.webapp.backup.GistBackup;
+import com.vertxexploration.webapp.backup.LocalBackup;
+import com.vertxexploration.webapp.db.DeadlineHandler;
+import com.vertxexploration.webapp.db.QueryLog;
 import com.vertxexploration.webapp.db.WikiDatabaseService;
+import com.vertxexploration.webapp.db.WikiDatabaseVerticle;
 
 import io.reactivex.Single;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.net.JksOptions;
+import io.vertx.core.streams.Pump;
 import io.vertx.ext.auth.KeyStoreOptions;
 import io.vertx.ext.auth.jwt.JWTAuthOptions;
 import io.vertx.ext.auth.jwt.JWTOptions;
 import io.vertx.ext.auth.shiro.ShiroAuthOptions;
 import io.vertx.ext.auth.shiro.ShiroAuthRealmType;
+import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.client.WebClientOptions;
 import io.vertx.reactivex.core.AbstractVerticle;
 import io.vertx.reactivex.core.http.HttpServer;
@@ -32,11 +48,7 @@ import io.vertx.reactivex.ext.auth.jwt.JWTAuth;
 import io.vertx.reactivex.ext.auth.shiro.ShiroAuth;
 import io.vertx.reactivex.ext.web.Router;
 import io.vertx.reactivex.ext.web.RoutingContext;
-import io.vertx.reactivex.ext.web.client.HttpResponse;
-import io.vertx.reactivex.ext.web.client.WebClient;
-import io.vertx.reactivex.ext.web.codec.BodyCodec;
 import io.vertx.reactivex.ext.web.handler.AuthHandler;
-import io.vertx.reactivex.ext.web.handler.BodyHandler;
 import io.vertx.reactivex.ext.web.handler.CookieHandler;
 import io.vertx.reactivex.ext.web.handler.FormLoginHandler;
 import io.vertx.reactivex.ext.web.handler.JWTAuthHandler;
@@ -44,7 +56,6 @@ import io.vertx.reactivex.ext.web.handler.RedirectAuthHandler;
 import io.vertx.reactivex.ext.web.handler.SessionHandler;
 import io.vertx.reactivex.ext.web.handler.UserSessionHandler;
 import io.vertx.reactivex.ext.web.sstore.LocalSessionStore;
-import io.vertx.reactivex.ext.web.templ.FreeMarkerTemplateEngine;
 
 public class HttpServerVerticle extends AbstractVerticle {
 
@@ -52,27 +63,178 @@ public class HttpServerVerticle extends AbstractVerticle {
 
 	public static final String CONFIG_HTTP_SERVER_PORT = "http.server.port";
 	public static final String CONFIG_WIKIDB_QUEUE = "wikidb.queue";
+	public static final String CONFIG_WIKIDB_SHARDS = "wikidb.shards";
+	// Page views are counted in memory and added to the database view counts at this interval
+	public static final String CONFIG_VIEWS_FLUSH_MS = "http.views.flush_ms";
+	public static final String CONFIG_MARKDOWN_POOL_SIZE = "http.markdown.pool_size";
+	public static final String CONFIG_MARKDOWN_INLINE_THRESHOLD = "http.markdown.inline_threshold";
+	public static final String CONFIG_MARKDOWN_MAX_QUEUE = "http.markdown.max_queue";
+	// Chars of markdown and HTML kept by the block render cache, 0 renders pages whole
+	public static final String CONFIG_MARKDOWN_BLOCK_CACHE_CHARS = "http.markdown.block_cache_chars";
+	public static final String CONFIG_TEMPLATES_POOL_SIZE = "http.templates.pool_size";
+	// How long a page render waits for a client that doesn't read before dropping the page
+	public static final String CONFIG_TEMPLATES_DRAIN_TIMEOUT_MS = "http.templates.drain_timeout_ms";
+	public static final String CONFIG_CONTENT_CHUNK_SIZE = "http.content.chunk_size";
+	public static final String CONFIG_ADMISSION_MAX_READS = "http.admission.max_reads";
+	public static final String CONFIG_ADMISSION_MAX_WRITES = "http.admission.max_writes";
+	public static final String CONFIG_ADMISSION_READ_TIMEOUT_MS = "http.admission.read_timeout_ms";
+	public static final String CONFIG_ADMISSION_WRITE_TIMEOUT_MS = "http.admission.write_timeout_ms";
+	public static final String CONFIG_ADMISSION_RETRY_AFTER_S = "http.admission.retry_after_s";
+	public static final String CONFIG_RATE_LIMITS = "http.ratelimits";
+	public static final String CONFIG_JWT_CACHE_MAX_SIZE = "http.jwt_cache.max_size";
+	public static final String CONFIG_JWT_CACHE_TTL_MS = "http.jwt_cache.ttl_ms";
+	public static final String CONFIG_BODY_LIMIT = "http.body.limit";
+	public static final String CONFIG_UPLOAD_LIMIT = "http.upload.limit";
+	public static final String CONFIG_EXPORT_BATCH_SIZE = "http.export.batch_size";
+	public static final String CONFIG_IMPORT_BATCH_SIZE = "http.import.batch_size";
+	public static final String CONFIG_BACKUP_TARGET = "backup.target";
+	public static final String CONFIG_BACKUP_LOCAL_DIR = "backup.local.dir";
+	public static final String CONFIG_BACKUP_GIST_URL = "backup.gist.url";
+	public static final String CONFIG_BACKUP_GIST_TOKEN = "backup.gist.token";
+	public static final String CONFIG_BACKUP_GIST_MAX_BYTES = "backup.gist.max_bytes";
+	public static final String CONFIG_BACKUP_GIST_MAX_FILES = "backup.gist.max_files";
+	public static final String CONFIG_BACKUP_GIST_PARALLELISM = "backup.gist.parallelism";
+	public static final String CONFIG_BACKUP_GIST_TIMEOUT_MS = "backup.gist.timeout_ms";
+	public static final String CONFIG_TRACE_SLOW_MS = "http.trace.slow_ms";
+	public static final String CONFIG_EVENTS_MAX_SUBSCRIBERS = "http.events.max_subscribers";
+	public static final String CONFIG_EVENTS_MAX_QUEUED = "http.events.max_queued";
+	public static final String CONFIG_EVENTS_HEARTBEAT_MS = "http.events.heartbeat_ms";
+	public static final String CONFIG_TRACE_MAX_SLOW_LOGS = "http.trace.max_slow_logs_per_second";
 	private static final String EMPTY_PAGE_MARKDOWN = "# A new page\n" + "\n" + "Feel-free to write in Markdown!\n";
 
 	private String wikiDbQueue = "wikidb.queue";
+	private int wikiDbShards = 1;
 
 	// For auto redeployment for code changes, put --redeploy="src/**/*.java"
 	// --launcher-class=io.vertx.core.Launcher to Program argument
 	private WikiDatabaseService dbService;
+	private AdmissionController admissionController;
+	private RequestTracer requestTracer;
+	private PageEventStream pageEvents;
 	private AuthProvider auth;
 	private JWTAuth jwtAuth;
+	private CachingJWTAuth jwtCache;
+	private MarkdownRenderer markdownRenderer;
+	private StreamingTemplateEngine templateEngine;
+	private int contentChunkSize;
+	private BodyLimitHandler bodyLimitHandler;
+	private LocalBackup localBackup;
+	private GistBackup gistBackup;
+	private BackupJobs backupJobs;
+	private WebClient webClient;
+	private PageListCache pageListCache;
+	private PageViewCounter pageViews;
 
 	@Override
 	public void start(Future<Void> startFuture) throws Exception {
 
-		String wikiDbQueue = config().getString(CONFIG_WIKIDB_QUEUE, "wikidb.queue");
-		dbService = WikiDatabaseService.createProxy(vertx.getDelegate(), wikiDbQueue);
+		wikiDbQueue = config().getString(CONFIG_WIKIDB_QUEUE, "wikidb.queue");
+		wikiDbShards = config().getInteger(CONFIG_WIKIDB_SHARDS, 1);
+		dbService = WikiDatabaseService.createShardedProxy(vertx.getDelegate(), wikiDbQueue, wikiDbShards,
+				new DeliveryOptions());
+		admissionController = new AdmissionController(vertx.getDelegate(),
+				config().getInteger(CONFIG_ADMISSION_MAX_READS, 256),
+				config().getInteger(CONFIG_ADMISSION_MAX_WRITES, 64),
+				config().getLong(CONFIG_ADMISSION_READ_TIMEOUT_MS, 5000L),
+				config().getLong(CONFIG_ADMISSION_WRITE_TIMEOUT_MS, 10000L),
+				config().getInteger(CONFIG_ADMISSION_RETRY_AFTER_S, 1));
+
+		requestTracer = new RequestTracer(vertx.getDelegate(),
+				config().getLong(CONFIG_TRACE_SLOW_MS, 500L),
+				config().getInteger(CONFIG_TRACE_MAX_SLOW_LOGS, 10));
+
+		markdownRenderer = new MarkdownRenderer(vertx.getDelegate(),
+				config().getInteger(CONFIG_MARKDOWN_POOL_SIZE, 4),
+				config().getInteger(CONFIG_MARKDOWN_INLINE_THRESHOLD, 16 * 1024),
+				config().getInteger(CONFIG_MARKDOWN_MAX_QUEUE, 256),
+				config().getLong(CONFIG_MARKDOWN_BLOCK_CACHE_CHARS, 8L * 1024 * 1024));
+		contentChunkSize = config().getInteger(CONFIG_CONTENT_CHUNK_SIZE, 64 * 1024);
+		// Forms and JSON documents are buffered, raw markdown and NDJSON imports are streamed
+		bodyLimitHandler = new BodyLimitHandler(
+				config().getLong(CONFIG_BODY_LIMIT, 2L * 1024 * 1024),
+				config().getLong(CONFIG_UPLOAD_LIMIT, 32L * 1024 * 1024),
+				Pattern.compile("/api/(pages/[^/]+/content|import)"));
+
+		localBackup = new LocalBackup(vertx.getDelegate(), dbService, config().getString(CONFIG_BACKUP_LOCAL_DIR, "backups"),
+				config().getInteger(CONFIG_EXPORT_BATCH_SIZE, 100));
+		// One pooled client for every outgoing call of this verticle instance
+		int gistParallelism = config().getInteger(CONFIG_BACKUP_GIST_PARALLELISM, 4);
+		webClient = WebClient.create(vertx.getDelegate(), new WebClientOptions()
+				.setUserAgent("joshuahendinata")
+				.setKeepAlive(true)
+				.setMaxPoolSize(gistParallelism));
+		gistBackup = new GistBackup(dbService, webClient,
+				config().getString(CONFIG_BACKUP_GIST_URL, GistBackup.DEFAULT_URL),
+				config().getString(CONFIG_BACKUP_GIST_TOKEN),
+				config().getInteger(CONFIG_BACKUP_GIST_MAX_BYTES, 900 * 1024),
+				config().getInteger(CONFIG_BACKUP_GIST_MAX_FILES, 300),
+				gistParallelism,
+				config().getInteger(CONFIG_EXPORT_BATCH_SIZE, 100),
+				config().getLong(CONFIG_BACKUP_GIST_TIMEOUT_MS, 60000L));
+		backupJobs = new BackupJobs(vertx.getDelegate(), 20);
+		pageListCache = new PageListCache(vertx.getDelegate());
+		pageViews = new PageViewCounter(vertx.getDelegate(), dbService, config().getLong(CONFIG_VIEWS_FLUSH_MS, 5000L));
+		pageEvents = new PageEventStream(vertx.getDelegate(),
+				config().getInteger(CONFIG_EVENTS_MAX_SUBSCRIBERS, 1000),
+				config().getInteger(CONFIG_EVENTS_MAX_QUEUED, 100),
+				config().getLong(CONFIG_EVENTS_HEARTBEAT_MS, 15000L));
+		vertx.getDelegate().eventBus().<JsonObject>consumer(WikiDatabaseVerticle.PAGE_EVENTS_ADDRESS, event -> {
+			pageListCache.invalidate();
+			pageEvents.publish(event.body());
+		});
+		vertx.getDelegate().eventBus().<JsonObject>consumer(WikiDatabaseVerticle.PAGE_UPDATES_ADDRESS,
+				event -> pageEvents.publish(event.body()));
+
+		// Loading the keystores and compiling the templates are independent blocking jobs, run them in parallel
+		long loadStart = System.currentTimeMillis();
+		Future<ShiroAuth> shiroLoaded = Future.future();
+		vertx.getDelegate().<ShiroAuth>executeBlocking(future -> future.complete(ShiroAuth.create(vertx, 
+				new ShiroAuthOptions()
+					.setType(ShiroAuthRealmType.PROPERTIES)
+					.setConfig(new JsonObject()
+							.put("properties_path", "classpath:wiki-users.properties")))), false, shiroLoaded);
+
+		Future<JWTAuth> jwtLoaded = Future.future();
+		JWTAuthOptions jwtOptions = new JWTAuthOptions().setKeyStore(
+				new KeyStoreOptions()
+				.setPath("keystore.jceks")
+				.setPassword("secret"));
+		vertx.getDelegate().<JWTAuth>executeBlocking(future -> future.complete(JWTAuth.create(vertx, jwtOptions)), false,
+				jwtLoaded);
+
+		Future<StreamingTemplateEngine> templatesCompiled = Future.future();
+		StreamingTemplateEngine.create(vertx.getDelegate(), "/templates",
+				Arrays.asList("/index.ftl", "/page-list.ftl", "/page.ftl", "/login.ftl"),
+				config().getInteger(CONFIG_TEMPLATES_POOL_SIZE, 4),
+				config().getLong(CONFIG_TEMPLATES_DRAIN_TIMEOUT_MS, 30000L), templatesCompiled);
+
+		CompositeFuture.all(shiroLoaded, jwtLoaded, templatesCompiled).setHandler(loaded -> {
+			if (loaded.failed()) {
+				LOGGER.error("Could not load the keystores and templates", loaded.cause());
+				startFuture.fail(loaded.cause());
+				return;
+			}
+			LOGGER.info("Keystores and templates loaded in " + (System.currentTimeMillis() - loadStart) + "ms");
+			this.auth = shiroLoaded.result();
+			// Skip the signature check for tokens verified recently
+			this.jwtCache = new CachingJWTAuth(vertx.getDelegate(), jwtLoaded.result().getDelegate(),
+					jwtOptions.getPermissionsClaimKey(),
+					config().getInteger(CONFIG_JWT_CACHE_MAX_SIZE, 10000),
+					config().getLong(CONFIG_JWT_CACHE_TTL_MS, 300000L));
+			this.jwtAuth = JWTAuth.newInstance(jwtCache);
+			this.templateEngine = templatesCompiled.result();
+
+			startServer(startFuture);
+		});
+	}
 
-		this.auth = ShiroAuth.create(vertx, new ShiroAuthOptions()
-				.setType(ShiroAuthRealmType.PROPERTIES)
-				.setConfig(new JsonObject()
-						.put("properties_path", "classpath:wiki-users.properties")));
-		
+	@Override
+	public void stop() throws Exception {
+		webClient.close();
+		pageViews.flush(); // best effort, the views counted since the last flush
+	}
+
+	private void startServer(Future<Void> startFuture) {
 		HttpServer server = vertx.createHttpServer(new HttpServerOptions()
 			.setSsl(true)
 			.setKeyStoreOptions(new JksOptions()
@@ -80,10 +242,20 @@ public class HttpServerVerticle extends AbstractVerticle {
 				.setPassword("secret")));
 
 		Router router = Router.router(vertx);
+
+		// Server-Timing header and slow request log, the security handlers count as "auth"
+		router.route().handler(requestTracer);
+		router.route().handler(context -> {
+			RequestTracer.trace(context).begin("auth");
+			context.next();
+		});
 		
+		// Readiness probe, green once MainVerticle is done with the startup phase
+		router.get("/health/ready").handler(this::readinessHandler);
+
 		// Security config
 		router.route().handler(CookieHandler.create());
-		router.route().handler(BodyHandler.create());
+		router.route().handler(bodyLimitHandler);
 		router.route().handler(SessionHandler.create(LocalSessionStore.create(vertx)));
 		router.route().handler(UserSessionHandler.create(auth));  
 
@@ -91,6 +263,15 @@ public class HttpServerVerticle extends AbstractVerticle {
 		router.route("/").handler(authHandler);  
 		router.route("/wiki/*").handler(authHandler);
 		router.route("/action/*").handler(authHandler);
+
+		// Bound the requests waiting on the database
+		router.route("/").handler(admissionController);
+		router.route("/wiki/*").handler(admissionController);
+		router.route("/action/*").handler(admissionController);
+		router.route().handler(context -> {
+			RequestTracer.trace(context).end("auth");
+			context.next();
+		});
 		
 		// login/logout
 		router.get("/login").handler(this::loginHandler);
@@ -106,33 +287,57 @@ public class HttpServerVerticle extends AbstractVerticle {
 		// Website gateway
 		router.get("/").handler(this::indexHandler);
 		router.get("/wiki/:page").handler(this::pageRenderingHandler);
-		router.post().handler(BodyHandler.create());
 		router.post("/action/save").handler(this::pageUpdateHandler);
 		router.post("/action/create").handler(this::pageCreateHandler);
 		router.post("/action/delete").handler(this::pageDeletionHandler);
 		router.get("/action/backup").handler(this::backupHandler);
+		router.get("/action/backups/:id").handler(this::backupStatusHandler);
 
 		
 		// API Gateway
 		Router apiRouter = Router.router(vertx);
 		
 
-		this.jwtAuth = JWTAuth.create(vertx, 
-			new JWTAuthOptions().setKeyStore(
-				new KeyStoreOptions()
-				.setPath("keystore.jceks")
-				.setPassword("secret")));
+		// Per user and per IP rate limits, e.g. {"api.read": {"rate": 50, "burst": 100}}
+		JsonObject rateLimits = config().getJsonObject(CONFIG_RATE_LIMITS, new JsonObject());
+		RateLimiter readLimiter = RateLimiter.create(vertx.getDelegate(), "api.read", rateLimits, 50, 100);
+		RateLimiter writeLimiter = RateLimiter.create(vertx.getDelegate(), "api.write", rateLimits, 10, 20);
+		apiRouter.get("/token").handler(RateLimiter.create(vertx.getDelegate(), "api.token", rateLimits, 1, 10));
+		// Per IP before the token check, a flood of bad tokens must not cost a signature check each
+		apiRouter.get("/pages*").handler(readLimiter.perIp());
+		apiRouter.post("/pages*").handler(writeLimiter.perIp());
+		apiRouter.put("/pages*").handler(writeLimiter.perIp());
+		apiRouter.delete("/pages*").handler(writeLimiter.perIp());
 
 		apiRouter.route().handler(JWTAuthHandler.create(jwtAuth, "/api/token"));
-		
+
+		apiRouter.get("/pages*").handler(readLimiter.perUser());
+		apiRouter.post("/pages*").handler(writeLimiter.perUser());
+		apiRouter.put("/pages*").handler(writeLimiter.perUser());
+		apiRouter.delete("/pages*").handler(writeLimiter.perUser());
+
+		apiRouter.route("/pages*").handler(admissionController);
 		apiRouter.get("/pages").handler(this::apiRoot);
+		apiRouter.get("/pages/top").handler(this::apiTopViewedPages);
 		apiRouter.get("/pages/:id").handler(this::apiGetPage);
-		apiRouter.post().handler(BodyHandler.create());
+		apiRouter.get("/pages/:id/content").handler(this::apiGetPageContent);
+		apiRouter.get("/pages/:id/revisions").handler(this::apiGetPageRevisions);
+		apiRouter.get("/pages/:id/revisions/:revision").handler(this::apiGetPageRevision);
 		apiRouter.post("/pages").handler(this::apiCreatePage);
-		apiRouter.put().handler(BodyHandler.create());
 		apiRouter.put("/pages/:id").handler(this::apiUpdatePage);
+		apiRouter.put("/pages/:id/content").handler(this::apiPutPageContent);
 		apiRouter.delete("/pages/:id").handler(this::apiDeletePage);
 		apiRouter.get("/token").handler(this::jwtTokenGeneratorHandler);
+		apiRouter.get("/metrics").handler(this::apiMetrics);
+		// Server-Sent Events of the page changes, instead of polling the pages
+		apiRouter.get("/events").handler(pageEvents);
+		apiRouter.get("/admin/queries").handler(this::apiQueryStats);
+		apiRouter.get("/export").handler(this::apiExport);
+		apiRouter.post("/import").handler(this::apiImport);
+		apiRouter.post("/restore").handler(this::apiRestore);
+		apiRouter.get("/backups").handler(this::apiBackupJobs);
+		apiRouter.get("/backups/:id").handler(this::backupStatusHandler);
+		apiRouter.post("/backups").handler(this::apiStartBackup);
 		
 		router.mountSubRouter("/api", apiRouter);
 
@@ -147,6 +352,13 @@ public class HttpServerVerticle extends AbstractVerticle {
 			}
 		});
 	}
+
+	private void readinessHandler(RoutingContext context) {
+		JsonObject status = StartupStatus.get(vertx.getDelegate());
+		context.response().setStatusCode(status.getBoolean("ready") ? 200 : 503);
+		context.response().putHeader("Content-Type", "application/json");
+		context.response().getDelegate().end(JsonWriter.encode(status));
+	}
 	
 	// 2 authentications for benchmarking between Rx and callback. Rx is generally faster
 	private void jwtTokenGeneratorHandler(RoutingContext context) {
@@ -168,7 +380,9 @@ public class HttpServerVerticle extends AbstractVerticle {
 			});
 		}).subscribe(token -> {
 			context.response().putHeader("Content-Type", "text/plain");//.end(token);
-			LOGGER.debug("rx took:" + (System.currentTimeMillis() - start) + "ms");
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("rx took:" + (System.currentTimeMillis() - start) + "ms");
+			}
 		}, t -> context.fail(401));
 		
 		
@@ -190,7 +404,9 @@ public class HttpServerVerticle extends AbstractVerticle {
 											.put("canUpdate", canUpdate.succeeded() && canUpdate.result()),
 									new JWTOptions().setSubject("Wiki API").setIssuer("Vert.x"));
 							context.response().putHeader("Content-Type", "text/plain");//.end(token);
-							LOGGER.debug("callback took:" + (System.currentTimeMillis() - start2) + "ms");
+							if (LOGGER.isDebugEnabled()) {
+								LOGGER.debug("callback took:" + (System.currentTimeMillis() - start2) + "ms");
+							}
 							context.response().end(token);
 						});
 					});
@@ -203,35 +419,19 @@ public class HttpServerVerticle extends AbstractVerticle {
 	
 	private void loginHandler(RoutingContext context) {
 		context.put("title", "Login");
-		templateEngine.render(context, "templates", "/login.ftl", ar -> {
-			if (ar.succeeded()) {
-				context.response().putHeader("Content-Type", "text/html");
-				context.response().end(ar.result());
-			} else {
-				context.fail(ar.cause());
-			}
-		});
+		templateEngine.render(context, "/login.ftl");
 	}
 
-	private final FreeMarkerTemplateEngine templateEngine = FreeMarkerTemplateEngine.create();
-
 	private void indexHandler(RoutingContext context) {
 		context.user().isAuthorised("create", res -> {
 			boolean canCreatePage = res.succeeded() && res.result();
-			dbService.fetchAllPages(reply -> {
+			pageList(context, reply -> {
 				if (reply.succeeded()) {
 					context.put("title", "Wiki home");
-					context.put("pages", reply.result().getList());
+					context.put("pageList", reply.result());
 					context.put("canCreatePage", canCreatePage); // to be used in the index.ftl template
 					context.put("username", context.user().principal().getString("username"));
-					templateEngine.render(context, "templates", "/index.ftl", ar -> {
-						if (ar.succeeded()) {
-							context.response().putHeader("Content-Type", "text/html");
-							context.response().end(ar.result());
-						} else {
-							context.fail(ar.cause());
-						}
-					});
+					templateEngine.render(context, "/index.ftl");
 				} else {
 					context.fail(reply.cause());
 				}
@@ -239,6 +439,32 @@ public class HttpServerVerticle extends AbstractVerticle {
 		});
 	}
 
+	/**
+	 * HTML of the list of pages, the same for every user. Only rendered
+	 * again after pages have been created or deleted.
+	 */
+	private void pageList(RoutingContext context, Handler<AsyncResult<String>> resultHandler) {
+		String cached = pageListCache.get();
+		if (cached != null) {
+			resultHandler.handle(Future.succeededFuture(cached));
+			return;
+		}
+		long generation = pageListCache.generation();
+		dbService(context).fetchAllPages(reply -> {
+			if (reply.failed()) {
+				resultHandler.handle(Future.failedFuture(reply.cause()));
+				return;
+			}
+			templateEngine.renderToString("/page-list.ftl",
+					Collections.singletonMap("pages", reply.result().getList()), rendered -> {
+						if (rendered.succeeded()) {
+							pageListCache.put(generation, rendered.result());
+						}
+						resultHandler.handle(rendered);
+					});
+		});
+	}
+
 	private void pageRenderingHandler(RoutingContext context) {
 		context.user().isAuthorized("update", updateResponse -> {
 			boolean canSavePage = updateResponse.succeeded() && updateResponse.result();
@@ -246,29 +472,39 @@ public class HttpServerVerticle extends AbstractVerticle {
 				boolean canDeletePage = deleteResponse.succeeded() && deleteResponse.result();
 
 				String requestedPage = context.request().getParam("page");
-				dbService.fetchPage(requestedPage, reply -> {
+				dbService(context).fetchPage(requestedPage, reply -> {
 					if (reply.succeeded()) {
 
 						JsonObject payLoad = reply.result();
+						if (payLoad.getBoolean("tooLarge", false)) {
+							// Too big to be rendered, send the raw markdown as it is read
+							streamPageContent(context, payLoad.getInteger("id"), "text/plain; charset=utf-8");
+							return;
+						}
 						boolean found = payLoad.getBoolean("found");
+						if (found) {
+							pageViews.viewed(payLoad.getInteger("id"));
+						}
 						String rawContent = payLoad.getString("rawContent", EMPTY_PAGE_MARKDOWN);
-						context.put("title", requestedPage);
-						context.put("id", payLoad.getInteger("id", -1));
-						context.put("newPage", found ? "no" : "yes");
-						context.put("rawContent", rawContent);
-						context.put("content", Processor.process(rawContent));
-						context.put("timestamp", new Date().toString());
-						context.put("username", context.user().principal().getString("username"));
-						context.put("canSavePage", canSavePage);
-						context.put("canDeletePage", canDeletePage);
-
-						templateEngine.render(context, "templates", "/page.ftl", ar -> {
-							if (ar.succeeded()) {
-								context.response().putHeader("Content-Type", "text/html");
-								context.response().end(ar.result());
-							} else {
-								context.fail(ar.cause());
+						Trace trace = RequestTracer.trace(context);
+						trace.begin("markdown");
+						markdownRenderer.render(rawContent, rendered -> {
+							trace.end("markdown");
+							if (rendered.failed()) {
+								failRendering(context, rendered.cause());
+								return;
 							}
+							context.put("title", requestedPage);
+							context.put("id", payLoad.getInteger("id", -1));
+							context.put("newPage", found ? "no" : "yes");
+							context.put("rawContent", rawContent);
+							context.put("content", rendered.result());
+							context.put("timestamp", new Date().toString());
+							context.put("username", context.user().principal().getString("username"));
+							context.put("canSavePage", canSavePage);
+							context.put("canDeletePage", canDeletePage);
+
+							templateEngine.render(context, "/page.ftl");
 						});
 
 					} else {
@@ -297,7 +533,7 @@ public class HttpServerVerticle extends AbstractVerticle {
 		if ("yes".equals(context.request().getParam("newPage"))) {
 			context.user().isAuthorised("create", res -> {
 				if (res.succeeded() && res.result()) {
-					dbService.createPage(title, markdown, handler);
+					dbService(context).createPage(title, markdown, handler);
 				} else {
 					context.response().setStatusCode(403).end();
 				}
@@ -305,7 +541,7 @@ public class HttpServerVerticle extends AbstractVerticle {
 		} else {
 			context.user().isAuthorised("update", res -> {
 				if (res.succeeded() && res.result()) {
-					dbService.savePage(Integer.valueOf(context.request().getParam("id")), markdown, handler);
+					dbService(context).savePage(Integer.valueOf(context.request().getParam("id")), markdown, handler);
 				} else {
 					context.response().setStatusCode(403).end();
 				} 
@@ -329,7 +565,7 @@ public class HttpServerVerticle extends AbstractVerticle {
 			if (res.succeeded() && res.result()) {
 
 				// Original code:
-				dbService.deletePage(Integer.valueOf(context.request().getParam("id")), reply -> {
+				dbService(context).deletePage(Integer.valueOf(context.request().getParam("id")), reply -> {
 					if (reply.succeeded()) {
 						context.response().setStatusCode(303);
 						context.response().putHeader("Location", "/");
@@ -346,74 +582,65 @@ public class HttpServerVerticle extends AbstractVerticle {
 	}
 
 	private void backupHandler(RoutingContext context) {
-		WebClient webClient = WebClient.create(vertx,
-				new WebClientOptions().setSsl(true).setUserAgent("joshuahendinata"));
-
-		dbService.fetchAllPagesData(reply -> {
-			if (reply.succeeded()) {
-
-				JsonObject filesObject = new JsonObject();
-				JsonObject gistPayload = new JsonObject().put("files", filesObject).put("description", "A wiki backup")
-						.put("public", true);
-
-				reply.result().forEach(page -> {
-					JsonObject fileObject = new JsonObject();
-					filesObject.put(page.getString("NAME"), fileObject);
-					fileObject.put("content", page.getString("CONTENT"));
-				});
+		JsonObject job = startBackup(context.request().getParam("target"));
+		if (job == null) {
+			context.fail(400);
+			return;
+		}
+		context.put("backup_job", job.getLong("id"));
+		indexHandler(context);
+	}
 
-				webClient.post(443, "api.github.com", "/gists").putHeader("Accept", "application/vnd.github.v3+json")
-					.putHeader("Content-Type", "application/json").as(BodyCodec.jsonObject())
-					.sendJsonObject(gistPayload, ar -> { // This code will call all the way down until netty server implementation
-						if (ar.succeeded()) {
-							HttpResponse<JsonObject> response = ar.result();
-							if (response.statusCode() == 201) {
-								context.put("backup_gist_url", response.body().getString("html_url"));
-								indexHandler(context);
-							} else {
-								StringBuilder message = new StringBuilder().append("Could not backup the wiki: ")
-										.append(response.statusMessage());
-								JsonObject body = response.body();
-								if (body != null) {
-									message.append(System.getProperty("line.separator"))
-											.append(body.encodePrettily());
-								}
-								LOGGER.error(message.toString());
-								context.fail(502);
-							}
-						} else {
-							Throwable err = ar.cause();
-							LOGGER.error("HTTP Client error", err);
-							context.fail(err);
-						}
-					});
+	private void backupStatusHandler(RoutingContext context) {
+		JsonObject job = backupJobs.status(Long.valueOf(context.request().getParam("id")));
+		if (job == null) {
+			context.fail(404);
+			return;
+		}
+		context.response().putHeader("Content-Type", "application/json");
+		context.response().getDelegate().end(JsonWriter.encode(job));
+	}
 
-			} else {
-				context.fail(reply.cause());
-			}
-		});
+	/**
+	 * @return the status of the new backup job, null for an unknown target
+	 */
+	private JsonObject startBackup(String target) {
+		if (target == null) {
+			target = config().getString(CONFIG_BACKUP_TARGET, "local");
+		}
+		switch (target) {
+		case "local":
+			return backupJobs.start(target, localBackup);
+		case "gist":
+			return backupJobs.start(target, gistBackup);
+		default:
+			return null;
+		}
 	}
 
 	private void apiRoot(RoutingContext context) {
-		dbService.fetchAllPagesData(reply -> {
+		dbService(context).fetchAllPagesData(reply -> {
 			JsonObject response = new JsonObject();
 			if (reply.succeeded()) {
-				List<JsonObject> pages = reply.result()
-					.stream() // stream the result
-					.map(obj -> new JsonObject() // similar to "For each", transform the result to JSON object
-							.put("id", obj.getInteger("ID"))
-							.put("name", obj.getString("NAME")))
-					.collect(Collectors.toList()); // Combine it into List
-				response.put("success", true)
-						.put("pages", pages);
+				// Written as they are read, no JsonObject per page
+				JsonWriter json = JsonWriter.create(32 + 48 * reply.result().size())
+						.beginObject()
+						.put("success", true)
+						.beginArray("pages");
+				for (JsonObject page : reply.result()) {
+					json.beginObject()
+							.put("id", page.getInteger("ID"))
+							.put("name", page.getString("NAME"))
+							.endObject();
+				}
 				context.response().setStatusCode(200);
 				context.response().putHeader("Content-Type", "application/json");
-				context.response().end(response.encode());
+				context.response().getDelegate().end(json.endArray().endObject().end());
 			} else {
 				response.put("success", false).put("error", reply.cause().getMessage());
 				context.response().setStatusCode(500);
 				context.response().putHeader("Content-Type", "application/json");
-				context.response().end(response.encode());
+				context.response().getDelegate().end(JsonWriter.encode(response));
 			}
 		});
 	}
@@ -421,29 +648,222 @@ public class HttpServerVerticle extends AbstractVerticle {
 	private void apiGetPage(RoutingContext context) {
 		int id = Integer.valueOf(context.request().getParam("id"));
 		
-		dbService.fetchPageById(id, reply -> {
+		dbService(context).fetchPageById(id, reply -> {
+			JsonObject response = new JsonObject();
+			if (reply.succeeded()) {
+				JsonObject dbObject = reply.result();
+				if (dbObject.getBoolean("tooLarge", false)) {
+					context.response().setStatusCode(413);
+					response.put("success", false).put("error",
+							"Page " + id + " is too large, fetch its markdown from /api/pages/" + id + "/content");
+				} else if (dbObject.getBoolean("found")) {
+					pageViews.viewed(id);
+					Trace trace = RequestTracer.trace(context);
+					trace.begin("markdown");
+					markdownRenderer.render(dbObject.getString("content"), rendered -> {
+						trace.end("markdown");
+						if (rendered.failed()) {
+							failRendering(context, rendered.cause());
+							return;
+						}
+						String markdown = dbObject.getString("content");
+						Buffer payload = JsonWriter.create(128 + markdown.length() + rendered.result().length())
+								.beginObject()
+								.put("success", true)
+								.beginObject("page")
+								.put("name", dbObject.getString("name"))
+								.put("id", dbObject.getInteger("id"))
+								.put("markdown", markdown)
+								.put("html", rendered.result())
+								.endObject()
+								.endObject()
+								.end();
+						context.response().setStatusCode(200);
+						context.response().putHeader("Content-Type", "application/json");
+						context.response().getDelegate().end(payload);
+					});
+					return;
+				} else {
+					context.response().setStatusCode(404);
+					response.put("success", false).put("error", "There is no page with ID " + id);
+				}
+			} else {
+				response.put("success", false).put("error", reply.cause().getMessage());
+				context.response().setStatusCode(500);
+			}
+			context.response().putHeader("Content-Type", "application/json");
+			context.response().getDelegate().end(JsonWriter.encode(response));
+		});
+	}
+
+	/**
+	 * The most viewed pages, {@code ?limit=} of them (10 by default). Views
+	 * not flushed to the database yet are added to the pages listed, a page
+	 * only viewed since the last flush is listed from the next one.
+	 */
+	private void apiTopViewedPages(RoutingContext context) {
+		String limitParam = context.request().getParam("limit");
+		int limit;
+		try {
+			limit = limitParam == null ? 10 : Math.max(1, Math.min(100, Integer.parseInt(limitParam)));
+		} catch (NumberFormatException e) {
+			context.response().setStatusCode(400);
+			context.response().putHeader("Content-Type", "application/json");
+			context.response().getDelegate().end(JsonWriter.encode(new JsonObject()
+					.put("success", false)
+					.put("error", "Bad limit: " + limitParam)));
+			return;
+		}
+		dbService(context).fetchTopViewedPages(limit, reply -> {
+			context.response().putHeader("Content-Type", "application/json");
+			if (reply.failed()) {
+				context.response().setStatusCode(500);
+				context.response().getDelegate().end(JsonWriter.create(64).beginObject()
+						.put("success", false)
+						.put("error", reply.cause().getMessage())
+						.endObject().end());
+				return;
+			}
+			context.response().getDelegate().end(JsonWriter.create(32 + 64 * limit).beginObject()
+					.put("success", true)
+					.put("pages", pageViews.withPending(reply.result()))
+					.endObject().end());
+		});
+	}
+
+	private void apiGetPageContent(RoutingContext context) {
+		int id = Integer.valueOf(context.request().getParam("id"));
+		streamPageContent(context, id, "text/markdown; charset=utf-8");
+	}
+
+	private void apiGetPageRevisions(RoutingContext context) {
+		int id = Integer.valueOf(context.request().getParam("id"));
+		dbService(context).fetchPageRevisions(id, reply -> {
+			JsonObject response = new JsonObject();
+			if (reply.succeeded()) {
+				response.put("success", true).put("revisions", reply.result());
+				context.response().setStatusCode(200);
+			} else {
+				response.put("success", false).put("error", reply.cause().getMessage());
+				context.response().setStatusCode(500);
+			}
+			context.response().putHeader("Content-Type", "application/json");
+			context.response().getDelegate().end(JsonWriter.encode(response));
+		});
+	}
+
+	private void apiGetPageRevision(RoutingContext context) {
+		int id = Integer.valueOf(context.request().getParam("id"));
+		int revision = Integer.valueOf(context.request().getParam("revision"));
+		dbService(context).fetchPageRevision(id, revision, reply -> {
 			JsonObject response = new JsonObject();
 			if (reply.succeeded()) {
 				JsonObject dbObject = reply.result();
 				if (dbObject.getBoolean("found")) {
-					JsonObject payload = new JsonObject()
-							.put("name", dbObject.getString("name"))
-							.put("id", dbObject.getInteger("id")).put("markdown", dbObject.getString("content"))
-							.put("html", Processor.process(dbObject.getString("content")));
-					response.put("success", true)
-							.put("page", payload);
+					response.put("success", true).put("page", new JsonObject()
+							.put("id", id)
+							.put("revision", revision)
+							.put("markdown", dbObject.getString("content")));
 					context.response().setStatusCode(200);
 				} else {
+					response.put("success", false).put("error", "There is no revision " + revision + " of page " + id);
 					context.response().setStatusCode(404);
-					response.put("success", false).put("error", "There is no page with ID " + id);
 				}
 			} else {
 				response.put("success", false).put("error", reply.cause().getMessage());
 				context.response().setStatusCode(500);
 			}
 			context.response().putHeader("Content-Type", "application/json");
-			context.response().end(response.encode());
+			context.response().getDelegate().end(JsonWriter.encode(response));
+		});
+	}
+
+	private void streamPageContent(RoutingContext context, int id, String contentType) {
+		HttpServerResponse response = context.response().getDelegate();
+		PageContentStream content = new PageContentStream(dbService(context), id, contentChunkSize);
+		content.notFoundHandler(v -> {
+			response.setStatusCode(404);
+			response.putHeader("Content-Type", "application/json");
+			response.end(JsonWriter.encode(new JsonObject()
+					.put("success", false)
+					.put("error", "There is no page with ID " + id)));
+		});
+		content.exceptionHandler(err -> {
+			LOGGER.error("Could not stream the content of page " + id, err);
+			if (response.headWritten()) {
+				response.close();
+			} else {
+				context.fail(err);
+			}
 		});
+		content.endHandler(v -> response.end());
+
+		response.setChunked(true);
+		response.putHeader("Content-Type", contentType);
+		Pump.pump(content, response).start();
+	}
+
+	private void failRendering(RoutingContext context, Throwable cause) {
+		if (cause instanceof RejectedExecutionException) {
+			LOGGER.warn(cause.getMessage());
+			context.fail(503); // too many big pages waiting to be rendered, shed the load
+		} else {
+			context.fail(cause);
+		}
+	}
+
+	private void apiMetrics(RoutingContext context) {
+		context.response().setStatusCode(200);
+		context.response().putHeader("Content-Type", "application/json");
+		context.response().getDelegate().end(JsonWriter.encode(new JsonObject()
+				.put("success", true)
+				.put("rendering", markdownRenderer.stats())
+				.put("templates", templateEngine.stats())
+				.put("admission", admissionController.stats())
+				.put("jwtCache", jwtCache.stats())
+				.put("pageListCache", pageListCache.stats())
+				.put("tracing", requestTracer.stats())
+				.put("pageEvents", pageEvents.stats())
+				.put("pageViews", pageViews.stats())
+				.put("blockingPools", BlockingPoolMetrics.stats(vertx.getDelegate()))));
+	}
+
+	/**
+	 * Per query latency statistics and plans of the slow queries, they tell
+	 * about the content of the wiki so they are for admins only.
+	 */
+	private void apiQueryStats(RoutingContext context) {
+		if (!isAdmin(context)) {
+			context.fail(401);
+			return;
+		}
+		context.response().putHeader("Content-Type", "application/json");
+		context.response().getDelegate().end(JsonWriter.encode(QueryLog.stats(vertx.getDelegate()).put("success", true)));
+	}
+
+	/**
+	 * @return whether the user may create, update and delete pages
+	 */
+	private boolean isAdmin(RoutingContext context) {
+		JsonObject principal = context.user().principal();
+		return principal.getBoolean("canCreate", false) && principal.getBoolean("canUpdate", false)
+				&& principal.getBoolean("canDelete", false);
+	}
+
+	/**
+	 * Database proxy bound to the deadline the admission controller gave to
+	 * this request, so the call doesn't outlive it, and carrying the request
+	 * trace so the database side records its stages.
+	 */
+	private WikiDatabaseService dbService(RoutingContext context) {
+		Long deadline = context.get(AdmissionController.DEADLINE_KEY);
+		Trace trace = RequestTracer.trace(context);
+		if (deadline == null && trace == Trace.NONE) {
+			return dbService;
+		}
+		DeliveryOptions options = deadline == null ? new DeliveryOptions() : DeadlineHandler.options(deadline);
+		return WikiDatabaseService.createShardedProxy(vertx.getDelegate(), wikiDbQueue, wikiDbShards,
+				trace.propagate(vertx.getDelegate(), options));
 	}
 	
 	private void apiCreatePage(RoutingContext context) {
@@ -451,31 +871,31 @@ public class HttpServerVerticle extends AbstractVerticle {
 		if (!validateJsonPageDocument(context, page, "name", "markdown")) {
 			context.response().setStatusCode(400);
 			context.response().putHeader("Content-Type", "application/json");
-			context.response().end(new JsonObject()
+			context.response().getDelegate().end(JsonWriter.encode(new JsonObject()
 					.put("success", false)
-					.put("error", "Bad request payload")
-					.encode());
+					.put("error", "Bad request payload")));
 			return;
 		}
 		
-		dbService.createPage(page.getString("name"), page.getString("markdown"), reply -> {
+		dbService(context).createPage(page.getString("name"), page.getString("markdown"), reply -> {
 			if (reply.succeeded()) {
 				context.response().setStatusCode(201);
 				context.response().putHeader("Content-Type", "application/json");
-				context.response().end(new JsonObject().put("success", true).encode());
+				context.response().getDelegate().end(JsonWriter.encode(new JsonObject().put("success", true)));
 			} else {
 				context.response().setStatusCode(500);
 				context.response().putHeader("Content-Type", "application/json");
-				context.response()
-						.end(new JsonObject().put("success", false).put("error", reply.cause().getMessage()).encode());
+				context.response().getDelegate()
+						.end(JsonWriter.encode(new JsonObject().put("success", false).put("error", reply.cause().getMessage())));
 			}
 		});
 	}
 	
 	private boolean validateJsonPageDocument(RoutingContext context, JsonObject page, String... expectedKeys) {
 		if (!Arrays.stream(expectedKeys).allMatch(page::containsKey)) { // check if the provided page has all the expected keys
-			LOGGER.error("Bad page creation JSON payload: " + page.encodePrettily() + " from "
-					+ context.request().remoteAddress());
+			// Only the field names, the payload can be as large as the body limit
+			LOGGER.error("Bad page creation JSON payload with fields {} from {}", page.fieldNames(),
+					context.request().remoteAddress());
 			return false;
 		}
 		return true;
@@ -487,38 +907,106 @@ public class HttpServerVerticle extends AbstractVerticle {
 		if (!validateJsonPageDocument(context, page, "markdown")) {
 			context.response().setStatusCode(400);
 			context.response().putHeader("Content-Type", "application/json");
-			context.response().end(new JsonObject()
+			context.response().getDelegate().end(JsonWriter.encode(new JsonObject()
 					.put("success", false)
-					.put("error", "Bad request payload")
-					.encode());
+					.put("error", "Bad request payload")));
 			return;
 		}
-		dbService.savePage(id, page.getString("markdown"), reply -> {
+		dbService(context).savePage(id, page.getString("markdown"), reply -> {
 			handleSimpleDbReply(context, reply);
 		});
 	}
 	
+	private void apiPutPageContent(RoutingContext context) {
+		int id = Integer.valueOf(context.request().getParam("id"));
+		bodyLimitHandler.readText(context, markdown -> {
+			dbService(context).savePage(id, markdown, reply -> {
+				handleSimpleDbReply(context, reply);
+			});
+		});
+	}
+
+	private void apiExport(RoutingContext context) {
+		try {
+			new NdjsonExport(vertx.getDelegate(), dbService, context.response().getDelegate(),
+					config().getInteger(CONFIG_EXPORT_BATCH_SIZE, 100),
+					"true".equals(context.request().getParam("gzip"))).start();
+		} catch (IOException e) {
+			context.fail(e);
+		}
+	}
+
+	private void apiImport(RoutingContext context) {
+		JsonObject principal = context.user().principal();
+		if (principal.getBoolean("canCreate", false) && principal.getBoolean("canUpdate", false)) {
+			new NdjsonImport(dbService, context, bodyLimitHandler, config().getInteger(CONFIG_IMPORT_BATCH_SIZE, 500))
+					.start();
+		} else {
+			context.fail(401);
+		}
+	}
+
+	private void apiBackupJobs(RoutingContext context) {
+		context.response().putHeader("Content-Type", "application/json");
+		context.response().getDelegate().end(JsonWriter.encode(new JsonObject().put("success", true).put("jobs", backupJobs.list())));
+	}
+
+	private void apiStartBackup(RoutingContext context) {
+		if (!context.user().principal().getBoolean("canCreate", false)) {
+			context.fail(401);
+			return;
+		}
+		JsonObject job = startBackup(context.request().getParam("target"));
+		context.response().putHeader("Content-Type", "application/json");
+		if (job == null) {
+			context.response().setStatusCode(400);
+			context.response().getDelegate().end(JsonWriter.encode(new JsonObject().put("success", false).put("error", "Unknown backup target")));
+			return;
+		}
+		context.response().setStatusCode(202);
+		context.response().putHeader("Location", "/api/backups/" + job.getLong("id"));
+		context.response().getDelegate().end(JsonWriter.encode(job.put("success", true)));
+	}
+
+	private void apiRestore(RoutingContext context) {
+		if (!isAdmin(context)) {
+			context.fail(401);
+			return;
+		}
+		localBackup.restore(ar -> {
+			context.response().putHeader("Content-Type", "application/json");
+			if (ar.succeeded()) {
+				context.response().getDelegate().end(JsonWriter.encode(ar.result().put("success", true)));
+			} else {
+				context.response().setStatusCode(ar.cause() instanceof IllegalStateException ? 409 : 500);
+				context.response().getDelegate().end(JsonWriter.encode(new JsonObject()
+						.put("success", false)
+						.put("error", ar.cause().getMessage())));
+			}
+		});
+	}
+
 	private void handleSimpleDbReply(RoutingContext context, AsyncResult<Void> reply) {
 		if (reply.succeeded()) {
 			context.response().setStatusCode(200);
 			context.response().putHeader("Content-Type", "application/json");
-			context.response().end(new JsonObject()
+			context.response().getDelegate().end(JsonWriter.create(16).beginObject()
 					.put("success", true)
-					.encode());
+					.endObject().end());
 		} else {
 			context.response().setStatusCode(500);
 			context.response().putHeader("Content-Type", "application/json");
-			context.response().end(new JsonObject()
-									.put("success", false)
-									.put("error", reply.cause().getMessage())
-									.encode());
+			context.response().getDelegate().end(JsonWriter.create(64).beginObject()
+					.put("success", false)
+					.put("error", reply.cause().getMessage())
+					.endObject().end());
 		}
 	}
 	
 	private void apiDeletePage(RoutingContext context) {
 		if (context.user().principal().getBoolean("canDelete", false)) {
 			int id = Integer.valueOf(context.request().getParam("id"));
-			dbService.deletePage(id, reply -> {
+			dbService(context).deletePage(id, reply -> {
 				handleSimpleDbReply(context, reply);
 			});
 		} else {
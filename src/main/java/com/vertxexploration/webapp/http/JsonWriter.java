@@ -0,0 +1,212 @@
+package com.vertxexploration.webapp.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+
+/**
+ * Writes a JSON document straight into the {@link Buffer} sent as the
+ * response, instead of building a JsonObject tree, encoding it to a String
+ * and copying that String into a Buffer. The Jackson generator encodes into
+ * its own buffer, recycled per thread, and flushes into the response Buffer,
+ * which is allocated once with the expected size of the document.
+ * <pre>
+ * Buffer body = JsonWriter.create(64)
+ *     .beginObject()
+ *     .put("success", true)
+ *     .beginArray("pages")
+ *     ...
+ *     .endArray()
+ *     .endObject()
+ *     .end();
+ * </pre>
+ * Values which aren't strings, numbers or booleans (JsonObject, JsonArray,
+ * lists...) are written with the Vert.x Json mapper, as encode() would.
+ * <p>
+ * Vert.x 3.5 Buffers wrap their Netty buffer as unreleasable, so a pooled
+ * Netty buffer would never go back to its pool once sent: the response
+ * Buffer is a plain heap one.
+ */
+public class JsonWriter {
+
+	private final Buffer buffer;
+	private final JsonGenerator generator;
+
+	private JsonWriter(int sizeHint) {
+		this.buffer = Buffer.buffer(sizeHint);
+		try {
+			// Same factory, so the same output, as JsonObject.encode()
+			this.generator = Json.mapper.getFactory().createGenerator(new BufferOutputStream(buffer), JsonEncoding.UTF8);
+			// Documents written one after the other are separated by line(value) only
+			generator.setRootValueSeparator(null);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @param sizeHint expected bytes of the document, the buffer grows past it
+	 */
+	public static JsonWriter create(int sizeHint) {
+		return new JsonWriter(sizeHint);
+	}
+
+	/**
+	 * Encode a JsonObject, JsonArray or any value the Json mapper knows to a
+	 * Buffer, without the intermediate String of encode().
+	 */
+	public static Buffer encode(Object value) {
+		return create(256).value(value).end();
+	}
+
+	public JsonWriter beginObject() {
+		try {
+			generator.writeStartObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return this;
+	}
+
+	public JsonWriter beginObject(String name) {
+		try {
+			generator.writeObjectFieldStart(name);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return this;
+	}
+
+	public JsonWriter endObject() {
+		try {
+			generator.writeEndObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return this;
+	}
+
+	public JsonWriter beginArray(String name) {
+		try {
+			generator.writeArrayFieldStart(name);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return this;
+	}
+
+	public JsonWriter endArray() {
+		try {
+			generator.writeEndArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return this;
+	}
+
+	public JsonWriter put(String name, String value) {
+		try {
+			generator.writeStringField(name, value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return this;
+	}
+
+	public JsonWriter put(String name, int value) {
+		try {
+			generator.writeNumberField(name, value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return this;
+	}
+
+	public JsonWriter put(String name, long value) {
+		try {
+			generator.writeNumberField(name, value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return this;
+	}
+
+	public JsonWriter put(String name, boolean value) {
+		try {
+			generator.writeBooleanField(name, value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return this;
+	}
+
+	public JsonWriter put(String name, Object value) {
+		try {
+			generator.writeFieldName(name);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return value(value);
+	}
+
+	/**
+	 * Write a value in an array, or the whole document.
+	 */
+	public JsonWriter value(Object value) {
+		try {
+			generator.writeObject(value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return this;
+	}
+
+	/**
+	 * Write a whole document followed by a new line, as an NDJSON line.
+	 */
+	public JsonWriter line(Object value) {
+		value(value);
+		try {
+			generator.writeRaw('\n');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return this;
+	}
+
+	/**
+	 * @return the document, once every object and array is ended
+	 */
+	public Buffer end() {
+		try {
+			generator.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return buffer;
+	}
+
+	private static class BufferOutputStream extends OutputStream {
+		private final Buffer buffer;
+
+		private BufferOutputStream(Buffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void write(int b) {
+			buffer.appendByte((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			buffer.appendBytes(b, off, len);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package com.vertxexploration.webapp.http;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.rjeschke.txtmark.Processor;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * Renders markdown to HTML. Small pages are rendered inline on the event
+ * loop, bigger ones on a dedicated bounded worker pool so that a huge page
+ * doesn't stall every other request handled by the same event loop.
+ * <p>
+ * With a block cache, pages are rendered block by block and the blocks
+ * unchanged since a previous render are not rendered again, see
+ * {@link BlockRenderCache}.
+ */
+public class MarkdownRenderer {
+
+	public static final String WORKER_POOL_NAME = "markdown-renderer";
+
+	// Upper bounds (in chars) of the size buckets used for the render time stats
+	private static final int[] BUCKET_LIMITS = { 4 * 1024, 64 * 1024, 512 * 1024, Integer.MAX_VALUE };
+	private static final String[] BUCKET_NAMES = { "<4K", "4K-64K", "64K-512K", ">=512K" };
+
+	private final WorkerExecutor executor;
+	private final int inlineThreshold;
+	private final int maxQueue;
+	private final RenderStats stats;
+	private final BlockRenderCache blockCache;
+
+	/**
+	 * @param blockCacheChars size of the block cache (markdown and HTML chars),
+	 *                        0 to render pages whole
+	 */
+	public MarkdownRenderer(Vertx vertx, int poolSize, int inlineThreshold, int maxQueue, long blockCacheChars) {
+		this.executor = vertx.createSharedWorkerExecutor(WORKER_POOL_NAME, poolSize);
+		this.inlineThreshold = inlineThreshold;
+		this.maxQueue = maxQueue;
+		this.blockCache = blockCacheChars > 0 ? new BlockRenderCache(vertx, blockCacheChars) : null;
+
+		// Every HTTP verticle instance shares the same pool, so they share the stats too
+		LocalMap<String, RenderStats> map = vertx.sharedData().getLocalMap(WORKER_POOL_NAME);
+		map.putIfAbsent(WORKER_POOL_NAME, new RenderStats());
+		this.stats = map.get(WORKER_POOL_NAME);
+	}
+
+	public void render(String markdown, Handler<AsyncResult<String>> resultHandler) {
+		if (markdown.length() < inlineThreshold) {
+			resultHandler.handle(Future.succeededFuture(process(markdown)));
+			return;
+		}
+
+		if (stats.queueDepth.incrementAndGet() > maxQueue) {
+			stats.queueDepth.decrementAndGet();
+			stats.rejected.increment();
+			resultHandler.handle(Future.failedFuture(new RejectedExecutionException("Markdown rendering queue is full")));
+			return;
+		}
+
+		executor.<String>executeBlocking(future -> {
+			stats.queueDepth.decrementAndGet();
+			future.complete(process(markdown));
+		}, false, resultHandler);
+	}
+
+	public JsonObject stats() {
+		JsonObject buckets = new JsonObject();
+		for (int i = 0; i < BUCKET_NAMES.length; i++) {
+			long count = stats.renderCount[i].sum();
+			long nanos = stats.renderNanos[i].sum();
+			buckets.put(BUCKET_NAMES[i], new JsonObject()
+					.put("count", count)
+					.put("avgMillis", count == 0 ? 0.0 : nanos / 1e6 / count));
+		}
+		return new JsonObject()
+				.put("queueDepth", stats.queueDepth.get())
+				.put("rejected", stats.rejected.sum())
+				.put("inlineThreshold", inlineThreshold)
+				.put("buckets", buckets)
+				.put("blockCache", blockCache == null ? null : blockCache.stats());
+	}
+
+	private String process(String markdown) {
+		long start = System.nanoTime();
+		String html = blockCache == null ? Processor.process(markdown) : blockCache.render(markdown);
+		int bucket = 0;
+		while (markdown.length() >= BUCKET_LIMITS[bucket]) {
+			bucket++;
+		}
+		stats.renderCount[bucket].increment();
+		stats.renderNanos[bucket].add(System.nanoTime() - start);
+		return html;
+	}
+
+	private static class RenderStats implements Shareable {
+		private final AtomicInteger queueDepth = new AtomicInteger();
+		private final LongAdder rejected = new LongAdder();
+		private final LongAdder[] renderCount = newAdders();
+		private final LongAdder[] renderNanos = newAdders();
+
+		private static LongAdder[] newAdders() {
+			LongAdder[] adders = new LongAdder[BUCKET_LIMITS.length];
+			for (int i = 0; i < adders.length; i++) {
+				adders[i] = new LongAdder();
+			}
+			return adders;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package com.vertxexploration.webapp.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+/**
+ * Writes every page to a response as one JSON document per line, reading
+ * them from the database in id-ordered batches. The next batch is only
+ * requested once the response has drained, so a slow client costs at most
+ * one batch of memory whatever the size of the wiki.
+ */
+class NdjsonExport {
+	private static final Logger LOGGER = LoggerFactory.getLogger(NdjsonExport.class);
+
+	private final Vertx vertx;
+	private final WikiDatabaseService dbService;
+	private final HttpServerResponse response;
+	private final int batchSize;
+	private final ByteArrayOutputStream compressed;
+	private final GZIPOutputStream gzip; // null when the output isn't compressed
+	private final long start = System.currentTimeMillis();
+	private long exported;
+	private boolean closed;
+
+	NdjsonExport(Vertx vertx, WikiDatabaseService dbService, HttpServerResponse response, int batchSize,
+			boolean compress) throws IOException {
+		this.vertx = vertx;
+		this.dbService = dbService;
+		this.response = response;
+		this.batchSize = batchSize;
+		this.compressed = compress ? new ByteArrayOutputStream() : null;
+		this.gzip = compress ? new GZIPOutputStream(compressed) : null;
+	}
+
+	void start() {
+		response.setChunked(true);
+		response.putHeader("Content-Type", "application/x-ndjson");
+		if (gzip != null) {
+			response.putHeader("Content-Encoding", "gzip");
+		}
+		response.closeHandler(v -> closed = true);
+		exportAfter(-1);
+	}
+
+	private void exportAfter(int afterId) {
+		dbService.exportPages(afterId, batchSize, fetch -> {
+			if (fetch.failed()) {
+				fail(fetch.cause());
+				return;
+			}
+
+			JsonArray pages = fetch.result();
+			int size = 0;
+			for (int i = 0; i < pages.size(); i++) {
+				size += 64 + pages.getJsonObject(i).getString("markdown", "").length();
+			}
+			JsonWriter json = JsonWriter.create(size);
+			for (int i = 0; i < pages.size(); i++) {
+				json.line(pages.getJsonObject(i));
+			}
+			Buffer lines = json.end();
+			exported += pages.size();
+			boolean last = pages.size() < batchSize;
+			int lastId = pages.isEmpty() ? afterId : pages.getJsonObject(pages.size() - 1).getInteger("id");
+
+			encode(lines, last, encoded -> {
+				if (encoded.failed()) {
+					fail(encoded.cause());
+					return;
+				}
+				if (closed) {
+					return; // client went away
+				}
+				if (encoded.result().length() > 0) { // the compressor may hold everything back
+					response.write(encoded.result());
+				}
+				if (last) {
+					finish();
+				} else if (response.writeQueueFull()) {
+					response.drainHandler(v -> exportAfter(lastId));
+				} else {
+					exportAfter(lastId);
+				}
+			});
+		});
+	}
+
+	private void encode(Buffer lines, boolean last, Handler<AsyncResult<Buffer>> handler) {
+		if (gzip == null) {
+			handler.handle(Future.succeededFuture(lines));
+			return;
+		}
+		// Ordered, the batches must reach the compressor one after the other
+		vertx.<Buffer>executeBlocking(future -> {
+			try {
+				gzip.write(lines.getBytes());
+				if (last) {
+					gzip.finish();
+				}
+				Buffer output = Buffer.buffer(compressed.toByteArray());
+				compressed.reset();
+				future.complete(output);
+			} catch (IOException e) {
+				future.fail(e);
+			}
+		}, true, handler);
+	}
+
+	private void finish() {
+		response.end();
+		long millis = Math.max(1, System.currentTimeMillis() - start);
+		LOGGER.info("Exported " + exported + " pages in " + millis + "ms (" + (exported * 1000 / millis) + " pages/s)");
+	}
+
+	private void fail(Throwable cause) {
+		LOGGER.error("Export failed after " + exported + " pages", cause);
+		if (closed) {
+			return;
+		}
+		if (!response.headWritten()) {
+			response.setChunked(false).setStatusCode(500).putHeader("Content-Type", "application/json")
+					.end(JsonWriter.encode(new JsonObject().put("success", false).put("error", cause.getMessage())));
+		} else {
+			response.close(); // the client must not take a truncated export for a complete one
+		}
+	}
+}
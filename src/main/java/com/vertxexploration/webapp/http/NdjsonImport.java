@@ -0,0 +1,127 @@
+package com.vertxexploration.webapp.http;
+
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.reactivex.ext.web.RoutingContext;
+
+/**
+ * Reads a request body of {@code {"name", "markdown"}} documents, one per
+ * line, and writes them in batches as they are parsed. While a batch is
+ * being written the request is paused, so memory stays at about two
+ * batches whatever the size of the upload.
+ */
+class NdjsonImport {
+	private static final Logger LOGGER = LoggerFactory.getLogger(NdjsonImport.class);
+
+	private final WikiDatabaseService dbService;
+	private final RoutingContext context;
+	private final BodyLimitHandler bodyReader;
+	private final int batchSize;
+	private final long start = System.currentTimeMillis();
+	private JsonArray batch = new JsonArray();
+	private long lineNumber;
+	private long imported;
+	private boolean writing;
+	private boolean ended;
+	private boolean failed;
+
+	NdjsonImport(WikiDatabaseService dbService, RoutingContext context, BodyLimitHandler bodyReader, int batchSize) {
+		this.dbService = dbService;
+		this.context = context;
+		this.bodyReader = bodyReader;
+		this.batchSize = batchSize;
+	}
+
+	void start() {
+		bodyReader.readLines(context, this::line, v -> {
+			ended = true;
+			writeOrFinish();
+		});
+	}
+
+	private void line(Buffer line) {
+		lineNumber++;
+		if (failed || line.length() == 0) {
+			return;
+		}
+
+		JsonObject page;
+		try {
+			page = new JsonObject(line);
+		} catch (DecodeException e) {
+			fail(400, "Line " + lineNumber + " is not a JSON object");
+			return;
+		}
+		if (!(page.getValue("name") instanceof String) || !(page.getValue("markdown") instanceof String)) {
+			fail(400, "Line " + lineNumber + " needs a name and a markdown string");
+			return;
+		}
+
+		batch.add(new JsonObject().put("name", page.getString("name")).put("markdown", page.getString("markdown")));
+		if (batch.size() >= batchSize) {
+			writeOrFinish();
+		}
+	}
+
+	private void writeOrFinish() {
+		if (writing || failed) {
+			return; // picked up when the current batch is written
+		}
+		if (batch.size() < batchSize && !ended) {
+			context.request().resume();
+			return;
+		}
+		if (batch.isEmpty()) {
+			finish();
+			return;
+		}
+
+		JsonArray pages = batch;
+		batch = new JsonArray();
+		writing = true;
+		if (!ended) {
+			context.request().pause(); // pausing an ended request would stall the next one on the connection
+		}
+		dbService.importPages(pages, ar -> {
+			writing = false;
+			if (ar.failed()) {
+				LOGGER.error("Import failed after " + imported + " pages", ar.cause());
+				fail(500, ar.cause().getMessage());
+				return;
+			}
+			imported += ar.result();
+			writeOrFinish();
+		});
+	}
+
+	private void finish() {
+		long millis = Math.max(1, System.currentTimeMillis() - start);
+		long pagesPerSecond = imported * 1000 / millis;
+		LOGGER.info("Imported " + imported + " pages in " + millis + "ms (" + pagesPerSecond + " pages/s)");
+		context.response().putHeader("Content-Type", "application/json");
+		context.response().getDelegate().end(JsonWriter.encode(new JsonObject()
+				.put("success", true)
+				.put("imported", imported)
+				.put("millis", millis)
+				.put("pagesPerSecond", pagesPerSecond)));
+	}
+
+	private void fail(int statusCode, String error) {
+		failed = true;
+		// Pages of the batches already written stay imported, the client can retry from the reported count
+		context.response().setStatusCode(statusCode);
+		context.response().putHeader("Content-Type", "application/json");
+		context.response().putHeader("Connection", "close");
+		context.addBodyEndHandler(v -> context.request().connection().close()); // stop the upload
+		context.response().getDelegate().end(JsonWriter.encode(new JsonObject()
+				.put("success", false)
+				.put("imported", imported)
+				.put("error", error)));
+	}
+}
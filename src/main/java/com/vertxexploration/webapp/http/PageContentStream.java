@@ -0,0 +1,127 @@
+package com.vertxexploration.webapp.http;
+
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * Reads the content of a page chunk by chunk from the database service, so
+ * pages too large for a single event-bus message can be pumped to an HTTP
+ * response. The next chunk is only fetched once the previous one has been
+ * handed over and the stream isn't paused.
+ */
+public class PageContentStream implements ReadStream<Buffer> {
+
+	private final WikiDatabaseService dbService;
+	private final int pageId;
+	private final int chunkSize;
+
+	private Handler<Buffer> handler;
+	private Handler<Void> endHandler;
+	private Handler<Throwable> exceptionHandler;
+	private Handler<Void> notFoundHandler;
+
+	private int offset;
+	private boolean paused;
+	private boolean fetching;
+	private boolean ended;
+	// High surrogate at the end of the previous chunk, sent with the next one so UTF-8 encoding stays valid
+	private String carry = "";
+
+	public PageContentStream(WikiDatabaseService dbService, int pageId, int chunkSize) {
+		this.dbService = dbService;
+		this.pageId = pageId;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Called instead of any other handler when the page doesn't exist.
+	 */
+	public PageContentStream notFoundHandler(Handler<Void> notFoundHandler) {
+		this.notFoundHandler = notFoundHandler;
+		return this;
+	}
+
+	@Override
+	public PageContentStream exceptionHandler(Handler<Throwable> handler) {
+		this.exceptionHandler = handler;
+		return this;
+	}
+
+	@Override
+	public PageContentStream handler(Handler<Buffer> handler) {
+		this.handler = handler;
+		if (handler != null) {
+			fetchNext();
+		}
+		return this;
+	}
+
+	@Override
+	public PageContentStream pause() {
+		paused = true;
+		return this;
+	}
+
+	@Override
+	public PageContentStream resume() {
+		paused = false;
+		fetchNext();
+		return this;
+	}
+
+	@Override
+	public PageContentStream endHandler(Handler<Void> endHandler) {
+		this.endHandler = endHandler;
+		return this;
+	}
+
+	private void fetchNext() {
+		if (paused || fetching || ended || handler == null) {
+			return;
+		}
+		fetching = true;
+		dbService.fetchPageContentChunk(pageId, offset, chunkSize, ar -> {
+			fetching = false;
+			if (ar.failed()) {
+				ended = true;
+				if (exceptionHandler != null) {
+					exceptionHandler.handle(ar.cause());
+				}
+				return;
+			}
+
+			String chunk = ar.result();
+			if (chunk == null) {
+				ended = true;
+				if (notFoundHandler != null) {
+					notFoundHandler.handle(null);
+				}
+				return;
+			}
+
+			offset += chunk.length();
+			boolean last = chunk.length() < chunkSize;
+			String text = carry + chunk;
+			carry = "";
+			if (!last && !text.isEmpty() && Character.isHighSurrogate(text.charAt(text.length() - 1))) {
+				carry = text.substring(text.length() - 1);
+				text = text.substring(0, text.length() - 1);
+			}
+			if (!text.isEmpty()) {
+				handler.handle(Buffer.buffer(text));
+			}
+
+			if (last) {
+				ended = true;
+				if (endHandler != null) {
+					endHandler.handle(null);
+				}
+			} else {
+				fetchNext();
+			}
+		});
+	}
+}
@@ -0,0 +1,161 @@
+package com.vertxexploration.webapp.http;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.reactivex.ext.web.RoutingContext;
+
+/**
+ * Pushes the page events of the database (created, updated, deleted,
+ * imported) to the clients as Server-Sent Events, so they don't have to poll
+ * the pages to notice changes. Each event is sent as
+ * <pre>
+ * event: updated
+ * data: {"event":"updated","id":3}
+ * </pre>
+ * A subscriber which doesn't read fast enough gets its events queued, up to
+ * maxQueued of them. Past that the queue is dropped and replaced by a single
+ * "resync" event, sent once the subscriber catches up, telling it to fetch
+ * the pages again. A comment line is sent every heartbeat so that idle
+ * connections are kept open by proxies and dead ones are noticed.
+ * <p>
+ * Used from the event loop of its verticle only.
+ */
+class PageEventStream implements Handler<RoutingContext> {
+
+	private static final String SHARED_MAP_NAME = "http.page.events";
+	private static final Buffer HEARTBEAT = Buffer.buffer(":\n\n");
+	private static final Buffer RESYNC = frame(new JsonObject().put("event", "resync"));
+
+	private final int maxSubscribers;
+	private final int maxQueued;
+	private final Set<Subscriber> subscribers = new HashSet<>();
+	private final Stats stats;
+
+	PageEventStream(Vertx vertx, int maxSubscribers, int maxQueued, long heartbeatMillis) {
+		this.maxSubscribers = maxSubscribers;
+		this.maxQueued = maxQueued;
+
+		// The subscriber limit is for the process, not for each HTTP verticle instance
+		LocalMap<String, Stats> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+		map.putIfAbsent(SHARED_MAP_NAME, new Stats());
+		this.stats = map.get(SHARED_MAP_NAME);
+
+		vertx.setPeriodic(heartbeatMillis, id -> subscribers.forEach(subscriber -> subscriber.heartbeat()));
+	}
+
+	@Override
+	public void handle(RoutingContext context) {
+		HttpServerResponse response = context.response().getDelegate();
+		if (stats.subscribers.incrementAndGet() > maxSubscribers) {
+			stats.subscribers.decrementAndGet();
+			stats.rejected.increment();
+			context.response().setStatusCode(503).end();
+			return;
+		}
+		RequestTracer.longLived(context);
+
+		Subscriber subscriber = new Subscriber(response);
+		subscribers.add(subscriber);
+		response.closeHandler(v -> {
+			subscribers.remove(subscriber);
+			stats.subscribers.decrementAndGet();
+		});
+		response.drainHandler(v -> subscriber.drain());
+		response.setChunked(true)
+				.putHeader("Content-Type", "text/event-stream; charset=utf-8")
+				.putHeader("Cache-Control", "no-cache")
+				// Sends the headers, the client knows it is subscribed
+				.write(HEARTBEAT);
+	}
+
+	/**
+	 * Send a page event to every subscriber.
+	 */
+	void publish(JsonObject event) {
+		if (subscribers.isEmpty()) {
+			return;
+		}
+		Buffer frame = frame(event);
+		subscribers.forEach(subscriber -> subscriber.send(frame));
+	}
+
+	JsonObject stats() {
+		return new JsonObject()
+				.put("subscribers", stats.subscribers.get())
+				.put("rejected", stats.rejected.sum())
+				.put("sent", stats.sent.sum())
+				.put("dropped", stats.dropped.sum())
+				.put("resyncs", stats.resyncs.sum());
+	}
+
+	private static Buffer frame(JsonObject event) {
+		return Buffer.buffer("event: " + event.getString("event") + "\ndata: " + event.encode() + "\n\n");
+	}
+
+	private class Subscriber {
+		private final HttpServerResponse response;
+		// Events the connection couldn't take yet
+		private final ArrayDeque<Buffer> queue = new ArrayDeque<>();
+		// The queue overflowed, the events since are lost
+		private boolean resync;
+
+		private Subscriber(HttpServerResponse response) {
+			this.response = response;
+		}
+
+		private void send(Buffer frame) {
+			if (resync) {
+				stats.dropped.increment();
+			} else if (queue.isEmpty() && !response.writeQueueFull()) {
+				write(frame);
+			} else if (queue.size() < maxQueued) {
+				queue.add(frame);
+			} else {
+				stats.dropped.add(queue.size() + 1);
+				stats.resyncs.increment();
+				queue.clear();
+				resync = true;
+			}
+		}
+
+		private void drain() {
+			while (!queue.isEmpty() && !response.writeQueueFull()) {
+				write(queue.poll());
+			}
+			if (resync && !response.writeQueueFull()) {
+				resync = false;
+				write(RESYNC);
+			}
+		}
+
+		private void heartbeat() {
+			if (queue.isEmpty() && !resync && !response.writeQueueFull()) {
+				response.write(HEARTBEAT);
+			}
+		}
+
+		private void write(Buffer frame) {
+			response.write(frame);
+			stats.sent.increment();
+		}
+	}
+
+	private static class Stats implements Shareable {
+		private final AtomicInteger subscribers = new AtomicInteger();
+		private final LongAdder rejected = new LongAdder();
+		private final LongAdder sent = new LongAdder();
+		private final LongAdder dropped = new LongAdder();
+		private final LongAdder resyncs = new LongAdder();
+	}
+}
@@ -0,0 +1,79 @@
+package com.vertxexploration.webapp.http;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * Rendered HTML of the home page list of pages. The list only changes when
+ * pages are created or deleted, so it is rendered once and reused until the
+ * database publishes such an event. Shared by every HTTP verticle instance.
+ */
+class PageListCache {
+
+	private static final String SHARED_MAP_NAME = "wiki.index.pagelist";
+
+	private final Fragment fragment;
+
+	PageListCache(Vertx vertx) {
+		LocalMap<String, Fragment> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+		map.putIfAbsent(SHARED_MAP_NAME, new Fragment());
+		this.fragment = map.get(SHARED_MAP_NAME);
+	}
+
+	/**
+	 * @return the cached HTML, null when it must be rendered again
+	 */
+	String get() {
+		String html = fragment.html;
+		if (html != null) {
+			fragment.hits.increment();
+		} else {
+			fragment.misses.increment();
+		}
+		return html;
+	}
+
+	/**
+	 * Call before fetching the pages to render, and hand the result to
+	 * {@link #put(long, String)}.
+	 */
+	long generation() {
+		return fragment.generation;
+	}
+
+	/**
+	 * Cache the HTML unless the pages changed since it was fetched.
+	 */
+	void put(long generation, String html) {
+		synchronized (fragment) {
+			if (fragment.generation == generation) {
+				fragment.html = html;
+			}
+		}
+	}
+
+	void invalidate() {
+		synchronized (fragment) {
+			fragment.generation++;
+			fragment.html = null;
+		}
+	}
+
+	JsonObject stats() {
+		return new JsonObject()
+				.put("cached", fragment.html != null)
+				.put("hits", fragment.hits.sum())
+				.put("misses", fragment.misses.sum());
+	}
+
+	private static class Fragment implements Shareable {
+		private volatile long generation;
+		private volatile String html;
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder misses = new LongAdder();
+	}
+}
@@ -0,0 +1,145 @@
+package com.vertxexploration.webapp.http;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.serviceproxy.ServiceException;
+
+/**
+ * Counts the page views in memory, a striped LongAdder per page so that
+ * concurrent views of a popular page don't contend, and adds them to the
+ * view counts of the database in one batch every flush interval, instead of
+ * an UPDATE per view. Views not flushed yet are lost when the process stops.
+ * <p>
+ * The counters are shared by the HTTP verticle instances, whichever flushes
+ * first takes the views of all of them.
+ */
+class PageViewCounter {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PageViewCounter.class);
+
+	private static final String SHARED_MAP_NAME = "http.page.views";
+
+	private final WikiDatabaseService dbService;
+	private final Counters counters;
+
+	PageViewCounter(Vertx vertx, WikiDatabaseService dbService, long flushMillis) {
+		this.dbService = dbService;
+		LocalMap<String, Counters> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+		map.putIfAbsent(SHARED_MAP_NAME, new Counters());
+		this.counters = map.get(SHARED_MAP_NAME);
+
+		vertx.setPeriodic(flushMillis, id -> flush());
+	}
+
+	void viewed(int id) {
+		counters.views.computeIfAbsent(id, key -> new PageViews()).views.increment();
+	}
+
+	/**
+	 * Send the views counted since the last flush to the database. The views
+	 * the database fails to add are sent again by the next flush.
+	 */
+	void flush() {
+		JsonObject views = new JsonObject();
+		// The adders only grow, each flush takes what they gained since the views it already took
+		counters.views.forEach((id, page) -> {
+			long total = page.views.sum();
+			long flushed = page.flushed.get();
+			if (total > flushed && page.flushed.compareAndSet(flushed, total)) {
+				views.put(String.valueOf(id), total - flushed);
+			}
+		});
+		if (views.isEmpty()) {
+			return;
+		}
+		dbService.addPageViews(views, added -> {
+			if (added.failed()) {
+				JsonObject notAdded = notAdded(views, added.cause());
+				LOGGER.warn("Could not add " + notAdded.size() + " page view counts, retrying at the next flush: "
+						+ added.cause().getMessage());
+				notAdded.forEach(view -> counters.views.get(Integer.valueOf(view.getKey())).flushed
+						.addAndGet(-((Number) view.getValue()).longValue()));
+				counters.failedFlushes.increment();
+				counters.flushedViews.add(sum(views) - sum(notAdded));
+			} else {
+				counters.flushes.increment();
+				counters.flushedViews.add(sum(views));
+			}
+		});
+	}
+
+	/**
+	 * @return the views the failed addition didn't add: with shards, only
+	 *         those of the failed shards
+	 */
+	private static JsonObject notAdded(JsonObject views, Throwable cause) {
+		if (cause instanceof ServiceException && ((ServiceException) cause).getDebugInfo() != null) {
+			JsonObject notAdded = ((ServiceException) cause).getDebugInfo().getJsonObject("notAdded");
+			if (notAdded != null) {
+				return notAdded;
+			}
+		}
+		return views;
+	}
+
+	private static long sum(JsonObject views) {
+		return views.stream().mapToLong(view -> ((Number) view.getValue()).longValue()).sum();
+	}
+
+	/**
+	 * Add the views not flushed yet to the view counts of these pages, and
+	 * sort them again, most viewed first.
+	 */
+	JsonArray withPending(JsonArray pages) {
+		List<JsonObject> counted = new ArrayList<>(pages.size());
+		pages.forEach(page -> {
+			JsonObject viewed = (JsonObject) page;
+			PageViews pending = counters.views.get(viewed.getInteger("id"));
+			counted.add(pending == null ? viewed
+					: viewed.copy().put("viewCount", viewed.getLong("viewCount") + pending.pending()));
+		});
+		counted.sort(Comparator.comparing((JsonObject page) -> page.getLong("viewCount")).reversed());
+		return new JsonArray(counted);
+	}
+
+	JsonObject stats() {
+		return new JsonObject()
+				.put("pages", counters.views.size())
+				.put("pending", counters.views.values().stream().mapToLong(PageViews::pending).sum())
+				.put("flushes", counters.flushes.sum())
+				.put("failedFlushes", counters.failedFlushes.sum())
+				.put("flushedViews", counters.flushedViews.sum());
+	}
+
+	private static class PageViews {
+		// Every view counted, never reset
+		private final LongAdder views = new LongAdder();
+		// The part of them sent to the database
+		private final AtomicLong flushed = new AtomicLong();
+
+		private long pending() {
+			return Math.max(0, views.sum() - flushed.get());
+		}
+	}
+
+	private static class Counters implements Shareable {
+		private final Map<Integer, PageViews> views = new ConcurrentHashMap<>();
+		private final LongAdder flushes = new LongAdder();
+		private final LongAdder failedFlushes = new LongAdder();
+		private final LongAdder flushedViews = new LongAdder();
+	}
+}
@@ -0,0 +1,193 @@
+package com.vertxexploration.webapp.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.reactivex.ext.web.RoutingContext;
+
+/**
+ * Token bucket rate limiting, keyed both by the authenticated username (when
+ * there is one) and by the client IP. Each bucket is a single AtomicLong
+ * holding the theoretical arrival time of the next request (the GCRA form
+ * of a token bucket), so a check is a map lookup and a CAS, without locks.
+ * <p>
+ * Used as a handler it checks both. Behind an authentication handler, mount
+ * {@link #perIp()} before it and {@link #perUser()} after it instead, so that
+ * unauthenticated floods are turned away before their tokens are verified.
+ */
+public class RateLimiter implements Handler<RoutingContext> {
+
+	private static final String SHARED_MAP_NAME = "http.ratelimit";
+	private static final long CLEANUP_PERIOD_MS = 60000;
+
+	private final int burst;
+	private final long emissionInterval; // nanos between two requests at the sustained rate
+	private final long tolerance; // how far ahead of now the bucket may be booked, burst * emissionInterval
+	private final Buckets buckets;
+
+	/**
+	 * @param name
+	 *            limiter name, routes registered with the same name share buckets
+	 * @param rate
+	 *            sustained requests per second
+	 * @param burst
+	 *            requests allowed at once when the bucket is full
+	 */
+	public RateLimiter(Vertx vertx, String name, double rate, int burst) {
+		this.burst = burst;
+		this.emissionInterval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+		this.tolerance = burst * emissionInterval;
+
+		// Shared by every HTTP verticle instance, otherwise each event loop would get its own budget
+		LocalMap<String, Buckets> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+		map.putIfAbsent(name, new Buckets());
+		this.buckets = map.get(name);
+
+		vertx.setPeriodic(CLEANUP_PERIOD_MS, id -> buckets.evictFull(System.nanoTime()));
+	}
+
+	/**
+	 * Create the limiter from a {@code {"rate": ..., "burst": ...}} entry of
+	 * the limits configuration, falling back to the given defaults.
+	 */
+	public static RateLimiter create(Vertx vertx, String name, JsonObject limits, double defaultRate,
+			int defaultBurst) {
+		JsonObject limit = limits.getJsonObject(name, new JsonObject());
+		return new RateLimiter(vertx, name, limit.getDouble("rate", defaultRate),
+				limit.getInteger("burst", defaultBurst));
+	}
+
+	/**
+	 * The per-IP check alone, to run before the authentication so that
+	 * requests with bad or missing tokens are limited too.
+	 */
+	public Handler<RoutingContext> perIp() {
+		return context -> {
+			if (checkIp(context)) {
+				context.next();
+			}
+		};
+	}
+
+	/**
+	 * The per-user check alone, once the request is authenticated and went
+	 * through {@link #perIp()}.
+	 */
+	public Handler<RoutingContext> perUser() {
+		return context -> {
+			if (checkUser(context)) {
+				context.next();
+			}
+		};
+	}
+
+	@Override
+	public void handle(RoutingContext context) {
+		if (checkIp(context) && checkUser(context)) {
+			context.next();
+		}
+	}
+
+	private boolean checkIp(RoutingContext context) {
+		long now = System.nanoTime();
+		AtomicLong ipBucket = bucket(buckets.byIp, context.request().remoteAddress().host(), now);
+		long ipWait = tryAcquire(ipBucket, now);
+		if (ipWait > 0) {
+			reject(context, ipWait);
+			return false;
+		}
+		putHeaders(context, ipBucket.get() - now);
+		return true;
+	}
+
+	private boolean checkUser(RoutingContext context) {
+		String username = context.user() == null ? null : context.user().principal().getString("username");
+		if (username == null) {
+			return true;
+		}
+		long now = System.nanoTime();
+		AtomicLong ipBucket = buckets.byIp.get(context.request().remoteAddress().host());
+		AtomicLong userBucket = bucket(buckets.byUser, username, now);
+		long userWait = tryAcquire(userBucket, now);
+		if (userWait > 0) {
+			if (ipBucket != null) {
+				ipBucket.addAndGet(-emissionInterval); // give back the IP token, the request won't run
+			}
+			reject(context, userWait);
+			return false;
+		}
+		long booked = userBucket.get() - now;
+		putHeaders(context, ipBucket == null ? booked : Math.max(booked, ipBucket.get() - now));
+		return true;
+	}
+
+	private void putHeaders(RoutingContext context, long booked) {
+		context.response()
+			.putHeader("X-RateLimit-Limit", String.valueOf(burst))
+			.putHeader("X-RateLimit-Remaining", String.valueOf(Math.max(0, (tolerance - booked) / emissionInterval)))
+			.putHeader("X-RateLimit-Reset", String.valueOf(toSeconds(booked)));
+	}
+
+	private AtomicLong bucket(ConcurrentHashMap<String, AtomicLong> map, String key, long now) {
+		AtomicLong bucket = map.get(key);
+		if (bucket == null) {
+			AtomicLong created = new AtomicLong(now);
+			bucket = map.putIfAbsent(key, created);
+			if (bucket == null) {
+				bucket = created;
+			}
+		}
+		return bucket;
+	}
+
+	/**
+	 * @return 0 when the request is allowed, otherwise the nanos to wait
+	 *         before the next request would be
+	 */
+	private long tryAcquire(AtomicLong bucket, long now) {
+		while (true) {
+			long arrival = bucket.get();
+			long next = Math.max(arrival, now) + emissionInterval;
+			if (next - now > tolerance) {
+				return next - now - tolerance;
+			}
+			if (bucket.compareAndSet(arrival, next)) {
+				return 0;
+			}
+		}
+	}
+
+	private void reject(RoutingContext context, long waitNanos) {
+		context.response()
+			.setStatusCode(429)
+			.putHeader("X-RateLimit-Limit", String.valueOf(burst))
+			.putHeader("X-RateLimit-Remaining", "0")
+			.putHeader("X-RateLimit-Reset", String.valueOf(toSeconds(waitNanos)))
+			.putHeader("Retry-After", String.valueOf(toSeconds(waitNanos)))
+			.end();
+	}
+
+	private static long toSeconds(long nanos) {
+		return Math.max(1, (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+	}
+
+	private static class Buckets implements Shareable {
+		private final ConcurrentHashMap<String, AtomicLong> byIp = new ConcurrentHashMap<>();
+		private final ConcurrentHashMap<String, AtomicLong> byUser = new ConcurrentHashMap<>();
+
+		/**
+		 * A bucket whose arrival time has passed is full again, exactly like a
+		 * missing one, so it can be dropped to keep the maps small.
+		 */
+		private void evictFull(long now) {
+			byIp.values().removeIf(bucket -> bucket.get() < now);
+			byUser.values().removeIf(bucket -> bucket.get() < now);
+		}
+	}
+}
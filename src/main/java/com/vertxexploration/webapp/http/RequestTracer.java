@@ -0,0 +1,127 @@
+package com.vertxexploration.webapp.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vertxexploration.webapp.Trace;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.reactivex.ext.web.RoutingContext;
+
+/**
+ * Starts a {@link Trace} for every request, reports its stages in a
+ * Server-Timing response header and logs the slow ones. The header is
+ * written with the response head, so a stage still running then (a template
+ * streaming the page) shows the time spent until the first byte; the slow
+ * trace log has the final figures.
+ * <p>
+ * At most maxSlowLogsPerSecond slow traces are logged, the others are only
+ * counted, so a slow database doesn't flood the log.
+ */
+public class RequestTracer implements Handler<RoutingContext> {
+	private static final Logger LOGGER = LoggerFactory.getLogger(RequestTracer.class);
+
+	/** Routing context key holding the {@link Trace} of the request. */
+	public static final String TRACE_KEY = "trace";
+	private static final String LONG_LIVED_KEY = "trace.long-lived";
+
+	private static final String SHARED_MAP_NAME = "http.tracing";
+
+	private final Vertx vertx;
+	private final long slowNanos;
+	private final int maxSlowLogsPerSecond;
+	private final Stats stats;
+
+	public RequestTracer(Vertx vertx, long slowMillis, int maxSlowLogsPerSecond) {
+		this.vertx = vertx;
+		this.slowNanos = slowMillis * 1_000_000;
+		this.maxSlowLogsPerSecond = maxSlowLogsPerSecond;
+
+		// The log budget is for the process, not for each HTTP verticle instance
+		LocalMap<String, Stats> map = vertx.sharedData().getLocalMap(SHARED_MAP_NAME);
+		map.putIfAbsent(SHARED_MAP_NAME, new Stats());
+		this.stats = map.get(SHARED_MAP_NAME);
+	}
+
+	/**
+	 * @return the trace of the request, {@link Trace#NONE} for requests that
+	 *         didn't go through the tracer
+	 */
+	public static Trace trace(RoutingContext context) {
+		Trace trace = context.get(TRACE_KEY);
+		return trace == null ? Trace.NONE : trace;
+	}
+
+	/**
+	 * Leave the request out of the slow request log, for responses streamed
+	 * for as long as the client listens.
+	 */
+	public static void longLived(RoutingContext context) {
+		context.put(LONG_LIVED_KEY, true);
+	}
+
+	@Override
+	public void handle(RoutingContext context) {
+		Trace trace = Trace.start();
+		context.put(TRACE_KEY, trace);
+		stats.traced.increment();
+
+		HttpServerResponse response = context.response().getDelegate();
+		context.addHeadersEndHandler(v -> response.putHeader("Server-Timing", trace.serverTiming()));
+		// Unlike the body end handlers, also called when the connection is closed first
+		response.endHandler(v -> finish(context, trace));
+		context.next();
+	}
+
+	private void finish(RoutingContext context, Trace trace) {
+		trace.finish();
+		trace.release(vertx);
+		if (trace.elapsed() < slowNanos || context.get(LONG_LIVED_KEY) != null) {
+			return;
+		}
+		stats.slow.increment();
+		if (!stats.logBudget(maxSlowLogsPerSecond)) {
+			return;
+		}
+		JsonObject json = trace.toJson()
+				.put("method", context.request().method().name())
+				.put("path", context.request().path())
+				.put("status", context.response().getStatusCode());
+		LOGGER.warn("Slow request " + json.encode());
+	}
+
+	public JsonObject stats() {
+		return new JsonObject()
+				.put("traced", stats.traced.sum())
+				.put("slow", stats.slow.sum())
+				.put("slowMillis", slowNanos / 1_000_000);
+	}
+
+	private static class Stats implements Shareable {
+		private final LongAdder traced = new LongAdder();
+		private final LongAdder slow = new LongAdder();
+		// Current second in the high bits, slow traces logged in it in the low ones
+		private final AtomicLong logWindow = new AtomicLong();
+
+		private boolean logBudget(int maxPerSecond) {
+			long second = System.currentTimeMillis() / 1000;
+			while (true) {
+				long window = logWindow.get();
+				long logged = window >>> 32 == second ? window & 0xffffffffL : 0;
+				if (logged >= maxPerSecond) {
+					return false;
+				}
+				if (logWindow.compareAndSet(window, second << 32 | (logged + 1))) {
+					return true;
+				}
+			}
+		}
+	}
+}
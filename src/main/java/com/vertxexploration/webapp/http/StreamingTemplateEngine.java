@@ -0,0 +1,360 @@
+package com.vertxexploration.webapp.http;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vertxexploration.webapp.Trace;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.web.templ.impl.VertxWebObjectWrapper;
+import io.vertx.reactivex.ext.web.RoutingContext;
+
+/**
+ * FreeMarker rendering that writes the output to a chunked response as it
+ * is produced instead of building the whole page in a Buffer first.
+ * Templates are compiled once when the engine is created. Rendering runs on
+ * a worker pool and hands each chunk to the event loop of the response,
+ * which writes it as the client reads. At most {@link #MAX_QUEUED_CHUNKS}
+ * chunks of a response wait for the client: past that the render thread
+ * waits for the client to read, and gives up on the page when it doesn't
+ * within the drain timeout.
+ */
+public class StreamingTemplateEngine {
+	private static final Logger LOGGER = LoggerFactory.getLogger(StreamingTemplateEngine.class);
+
+	public static final String WORKER_POOL_NAME = "template-renderer";
+
+	public static final int CHUNK_SIZE = 8 * 1024; // chars buffered before a chunk is written
+	public static final int MAX_QUEUED_CHUNKS = 4; // chunks of a response waiting for the client
+
+	private final WorkerExecutor executor;
+	private final Map<String, Template> templates;
+	private final long drainTimeout;
+	private final QueueStats stats;
+
+	private StreamingTemplateEngine(Vertx vertx, WorkerExecutor executor, Map<String, Template> templates,
+			long drainTimeout) {
+		this.executor = executor;
+		this.templates = templates;
+		this.drainTimeout = drainTimeout;
+
+		// Every HTTP verticle instance shares the same pool, so they share the stats too
+		LocalMap<String, QueueStats> map = vertx.sharedData().getLocalMap(WORKER_POOL_NAME);
+		map.putIfAbsent(WORKER_POOL_NAME, new QueueStats());
+		this.stats = map.get(WORKER_POOL_NAME);
+	}
+
+	/**
+	 * Compile the given templates (relative to the classpath directory) off
+	 * the event loop and hand back an engine ready to render them.
+	 *
+	 * @param drainTimeout how long (ms) a render waits for the client to
+	 *                     read a full queue before the page is dropped
+	 */
+	public static void create(Vertx vertx, String directory, List<String> names, int poolSize, long drainTimeout,
+			Handler<AsyncResult<StreamingTemplateEngine>> readyHandler) {
+		WorkerExecutor executor = vertx.createSharedWorkerExecutor(WORKER_POOL_NAME, poolSize);
+		executor.<StreamingTemplateEngine>executeBlocking(future -> {
+			Configuration configuration = new Configuration(Configuration.VERSION_2_3_23);
+			configuration.setObjectWrapper(new VertxWebObjectWrapper(configuration.getIncompatibleImprovements()));
+			configuration.setClassForTemplateLoading(StreamingTemplateEngine.class, directory);
+			configuration.setDefaultEncoding("UTF-8");
+			// Templates are packaged in the jar, never check them for changes
+			configuration.setTemplateUpdateDelayMilliseconds(Long.MAX_VALUE);
+			try {
+				Map<String, Template> templates = new HashMap<>();
+				for (String name : names) {
+					templates.put(name, configuration.getTemplate(name));
+				}
+				future.complete(new StreamingTemplateEngine(vertx, executor,
+						Collections.unmodifiableMap(templates), drainTimeout));
+			} catch (IOException e) {
+				future.fail(e);
+			}
+		}, readyHandler);
+	}
+
+	/**
+	 * Render the template with the routing context data and stream it as
+	 * the response body.
+	 */
+	public void render(RoutingContext context, String name) {
+		Template template = templates.get(name);
+		if (template == null) {
+			context.fail(new IllegalArgumentException("Unknown template " + name));
+			return;
+		}
+
+		HttpServerResponse response = context.response().getDelegate();
+		ResponseSink sink = new ResponseSink(Vertx.currentContext(), response);
+		response.closeHandler(v -> sink.close());
+		Map<String, Object> model = Collections.singletonMap("context", context.getDelegate());
+		Trace trace = RequestTracer.trace(context);
+		trace.begin("template");
+		executor.<Void>executeBlocking(future -> {
+			try {
+				ResponseWriter writer = new ResponseWriter(sink);
+				template.process(model, writer);
+				writer.end();
+				future.complete();
+			} catch (Exception e) {
+				future.fail(e);
+			}
+		}, false, ar -> {
+			trace.end("template");
+			if (ar.succeeded()) {
+				return;
+			}
+			if (sink.started) {
+				// Too late for an error page, just drop the connection
+				LOGGER.error("Template " + name + " failed after the response was started", ar.cause());
+				if (!sink.closed) {
+					sink.close();
+					response.close();
+				}
+			} else {
+				context.fail(ar.cause());
+			}
+		});
+	}
+
+	/**
+	 * Render a template with the given model to a string, for fragments
+	 * that are cached and inserted in other pages.
+	 */
+	public void renderToString(String name, Map<String, Object> model, Handler<AsyncResult<String>> resultHandler) {
+		Template template = templates.get(name);
+		if (template == null) {
+			resultHandler.handle(Future.failedFuture(new IllegalArgumentException("Unknown template " + name)));
+			return;
+		}
+		executor.<String>executeBlocking(future -> {
+			try {
+				StringWriter writer = new StringWriter();
+				template.process(model, writer);
+				future.complete(writer.toString());
+			} catch (Exception e) {
+				future.fail(e);
+			}
+		}, false, resultHandler);
+	}
+
+	public JsonObject stats() {
+		return new JsonObject()
+				.put("queuedBytes", stats.queuedBytes.get())
+				.put("maxQueuedBytes", stats.maxQueuedBytes.get())
+				.put("drainTimeouts", stats.drainTimeouts.sum());
+	}
+
+	/**
+	 * Buffers a chunk worth of characters on the render thread and hands it
+	 * to the event loop of the response, once the client has left room for
+	 * it in the queue of the response.
+	 */
+	private class ResponseWriter extends Writer {
+		private final ResponseSink sink;
+		private final StringBuilder chunk = new StringBuilder(CHUNK_SIZE);
+		private boolean started;
+
+		private ResponseWriter(ResponseSink sink) {
+			this.sink = sink;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			// Big values (the page content) are cut so that no chunk gets over the chunk size
+			while (len > 0) {
+				int count = Math.min(len, CHUNK_SIZE - chunk.length());
+				chunk.append(cbuf, off, count);
+				off += count;
+				len -= count;
+				if (chunk.length() >= CHUNK_SIZE) {
+					writeChunk();
+				}
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			while (len > 0) {
+				int count = Math.min(len, CHUNK_SIZE - chunk.length());
+				chunk.append(str, off, off + count);
+				off += count;
+				len -= count;
+				if (chunk.length() >= CHUNK_SIZE) {
+					writeChunk();
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			// FreeMarker flushes at the end of processing; chunks are written as they fill up
+		}
+
+		@Override
+		public void close() throws IOException {
+			// The response is only ended once the whole template has been processed
+		}
+
+		private void end() throws IOException {
+			Buffer last = Buffer.buffer(chunk.toString());
+			boolean chunked = started;
+			if (chunked) {
+				reserve(last);
+			}
+			// Small page: sent in one go with a Content-Length
+			sink.context.runOnContext(v -> sink.end(last, chunked));
+		}
+
+		private void writeChunk() throws IOException {
+			started = true;
+			Buffer buffer = Buffer.buffer(chunk.toString());
+			chunk.setLength(0);
+			reserve(buffer);
+			sink.context.runOnContext(v -> sink.write(buffer));
+		}
+
+		/**
+		 * Wait for room in the queue of the response, the render fails when
+		 * the client doesn't read within the drain timeout.
+		 */
+		private void reserve(Buffer buffer) throws IOException {
+			if (sink.closed) {
+				throw new IOException("Client closed the connection");
+			}
+			try {
+				if (!sink.room.tryAcquire(drainTimeout, TimeUnit.MILLISECONDS)) {
+					stats.drainTimeouts.increment();
+					throw new IOException("Client did not read the page for " + drainTimeout + "ms");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for the client", e);
+			}
+			if (sink.closed) {
+				throw new IOException("Client closed the connection");
+			}
+			long queued = stats.queuedBytes.addAndGet(buffer.length());
+			stats.maxQueuedBytes.accumulateAndGet(queued, Math::max);
+		}
+	}
+
+	/**
+	 * Writes the rendered chunks to the response, on its event loop only. The
+	 * chunks the client can't take yet are queued and written by the drain
+	 * handler, which gives their room back to the render thread.
+	 */
+	private class ResponseSink {
+		private final Context context;
+		private final HttpServerResponse response;
+		private final ArrayDeque<Buffer> queue = new ArrayDeque<>();
+		// Room left for chunks on their way to the response, taken by the render thread
+		private final Semaphore room = new Semaphore(MAX_QUEUED_CHUNKS);
+		// Set on the event loop, read by the render thread
+		private volatile boolean closed;
+		private boolean started;
+		private boolean ended;
+
+		private ResponseSink(Context context, HttpServerResponse response) {
+			this.context = context;
+			this.response = response;
+		}
+
+		private void write(Buffer buffer) {
+			if (closed) {
+				dequeued(buffer);
+				return;
+			}
+			if (!started) {
+				response.setChunked(true);
+				response.putHeader("Content-Type", "text/html");
+				response.drainHandler(v -> drain());
+				started = true;
+			}
+			if (queue.isEmpty() && !response.writeQueueFull()) {
+				response.write(buffer);
+				dequeued(buffer);
+			} else {
+				queue.add(buffer);
+			}
+		}
+
+		private void end(Buffer last, boolean chunked) {
+			if (closed) {
+				if (chunked) {
+					dequeued(last);
+				}
+				return;
+			}
+			if (!chunked) {
+				response.putHeader("Content-Type", "text/html");
+				response.end(last);
+				return;
+			}
+			write(last);
+			ended = true;
+			drain();
+		}
+
+		private void drain() {
+			while (!queue.isEmpty() && !response.writeQueueFull() && !closed) {
+				Buffer buffer = queue.poll();
+				response.write(buffer);
+				dequeued(buffer);
+			}
+			if (ended && queue.isEmpty() && !closed) {
+				ended = false;
+				response.end();
+			}
+		}
+
+		private void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			while (!queue.isEmpty()) {
+				dequeued(queue.poll());
+			}
+			// Wake up a render thread waiting for room, it then sees the response is closed
+			room.release(MAX_QUEUED_CHUNKS);
+		}
+
+		private void dequeued(Buffer buffer) {
+			stats.queuedBytes.addAndGet(-buffer.length());
+			room.release();
+		}
+	}
+
+	private static class QueueStats implements Shareable {
+		private final AtomicLong queuedBytes = new AtomicLong();
+		private final AtomicLong maxQueuedBytes = new AtomicLong();
+		private final LongAdder drainTimeouts = new LongAdder();
+	}
+}
@@ -20,22 +20,14 @@
   </div>
 
   <div class="col-md-12 mt-1">
-  <#list context.pages>
-    <h2>Pages:</h2>
-    <ul>
-      <#items as page>
-        <li><a href="/wiki/${page}">${page}</a></li>
-      </#items>
-    </ul>
-  <#else>
-    <p>The wiki is currently empty!</p>
-  </#list>
+  <#-- Rendered from page-list.ftl and cached until pages are created or deleted -->
+  ${context.pageList}
 
   <#if context.canCreatePage>
-    <#if context.backup_gist_url?has_content>
+    <#if context.backup_job?has_content>
       <div class="alert alert-success" role="alert">
-        Successfully created a backup:
-        <a href="${context.backup_gist_url}" class="alert-link">${context.backup_gist_url}</a>
+        Backup started, follow it at
+        <a href="/action/backups/${context.backup_job?c}" class="alert-link">/action/backups/${context.backup_job?c}</a>
       </div>
     <#else>
       <p>
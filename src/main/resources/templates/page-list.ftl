@@ -0,0 +1,10 @@
+<#list pages>
+    <h2>Pages:</h2>
+    <ul>
+      <#items as page>
+        <li><a href="/wiki/${page}">${page}</a></li>
+      </#items>
+    </ul>
+<#else>
+    <p>The wiki is currently empty!</p>
+</#list>
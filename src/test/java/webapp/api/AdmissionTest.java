@@ -0,0 +1,125 @@
+package webapp.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.vertxexploration.webapp.db.DeadlineHandler;
+import com.vertxexploration.webapp.db.WikiDatabaseVerticle;
+import com.vertxexploration.webapp.http.HttpServerVerticle;
+
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.SendContext;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.JksOptions;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.ext.web.codec.BodyCodec;
+
+@RunWith(VertxUnitRunner.class)
+public class AdmissionTest {
+
+	private static final long READ_TIMEOUT_MS = 4000;
+	private static final int RETRY_AFTER_S = 3;
+
+	private Vertx vertx;
+	private WebClient webClient;
+	// Set to hold the next page fetch on its way to the database, as a slow database would
+	private volatile Future<Handler<Void>> holding;
+	private volatile String heldDeadline;
+
+	@Before
+	public void prepare(TestContext context) {
+		vertx = Vertx.vertx();
+
+		JsonObject dbConf = new JsonObject()
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4);
+		vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(dbConf),
+				context.asyncAssertSuccess());
+
+		JsonObject httpConf = new JsonObject()
+				.put(HttpServerVerticle.CONFIG_ADMISSION_MAX_READS, 1)
+				.put(HttpServerVerticle.CONFIG_ADMISSION_READ_TIMEOUT_MS, READ_TIMEOUT_MS)
+				.put(HttpServerVerticle.CONFIG_ADMISSION_RETRY_AFTER_S, RETRY_AFTER_S);
+		vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(httpConf),
+				context.asyncAssertSuccess());
+
+		vertx.eventBus().addInterceptor(this::intercept);
+
+		webClient = WebClient.create(vertx, new WebClientOptions()
+				.setSsl(true)
+				.setTrustOptions(new JksOptions().setPath("server-keystore.jks").setPassword("secret"))
+				.setDefaultHost("localhost")
+				.setDefaultPort(8080));
+	}
+
+	@After
+	public void finish(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	private void intercept(SendContext<?> send) {
+		Future<Handler<Void>> held = holding;
+		if (held != null && "fetchPageById".equals(send.message().headers().get("action"))) {
+			holding = null;
+			heldDeadline = send.message().headers().get(DeadlineHandler.DEADLINE_HEADER);
+			Context sender = Vertx.currentContext();
+			held.complete(v -> sender.runOnContext(go -> send.next()));
+			return;
+		}
+		send.next();
+	}
+
+	@Test
+	public void sheds_with_retry_after(TestContext context) {
+		Async async = context.async();
+
+		token(context, token -> {
+			Future<Handler<Void>> held = Future.future();
+			holding = held;
+			long sent = System.currentTimeMillis();
+			webClient.get("/api/pages/0").putHeader("Authorization", token)
+				.send(context.asyncAssertSuccess(first -> {
+					context.assertNotEquals(503, first.statusCode());
+
+					// The slot was given back once the response was sent
+					webClient.get("/api/pages/0").putHeader("Authorization", token)
+						.send(context.asyncAssertSuccess(third -> {
+							context.assertNotEquals(503, third.statusCode());
+							async.complete();
+						}));
+				}));
+
+			held.setHandler(context.asyncAssertSuccess(release -> {
+				// The deadline of the admission goes along with the database call
+				long deadline = Long.parseLong(heldDeadline);
+				context.assertTrue(deadline >= sent + READ_TIMEOUT_MS, "deadline " + deadline);
+				context.assertTrue(deadline <= System.currentTimeMillis() + READ_TIMEOUT_MS, "deadline " + deadline);
+
+				webClient.get("/api/pages/0").putHeader("Authorization", token)
+					.send(context.asyncAssertSuccess(second -> {
+						context.assertEquals(503, second.statusCode());
+						context.assertEquals(String.valueOf(RETRY_AFTER_S), second.getHeader("Retry-After"));
+						release.handle(null);
+					}));
+			}));
+		});
+	}
+
+	private void token(TestContext context, Handler<String> handler) {
+		webClient.get("/api/token")
+			.putHeader("login", "foo")
+			.putHeader("password", "bar")
+			.as(BodyCodec.string())
+			.send(context.asyncAssertSuccess(response -> handler.handle("Bearer " + response.body())));
+	}
+}
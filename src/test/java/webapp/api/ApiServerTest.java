@@ -1,16 +1,26 @@
 package webapp.api;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import com.vertxexploration.webapp.StartupStatus;
 import com.vertxexploration.webapp.db.WikiDatabaseVerticle;
 import com.vertxexploration.webapp.http.HttpServerVerticle;
 
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.net.JksOptions;
@@ -24,6 +34,8 @@ import io.vertx.ext.web.codec.BodyCodec;
 
 @RunWith(VertxUnitRunner.class)
 public class ApiServerTest {
+
+	private static final int WRITE_BURST = 5;
 	
 	private Vertx vertx;
 	private WebClient webClient;
@@ -41,7 +53,17 @@ public class ApiServerTest {
 				new DeploymentOptions().setConfig(dbConf),
 				context.asyncAssertSuccess());
 
-		vertx.deployVerticle(new HttpServerVerticle(), context.asyncAssertSuccess());
+		JsonObject httpConf = new JsonObject()
+				.put(HttpServerVerticle.CONFIG_BODY_LIMIT, 4096)
+				.put(HttpServerVerticle.CONFIG_UPLOAD_LIMIT, 256 * 1024)
+				.put(HttpServerVerticle.CONFIG_VIEWS_FLUSH_MS, 100)
+				// More writes than any test makes, but a few seconds of refill each
+				.put(HttpServerVerticle.CONFIG_RATE_LIMITS, new JsonObject()
+						.put("api.write", new JsonObject().put("rate", 0.1).put("burst", WRITE_BURST)));
+
+		vertx.deployVerticle(new HttpServerVerticle(), 
+				new DeploymentOptions().setConfig(httpConf),
+				context.asyncAssertSuccess());
 
 		webClient = WebClient.create(vertx, new WebClientOptions()
 				.setSsl(true)
@@ -149,4 +171,364 @@ public class ApiServerTest {
 			async.complete();
 		}, Future.failedFuture("Oh?"));
 	}
+
+	@Test
+	public void body_limits_and_streamed_upload(TestContext context) {
+		Async async = context.async();
+
+		StringBuilder large = new StringBuilder();
+		while (large.length() < 100 * 1024) {
+			large.append("Gr\u00fc\u00dfe, \u00e7a marche \ud83d\ude00 ");
+		}
+		String markdown = large.toString();
+
+		Future<String> tokenRequest = Future.future();
+		webClient.get("/api/token")
+			.putHeader("login", "foo")
+			.putHeader("password", "bar")
+			.as(BodyCodec.string())
+			.send(ar -> tokenRequest.complete("Bearer " + ar.result().body()));
+
+		Future<Void> postRequest = Future.future();
+		tokenRequest.compose(token -> {
+			webClient.post("/api/pages")
+				.putHeader("Authorization", token)
+				.sendJsonObject(new JsonObject().put("name", "Large").put("markdown", "# Large"), ar -> {
+					context.assertEquals(201, ar.result().statusCode());
+					postRequest.complete();
+				});
+		}, postRequest);
+
+		Future<Void> oversizedRequest = Future.future();
+		postRequest.compose(v -> {
+			webClient.put("/api/pages/0")
+				.putHeader("Authorization", tokenRequest.result())
+				.sendJsonObject(new JsonObject().put("markdown", markdown), ar -> {
+					// Rejected on the Content-Length header, whatever the client managed to send
+					if (ar.succeeded()) {
+						context.assertEquals(413, ar.result().statusCode());
+					}
+					oversizedRequest.complete();
+				});
+		}, oversizedRequest);
+
+		Future<Void> uploadRequest = Future.future();
+		oversizedRequest.compose(v -> {
+			webClient.put("/api/pages/0/content")
+				.putHeader("Authorization", tokenRequest.result())
+				.putHeader("Content-Type", "text/markdown; charset=utf-8")
+				.as(BodyCodec.jsonObject())
+				.sendBuffer(Buffer.buffer(markdown), ar -> {
+					context.assertTrue(ar.result().body().getBoolean("success"));
+					uploadRequest.complete();
+				});
+		}, uploadRequest);
+
+		uploadRequest.compose(v -> {
+			webClient.get("/api/pages/0/content")
+				.putHeader("Authorization", tokenRequest.result())
+				.as(BodyCodec.string())
+				.send(ar -> {
+					context.assertEquals(markdown, ar.result().body());
+					async.complete();
+				});
+		}, Future.failedFuture("Oh?"));
+	}
+
+	@Test
+	public void export_and_import(TestContext context) throws Exception {
+		Async async = context.async();
+
+		StringBuilder ndjson = new StringBuilder();
+		for (int i = 0; i < 25; i++) {
+			ndjson.append(new JsonObject().put("name", "Page " + i).put("markdown", "# Page " + i + " \u00e9").encode())
+				.append('\n');
+		}
+
+		Future<String> tokenRequest = Future.future();
+		webClient.get("/api/token")
+			.putHeader("login", "foo")
+			.putHeader("password", "bar")
+			.as(BodyCodec.string())
+			.send(ar -> tokenRequest.complete("Bearer " + ar.result().body()));
+
+		Future<Void> importRequest = Future.future();
+		tokenRequest.compose(token -> {
+			webClient.post("/api/import")
+				.putHeader("Authorization", token)
+				.as(BodyCodec.jsonObject())
+				.sendBuffer(Buffer.buffer(ndjson.toString()), ar -> {
+					context.assertEquals(25L, ar.result().body().getLong("imported"));
+					importRequest.complete();
+				});
+		}, importRequest);
+
+		Future<String> exportRequest = Future.future();
+		importRequest.compose(v -> {
+			webClient.get("/api/export")
+				.putHeader("Authorization", tokenRequest.result())
+				.as(BodyCodec.string())
+				.send(ar -> {
+					context.assertEquals("application/x-ndjson", ar.result().getHeader("Content-Type"));
+					exportRequest.complete(ar.result().body());
+				});
+		}, exportRequest);
+
+		exportRequest.compose(export -> {
+			String[] lines = export.split("\n");
+			context.assertEquals(25, lines.length);
+			context.assertEquals("# Page 24 \u00e9", new JsonObject(lines[24]).getString("markdown"));
+
+			webClient.get("/api/export?gzip=true")
+				.putHeader("Authorization", tokenRequest.result())
+				.send(ar -> {
+					context.assertEquals("gzip", ar.result().getHeader("Content-Encoding"));
+					try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(ar.result().body().getBytes()))) {
+						ByteArrayOutputStream out = new ByteArrayOutputStream();
+						byte[] bytes = new byte[4096];
+						for (int read; (read = in.read(bytes)) > 0;) {
+							out.write(bytes, 0, read);
+						}
+						context.assertEquals(export, new String(out.toByteArray(), StandardCharsets.UTF_8));
+					} catch (IOException e) {
+						context.fail(e);
+					}
+					async.complete();
+				});
+		}, Future.failedFuture("Oh?"));
+	}
+
+	@Test
+	public void server_timing(TestContext context) {
+		Async async = context.async();
+
+		Future<String> tokenRequest = Future.future();
+		webClient.get("/api/token")
+			.putHeader("login", "foo")
+			.putHeader("password", "bar")
+			.as(BodyCodec.string())
+			.send(ar -> tokenRequest.complete("Bearer " + ar.result().body()));
+
+		Future<Void> postRequest = Future.future();
+		tokenRequest.compose(token -> {
+			webClient.post("/api/pages")
+				.putHeader("Authorization", token)
+				.sendJsonObject(new JsonObject().put("name", "Timed").put("markdown", "# Timed"), ar -> {
+					context.assertEquals(201, ar.result().statusCode());
+					postRequest.complete();
+				});
+		}, postRequest);
+
+		postRequest.compose(v -> {
+			webClient.get("/api/pages/0")
+				.putHeader("Authorization", tokenRequest.result())
+				.send(ar -> {
+					context.assertEquals(200, ar.result().statusCode());
+					// Stages from both verticles, in the order they were reached
+					String timing = ar.result().getHeader("Server-Timing");
+					context.assertNotNull(timing);
+					int auth = timing.indexOf("auth;dur=");
+					int jdbc = timing.indexOf(", jdbc;dur=");
+					int db = timing.indexOf(", db;dur=");
+					int markdown = timing.indexOf(", markdown;dur=");
+					context.assertTrue(auth == 0, timing);
+					context.assertTrue(timing.contains(", eventbus;dur="), timing);
+					context.assertTrue(auth < jdbc && jdbc < db && db < markdown, timing);
+					context.assertTrue(timing.matches(".*, total;dur=[0-9.]+"), timing);
+					async.complete();
+				});
+		}, Future.failedFuture("Oh?"));
+	}
+
+	@Test
+	public void page_events(TestContext context) {
+		Async async = context.async();
+
+		Future<String> tokenRequest = Future.future();
+		webClient.get("/api/token")
+			.putHeader("login", "foo")
+			.putHeader("password", "bar")
+			.as(BodyCodec.string())
+			.send(ar -> tokenRequest.complete("Bearer " + ar.result().body()));
+
+		// The response never ends, read it as it comes
+		HttpClient httpClient = vertx.createHttpClient(new HttpClientOptions()
+				.setSsl(true)
+				.setTrustOptions(new JksOptions().setPath("server-keystore.jks").setPassword("secret")));
+		StringBuilder received = new StringBuilder();
+		Future<Void> subscribed = Future.future();
+		tokenRequest.compose(token -> {
+			httpClient.get(8080, "localhost", "/api/events", response -> {
+				context.assertEquals(200, response.statusCode());
+				context.assertTrue(response.getHeader("Content-Type").startsWith("text/event-stream"));
+				subscribed.complete();
+				response.handler(buffer -> {
+					received.append(buffer.toString());
+					if (received.indexOf("event: deleted") >= 0) {
+						context.assertTrue(received.indexOf("event: created\ndata: {\"event\":\"created\",\"name\":\"Pushed\"}") >= 0,
+								received.toString());
+						context.assertTrue(received.indexOf("event: updated\ndata: {\"event\":\"updated\",\"id\":0}") >= 0,
+								received.toString());
+						httpClient.close();
+						async.complete();
+					}
+				});
+			}).putHeader("Authorization", token).end();
+		}, subscribed);
+
+		Future<Void> postRequest = Future.future();
+		subscribed.compose(v -> {
+			webClient.post("/api/pages")
+				.putHeader("Authorization", tokenRequest.result())
+				.sendJsonObject(new JsonObject().put("name", "Pushed").put("markdown", "# Pushed"), ar -> {
+					context.assertEquals(201, ar.result().statusCode());
+					postRequest.complete();
+				});
+		}, postRequest);
+
+		Future<Void> putRequest = Future.future();
+		postRequest.compose(v -> {
+			webClient.put("/api/pages/0")
+				.putHeader("Authorization", tokenRequest.result())
+				.sendJsonObject(new JsonObject().put("markdown", "# Pushed again"), ar -> {
+					context.assertEquals(200, ar.result().statusCode());
+					putRequest.complete();
+				});
+		}, putRequest);
+
+		putRequest.compose(v -> {
+			webClient.delete("/api/pages/0")
+				.putHeader("Authorization", tokenRequest.result())
+				.send(ar -> context.assertEquals(200, ar.result().statusCode()));
+		}, Future.failedFuture("Oh?"));
+	}
+
+	@Test
+	public void page_views(TestContext context) {
+		Async async = context.async();
+
+		webClient.get("/api/token")
+			.putHeader("login", "foo")
+			.putHeader("password", "bar")
+			.as(BodyCodec.string())
+			.send(context.asyncAssertSuccess(tokenResponse -> {
+				String token = "Bearer " + tokenResponse.body();
+				webClient.post("/api/pages").putHeader("Authorization", token)
+					.sendJsonObject(new JsonObject().put("name", "Seldom").put("markdown", "Seldom"),
+							context.asyncAssertSuccess(first -> {
+				webClient.post("/api/pages").putHeader("Authorization", token)
+					.sendJsonObject(new JsonObject().put("name", "Popular").put("markdown", "Popular"),
+							context.asyncAssertSuccess(second -> {
+					// Page 1 viewed 3 times, page 0 once
+					Future<Void> viewed = Future.succeededFuture();
+					for (int id : new int[] { 1, 0, 1, 1 }) {
+						viewed = viewed.compose(v -> {
+							Future<Void> view = Future.future();
+							webClient.get("/api/pages/" + id).putHeader("Authorization", token)
+								.send(ar -> view.complete());
+							return view;
+						});
+					}
+					viewed.setHandler(context.asyncAssertSuccess(v -> vertx.setTimer(500, flushed -> {
+						webClient.get("/api/pages/top").putHeader("Authorization", token)
+							.as(BodyCodec.jsonObject())
+							.send(context.asyncAssertSuccess(top -> {
+								JsonArray pages = top.body().getJsonArray("pages");
+								context.assertEquals(2, pages.size());
+								context.assertEquals("Popular", pages.getJsonObject(0).getString("name"));
+								context.assertEquals(3L, pages.getJsonObject(0).getLong("viewCount"));
+								context.assertEquals(1L, pages.getJsonObject(1).getLong("viewCount"));
+
+								// Flushed views are not added twice
+								vertx.setTimer(300, later -> webClient.get("/api/pages/top?limit=1")
+									.putHeader("Authorization", token)
+									.as(BodyCodec.jsonObject())
+									.send(context.asyncAssertSuccess(limited -> {
+										JsonArray limitedPages = limited.body().getJsonArray("pages");
+										context.assertEquals(1, limitedPages.size());
+										context.assertEquals(3L, limitedPages.getJsonObject(0).getLong("viewCount"));
+
+										webClient.get("/api/pages/top?limit=abc")
+											.putHeader("Authorization", token)
+											.as(BodyCodec.jsonObject())
+											.send(context.asyncAssertSuccess(bad -> {
+												context.assertEquals(400, bad.statusCode());
+												context.assertFalse(bad.body().getBoolean("success"));
+												async.complete();
+											}));
+									})));
+							}));
+					})));
+				}));
+			}));
+		}));
+	}
+
+	@Test
+	public void rate_limits(TestContext context) {
+		Async async = context.async();
+
+		// Without a token: the per-IP limit runs before the token check, each request spends a token
+		Future<Void> rejected = Future.succeededFuture();
+		for (int i = 0; i < WRITE_BURST; i++) {
+			int remaining = WRITE_BURST - i - 1;
+			rejected = rejected.compose(v -> {
+				Future<Void> request = Future.future();
+				webClient.delete("/api/pages/0").send(context.asyncAssertSuccess(response -> {
+					context.assertEquals(401, response.statusCode());
+					context.assertEquals(String.valueOf(WRITE_BURST), response.getHeader("X-RateLimit-Limit"));
+					context.assertEquals(String.valueOf(remaining), response.getHeader("X-RateLimit-Remaining"));
+					context.assertNotNull(response.getHeader("X-RateLimit-Reset"));
+					request.complete();
+				}));
+				return request;
+			});
+		}
+		rejected.setHandler(context.asyncAssertSuccess(v -> {
+			webClient.delete("/api/pages/0").send(context.asyncAssertSuccess(limited -> {
+				context.assertEquals(429, limited.statusCode());
+				context.assertEquals("0", limited.getHeader("X-RateLimit-Remaining"));
+				// 10s between two writes at 0.1 per second
+				int retryAfter = Integer.parseInt(limited.getHeader("Retry-After"));
+				context.assertTrue(retryAfter > 0 && retryAfter <= 10, "Retry-After " + retryAfter);
+
+				// Reads have their own budget
+				webClient.get("/api/token").putHeader("login", "foo").putHeader("password", "bar")
+					.as(BodyCodec.string())
+					.send(context.asyncAssertSuccess(token -> webClient.get("/api/pages")
+						.putHeader("Authorization", "Bearer " + token.body())
+						.send(context.asyncAssertSuccess(read -> {
+							context.assertEquals(200, read.statusCode());
+							context.assertEquals("100", read.getHeader("X-RateLimit-Limit"));
+							async.complete();
+						}))));
+			}));
+		}));
+	}
+
+	@Test
+	public void readiness(TestContext context) {
+		Async async = context.async();
+
+		// Deployed without MainVerticle: the startup phase never ends until reported
+		webClient.get("/health/ready")
+			.as(BodyCodec.jsonObject())
+			.send(context.asyncAssertSuccess(starting -> {
+				context.assertEquals(503, starting.statusCode());
+				context.assertFalse(starting.body().getBoolean("ready"));
+
+				// What MainVerticle reports as its warm-up steps complete
+				StartupStatus.step(vertx, "warmup-db", 12);
+				StartupStatus.ready(vertx, 34);
+				webClient.get("/health/ready")
+					.as(BodyCodec.jsonObject())
+					.send(context.asyncAssertSuccess(ready -> {
+						context.assertEquals(200, ready.statusCode());
+						context.assertTrue(ready.body().getBoolean("ready"));
+						context.assertEquals(34L, ready.body().getLong("totalMillis"));
+						context.assertEquals(12L, ready.body().getJsonObject("steps").getLong("warmup-db"));
+						async.complete();
+					}));
+			}));
+	}
 }
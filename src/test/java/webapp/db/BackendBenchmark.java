@@ -0,0 +1,168 @@
+package webapp.db;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.junit.Test;
+
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+import com.vertxexploration.webapp.db.WikiDatabaseVerticle;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Compares the JDBC (HSQLDB) and log-structured backends through the event
+ * bus proxy, the way the HTTP verticles use them: bulk import, random page
+ * reads, saves and the restart time on existing files. Not part of the test
+ * suite, run it with:
+ *
+ * <pre>
+ * mvn test -Dtest=BackendBenchmark -Dbenchmark.pages=50000
+ * </pre>
+ */
+public class BackendBenchmark {
+
+	private static final int PAGES = Integer.getInteger("benchmark.pages", 20000);
+	private static final int PAGE_SIZE = Integer.getInteger("benchmark.page_size", 2048);
+	private static final int OPERATIONS = Integer.getInteger("benchmark.operations", 20000);
+	private static final int BATCH = 500;
+	private static final int CONCURRENCY = 16;
+
+	@Test
+	public void backends() throws Exception {
+		System.out.println("Backends, " + PAGES + " pages of " + PAGE_SIZE + " chars");
+		System.out.println(String.format("%-6s %12s %12s %12s %12s", "", "import/s", "reads/s", "saves/s",
+				"restart ms"));
+		for (String backend : new String[] { "jdbc", "log" }) {
+			run(backend);
+		}
+	}
+
+	private void run(String backend) throws Exception {
+		File directory = Files.createTempDirectory("wiki-bench").toFile();
+		JsonObject conf = new JsonObject()
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_BACKEND, backend)
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL,
+						"jdbc:hsqldb:file:" + directory.getPath() + "/wiki;shutdown=true")
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, CONCURRENCY)
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_DIR, directory.getPath() + "/pages");
+		try {
+			Vertx vertx = Vertx.vertx();
+			WikiDatabaseService service = deploy(vertx, conf);
+			String markdown = markdown();
+			long start = System.nanoTime();
+			for (int from = 0; from < PAGES; from += BATCH) {
+				JsonArray batch = new JsonArray();
+				for (int i = from; i < Math.min(PAGES, from + BATCH); i++) {
+					batch.add(new JsonObject().put("name", "Page " + i).put("markdown", markdown));
+				}
+				this.<Integer>await(handler -> service.importPages(batch, handler));
+			}
+			double importRate = PAGES / ((System.nanoTime() - start) / 1e9);
+
+			Random random = new Random(7);
+			double readRate = concurrently((i, done) -> service.fetchPage("Page " + random.nextInt(PAGES),
+					ar -> done.handle(ar.mapEmpty())));
+			// One save per page at a time, concurrent saves of a page race on its revision number
+			double saveRate = concurrently((i, done) -> service.savePage(i % PAGES + 1, markdown + i, done));
+			close(vertx);
+
+			start = System.nanoTime();
+			vertx = Vertx.vertx();
+			deploy(vertx, conf);
+			long restartMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			close(vertx);
+
+			System.out.println(String.format("%-6s %12.0f %12.0f %12.0f %12d", backend, importRate, readRate,
+					saveRate, restartMillis));
+		} finally {
+			delete(directory);
+		}
+	}
+
+	private String markdown() {
+		StringBuilder content = new StringBuilder(PAGE_SIZE);
+		Random random = new Random(42);
+		while (content.length() < PAGE_SIZE) {
+			content.append("word").append(random.nextInt(1000)).append(' ');
+		}
+		return content.substring(0, PAGE_SIZE);
+	}
+
+	/**
+	 * Run OPERATIONS numbered calls, CONCURRENCY at a time.
+	 *
+	 * @return the calls per second
+	 */
+	private double concurrently(BiConsumer<Integer, Handler<AsyncResult<Void>>> operation) throws Exception {
+		CompletableFuture<Void> done = new CompletableFuture<>();
+		AtomicInteger started = new AtomicInteger();
+		AtomicInteger finished = new AtomicInteger();
+		long start = System.nanoTime();
+		Handler<Void> next = new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				int i = started.getAndIncrement();
+				if (i >= OPERATIONS) {
+					return;
+				}
+				operation.accept(i, ar -> {
+					if (ar.failed()) {
+						done.completeExceptionally(ar.cause());
+					} else if (finished.incrementAndGet() == OPERATIONS) {
+						done.complete(null);
+					} else {
+						handle(null);
+					}
+				});
+			}
+		};
+		for (int i = 0; i < CONCURRENCY; i++) {
+			next.handle(null);
+		}
+		done.get(10, TimeUnit.MINUTES);
+		return OPERATIONS / ((System.nanoTime() - start) / 1e9);
+	}
+
+	private WikiDatabaseService deploy(Vertx vertx, JsonObject conf) throws Exception {
+		this.<String>await(handler -> vertx.deployVerticle(new WikiDatabaseVerticle(),
+				new DeploymentOptions().setConfig(conf), handler));
+		return WikiDatabaseService.createProxy(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+	}
+
+	private void close(Vertx vertx) throws Exception {
+		this.<Void>await(vertx::close);
+	}
+
+	private void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private <T> T await(Handler<Handler<AsyncResult<T>>> call) throws Exception {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		call.handle(ar -> {
+			if (ar.succeeded()) {
+				future.complete(ar.result());
+			} else {
+				future.completeExceptionally(ar.cause());
+			}
+		});
+		return future.get(10, TimeUnit.MINUTES);
+	}
+}
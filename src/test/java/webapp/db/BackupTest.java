@@ -0,0 +1,172 @@
+package webapp.db;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.vertxexploration.webapp.backup.BackupJobs;
+import com.vertxexploration.webapp.backup.GistBackup;
+import com.vertxexploration.webapp.backup.LocalBackup;
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+import com.vertxexploration.webapp.db.WikiDatabaseVerticle;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+
+@RunWith(VertxUnitRunner.class)
+public class BackupTest {
+
+	private Vertx vertx;
+	private WikiDatabaseService service;
+	private File directory;
+
+	@Before
+	public void prepare(TestContext context) throws Exception {
+		vertx = Vertx.vertx();
+		directory = Files.createTempDirectory("wiki-backups").toFile();
+
+		JsonObject conf = new JsonObject()
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4);
+
+		vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf),
+				context.asyncAssertSuccess(id -> service = WikiDatabaseService.createProxy(vertx,
+						WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE)));
+	}
+
+	@After
+	public void finish(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void incremental_backup_and_restore(TestContext context) {
+		Async async = context.async();
+		LocalBackup backup = new LocalBackup(vertx, service, directory.getPath(), 2); // several batches per snapshot
+
+		JsonArray pages = new JsonArray();
+		for (int i = 0; i < 5; i++) {
+			pages.add(new JsonObject().put("name", "Page " + i).put("markdown", "v1 of " + i));
+		}
+
+		service.importPages(pages, context.asyncAssertSuccess(imported -> {
+			backup.backup(context.asyncAssertSuccess(first -> {
+				context.assertEquals(5, first.getInteger("pages"));
+
+				service.fetchPage("Page 1", context.asyncAssertSuccess(page1 -> {
+				service.fetchPage("Page 2", context.asyncAssertSuccess(page2 -> {
+				service.savePage(page1.getInteger("id"), "v2 of 1", context.asyncAssertSuccess(saved -> {
+				service.deletePage(page2.getInteger("id"), context.asyncAssertSuccess(deleted -> {
+
+					// Only the saved page goes into the second snapshot
+					backup.backup(context.asyncAssertSuccess(second -> {
+						context.assertEquals(1, second.getInteger("pages"));
+
+						// Damage the wiki, restore must bring back the state of the second backup
+						service.savePage(page1.getInteger("id"), "lost", context.asyncAssertSuccess(v1 -> {
+						service.createPage("Extra", "lost", context.asyncAssertSuccess(v2 -> {
+						backup.restore(context.asyncAssertSuccess(report -> {
+							context.assertEquals(4, report.getInteger("restored"));
+							context.assertEquals(1, report.getInteger("deleted"));
+
+							service.exportPages(-1, 10, context.asyncAssertSuccess(restored -> {
+								JsonObject byName = new JsonObject();
+								restored.forEach(page -> byName.put(((JsonObject) page).getString("name"),
+										((JsonObject) page).getString("markdown")));
+								context.assertEquals(new JsonObject()
+										.put("Page 0", "v1 of 0")
+										.put("Page 1", "v2 of 1")
+										.put("Page 3", "v1 of 3")
+										.put("Page 4", "v1 of 4"), byName);
+								async.complete();
+							}));
+						}));
+						}));
+						}));
+					}));
+				}));
+				}));
+				}));
+				}));
+			}));
+		}));
+	}
+
+	@Test
+	public void gist_backup_job_with_stub_endpoint(TestContext context) {
+		Async async = context.async();
+
+		// Stands in for the GitHub API, records the files of each gist
+		JsonArray uploaded = new JsonArray();
+		HttpServer stub = vertx.createHttpServer().requestHandler(request -> request.bodyHandler(body -> {
+			JsonObject gist = body.toJsonObject();
+			context.assertEquals("token secret", request.getHeader("Authorization"));
+			uploaded.add(gist.getJsonObject("files"));
+			request.response().setStatusCode(201).putHeader("Content-Type", "application/json")
+					.end(new JsonObject().put("html_url", "http://gists/" + uploaded.size()).encode());
+		}));
+
+		JsonArray pages = new JsonArray();
+		for (int i = 0; i < 7; i++) {
+			pages.add(new JsonObject().put("name", "Page " + i).put("markdown", "Content of page " + i));
+		}
+		StringBuilder big = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			big.append("0123456789");
+		}
+		pages.add(new JsonObject().put("name", "Big").put("markdown", big.toString()));
+
+		stub.listen(0, context.asyncAssertSuccess(server -> {
+			WebClient client = WebClient.create(vertx, new WebClientOptions().setMaxPoolSize(2));
+			GistBackup backup = new GistBackup(service, client, "http://localhost:" + server.actualPort() + "/gists",
+					"secret", 600, 3, 2, 3, 5000);
+			BackupJobs jobs = new BackupJobs(vertx, 5);
+
+			service.importPages(pages, context.asyncAssertSuccess(imported -> {
+				JsonObject started = jobs.start("gist", backup);
+				context.assertEquals("running", started.getString("state"));
+
+				vertx.setPeriodic(50, timer -> {
+					JsonObject status = jobs.status(started.getLong("id"));
+					if ("running".equals(status.getString("state"))) {
+						return;
+					}
+					vertx.cancelTimer(timer);
+					context.assertEquals("succeeded", status.getString("state"));
+					JsonObject result = status.getJsonObject("result");
+					context.assertEquals(8, result.getInteger("pages"));
+
+					// 7 small files by 3, then the big page split in 200 character parts
+					context.assertEquals(12, result.getInteger("files"));
+					context.assertEquals(uploaded.size(), result.getJsonArray("gists").size());
+					int files = 0;
+					for (int i = 0; i < uploaded.size(); i++) {
+						JsonObject gist = uploaded.getJsonObject(i);
+						context.assertTrue(gist.size() <= 3);
+						files += gist.size();
+					}
+					context.assertEquals(12, files);
+					context.assertTrue(uploaded.stream().anyMatch(gist -> ((JsonObject) gist).containsKey("Big.part5.md")));
+					context.assertEquals(1, jobs.list().size());
+					async.complete();
+				});
+			}));
+		}));
+	}
+}
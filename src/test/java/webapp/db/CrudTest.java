@@ -1,5 +1,8 @@
 package webapp.db;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -91,5 +94,58 @@ public class CrudTest {
 		}));
 		async.awaitSuccess(5000);
 	}
-	
+
+	@Test
+	public void chunked_content_reads(TestContext context) {
+		Async async = context.async();
+
+		service.createPage("Chunked", "0123456789", context.asyncAssertSuccess(v1 -> {
+			service.fetchPage("Chunked", context.asyncAssertSuccess(json -> {
+				int id = json.getInteger("id");
+				context.assertEquals(10, json.getInteger("contentLength"));
+
+				service.fetchPageContentChunk(id, 4, 4, context.asyncAssertSuccess(chunk1 -> {
+					context.assertEquals("4567", chunk1);
+
+					// Reading past the end gives a short chunk
+					service.fetchPageContentChunk(id, 8, 4, context.asyncAssertSuccess(chunk2 -> {
+						context.assertEquals("89", chunk2);
+
+						// Unknown pages give null
+						service.fetchPageContentChunk(id + 1, 0, 4, context.asyncAssertSuccess(chunk3 -> {
+							context.assertNull(chunk3);
+							async.complete();
+						}));
+					}));
+				}));
+			}));
+		}));
+		async.awaitSuccess(5000);
+	}
+
+	@Test
+	public void page_events(TestContext context) {
+		Async async = context.async();
+		List<JsonObject> events = new ArrayList<>();
+		vertx.eventBus().<JsonObject>consumer(WikiDatabaseVerticle.PAGE_EVENTS_ADDRESS, message -> {
+			events.add(message.body());
+			if (events.size() == 2) {
+				context.assertEquals("created", events.get(0).getString("event"));
+				context.assertEquals("Evented", events.get(0).getString("name"));
+				context.assertEquals("deleted", events.get(1).getString("event"));
+				async.complete();
+			}
+		}).completionHandler(context.asyncAssertSuccess(registered -> {
+
+			service.createPage("Evented", "Some content", context.asyncAssertSuccess(v1 -> {
+				service.fetchPage("Evented", context.asyncAssertSuccess(json -> {
+					// Saves don't change the list of pages, no event for them
+					service.savePage(json.getInteger("id"), "Changed", context.asyncAssertSuccess(v2 -> {
+						service.deletePage(json.getInteger("id"), context.asyncAssertSuccess());
+					}));
+				}));
+			}));
+		}));
+		async.awaitSuccess(5000);
+	}
 }
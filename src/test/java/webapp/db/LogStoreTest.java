@@ -0,0 +1,117 @@
+package webapp.db;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+import com.vertxexploration.webapp.db.WikiDatabaseVerticle;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class LogStoreTest {
+
+	private Vertx vertx;
+	private File directory;
+	private JsonObject conf;
+
+	@Before
+	public void prepare() throws Exception {
+		vertx = Vertx.vertx();
+		directory = Files.createTempDirectory("wiki-log").toFile();
+		conf = new JsonObject()
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_BACKEND, "log")
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_DIR, directory.getPath())
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_SEGMENT_SIZE, 1024) // several segments
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_SYNC_INTERVAL_MS, 0)
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_COMPACTION_INTERVAL_MS, 100)
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_COMPACTION_MIN_BYTES, 0)
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_REVISIONS_SNAPSHOT_INTERVAL, 3);
+	}
+
+	@After
+	public void finish(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void crud_compaction_and_restart(TestContext context) {
+		Async async = context.async();
+
+		vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf),
+				context.asyncAssertSuccess(first -> {
+			WikiDatabaseService service = WikiDatabaseService.createProxy(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+			JsonArray revisions = new JsonArray();
+			for (int i = 1; i <= 6; i++) {
+				revisions.add(new JsonObject().put("name", "Logged").put("markdown", "Revision " + i + " of the page"));
+			}
+
+			// Each imported page is a new revision of the same page
+			service.importPages(revisions, context.asyncAssertSuccess(imported -> {
+			service.createPage("Gone", "Deleted soon", context.asyncAssertSuccess(v1 -> {
+			service.fetchPage("Gone", context.asyncAssertSuccess(gone -> {
+			service.deletePage(gone.getInteger("id"), context.asyncAssertSuccess(v2 -> {
+			service.fetchPage("Logged", context.asyncAssertSuccess(logged -> {
+				context.assertEquals("Revision 6 of the page", logged.getString("rawContent"));
+				int id = logged.getInteger("id");
+
+				// Wait for the background compaction to turn old revisions into deltas
+				vertx.setPeriodic(100, timer -> service.fetchPageRevisions(id, context.asyncAssertSuccess(list -> {
+					if (list.stream().allMatch(revision -> ((JsonObject) revision).getBoolean("snapshot"))) {
+						return;
+					}
+					vertx.cancelTimer(timer);
+					context.assertEquals(6, list.size());
+					context.assertTrue(list.getJsonObject(5).getBoolean("snapshot"));
+
+					service.fetchPageRevision(id, 2, context.asyncAssertSuccess(revision2 -> {
+						context.assertEquals("Revision 2 of the page", revision2.getString("content"));
+
+						// Restart on the same files
+						vertx.close(context.asyncAssertSuccess(closed -> {
+							vertx = Vertx.vertx();
+							vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf),
+									context.asyncAssertSuccess(second -> {
+								WikiDatabaseService restarted = WikiDatabaseService.createProxy(vertx,
+										WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+								restarted.fetchAllPages(context.asyncAssertSuccess(names -> {
+									context.assertEquals(new JsonArray().add("Logged"), names);
+								restarted.fetchPageRevision(id, 1, context.asyncAssertSuccess(revision1 -> {
+									context.assertEquals("Revision 1 of the page", revision1.getString("content"));
+
+									// Ids of deleted pages are not handed out again
+									restarted.createPage("New", "After restart", context.asyncAssertSuccess(v3 -> {
+									restarted.fetchPage("New", context.asyncAssertSuccess(created -> {
+										context.assertTrue(created.getInteger("id") > gone.getInteger("id"));
+										async.complete();
+									}));
+									}));
+								}));
+								}));
+							}));
+						}));
+					}));
+				})));
+			}));
+			}));
+			}));
+			}));
+			}));
+		}));
+	}
+}
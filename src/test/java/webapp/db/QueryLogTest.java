@@ -0,0 +1,80 @@
+package webapp.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.vertxexploration.webapp.db.QueryLog;
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+import com.vertxexploration.webapp.db.WikiDatabaseVerticle;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class QueryLogTest {
+
+	private Vertx vertx;
+	private WikiDatabaseService service;
+
+	@Before
+	public void prepare(TestContext context) {
+		vertx = Vertx.vertx();
+
+		// Every statement is slow
+		JsonObject conf = new JsonObject()
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_SLOW_QUERY_MS, 0);
+
+		vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf),
+				context.asyncAssertSuccess(id -> service = WikiDatabaseService.createProxy(vertx,
+						WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE)));
+	}
+
+	@After
+	public void finish(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	@Test
+	public void statistics_and_plans_by_query(TestContext context) {
+		Async async = context.async();
+
+		service.createPage("Logged", "Some content", context.asyncAssertSuccess(v1 -> {
+			service.fetchPage("Logged", context.asyncAssertSuccess(page1 -> {
+				service.fetchPage("Logged", context.asyncAssertSuccess(page2 -> {
+
+					JsonObject queries = QueryLog.stats(vertx).getJsonObject("queries");
+					JsonObject getPage = queries.getJsonObject("GET_PAGE");
+					context.assertEquals(2L, getPage.getLong("count"));
+					context.assertEquals(2L, getPage.getLong("slow"));
+					context.assertEquals(0L, getPage.getLong("failed"));
+					context.assertTrue(getPage.getDouble("maxMillis") >= getPage.getDouble("avgMillis"));
+					context.assertEquals(1L, queries.getJsonObject("CREATE_PAGE").getLong("count"));
+
+					// The plan is captured in the background, once
+					long timer = vertx.setPeriodic(20, id -> {
+						String plan = QueryLog.stats(vertx).getJsonObject("queries").getJsonObject("GET_PAGE")
+								.getString("plan");
+						if (plan != null) {
+							vertx.cancelTimer(id);
+							context.assertTrue(plan.contains("PAGES"), plan);
+							async.complete();
+						}
+					});
+					vertx.setTimer(5000, id -> {
+						if (vertx.cancelTimer(timer)) {
+							context.fail("No plan captured");
+						}
+					});
+				}));
+			}));
+		}));
+	}
+}
@@ -0,0 +1,148 @@
+package webapp.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+import com.vertxexploration.webapp.db.WikiDatabaseVerticle;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class RevisionTest {
+
+	private Vertx vertx;
+	private WikiDatabaseService service;
+
+	@Before
+	public void prepare(TestContext context) throws InterruptedException {
+		vertx = Vertx.vertx();
+
+		JsonObject conf = new JsonObject()
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_REVISIONS_SNAPSHOT_INTERVAL, 3);
+
+		vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf),
+				context.asyncAssertSuccess(id -> service = WikiDatabaseService.createProxy(vertx,
+						WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE)));
+	}
+
+	@After
+	public void finish(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	@Test
+	public void rebuild_every_revision(TestContext context) {
+		Async async = context.async();
+		String[] versions = { "# Runbook\n\nStep 1\n", "# Runbook\n\nStep 1\nStep 2\n", "# Runbook\n\nStep 2\n",
+				"# Run book\n\nStep 2\n", "", "# Runbook\n\nStep 2\nStep 3\n" };
+
+		Future<Integer> created = Future.future();
+		service.createPage("Runbook", versions[0], context.asyncAssertSuccess(v -> {
+			service.fetchPage("Runbook", context.asyncAssertSuccess(json -> created.complete(json.getInteger("id"))));
+		}));
+
+		created.compose(id -> {
+			// Save the versions one after the other
+			Future<Void> saved = Future.succeededFuture();
+			for (int i = 1; i < versions.length; i++) {
+				String markdown = versions[i];
+				saved = saved.compose(v -> {
+					Future<Void> next = Future.future();
+					service.savePage(id, markdown, next);
+					return next;
+				});
+			}
+			return saved.map(id);
+		}).setHandler(context.asyncAssertSuccess(id -> {
+			service.fetchPageRevisions(id, context.asyncAssertSuccess(revisions -> {
+				context.assertEquals(versions.length, revisions.size());
+				assertSnapshots(context, revisions);
+
+				Future<Void> checked = Future.succeededFuture();
+				for (int i = 0; i < versions.length; i++) {
+					int revision = i + 1;
+					String expected = versions[i];
+					checked = checked.compose(v -> {
+						Future<Void> next = Future.future();
+						service.fetchPageRevision(id, revision, context.asyncAssertSuccess(page -> {
+							context.assertEquals(expected, page.getString("content"));
+							next.complete();
+						}));
+						return next;
+					});
+				}
+				checked.setHandler(context.asyncAssertSuccess(v -> {
+					service.fetchPageRevision(id, versions.length + 1, context.asyncAssertSuccess(page -> {
+						context.assertFalse(page.getBoolean("found"));
+						async.complete();
+					}));
+				}));
+			}));
+		}));
+		async.awaitSuccess(5000);
+	}
+
+	@Test
+	public void concurrent_saves(TestContext context) {
+		Async async = context.async();
+		int saves = 12;
+
+		service.createPage("Busy", "v0", context.asyncAssertSuccess(v -> {
+			service.fetchPage("Busy", context.asyncAssertSuccess(json -> {
+				int id = json.getInteger("id");
+
+				// All sent at once, they run on several pooled connections
+				@SuppressWarnings("rawtypes")
+				List<Future> saved = new ArrayList<>();
+				for (int i = 1; i <= saves; i++) {
+					Future<Void> save = Future.future();
+					service.savePage(id, "v" + i, save);
+					saved.add(save);
+				}
+				CompositeFuture.all(saved).setHandler(context.asyncAssertSuccess(all -> {
+					service.fetchPageRevisions(id, context.asyncAssertSuccess(revisions -> {
+						context.assertEquals(saves + 1, revisions.size());
+						for (int i = 0; i < revisions.size(); i++) {
+							context.assertEquals(i + 1, revisions.getJsonObject(i).getInteger("revision"));
+						}
+						// Each revision was recorded against the content it replaced
+						service.fetchPageById(id, context.asyncAssertSuccess(page -> {
+							service.fetchPageRevision(id, saves + 1, context.asyncAssertSuccess(last -> {
+								context.assertEquals(page.getString("content"), last.getString("content"));
+								async.complete();
+							}));
+						}));
+					}));
+				}));
+			}));
+		}));
+		async.awaitSuccess(10000);
+	}
+
+	private void assertSnapshots(TestContext context, JsonArray revisions) {
+		// Revision 1 is a snapshot, and no delta chain is longer than the snapshot interval
+		context.assertTrue(revisions.getJsonObject(0).getBoolean("snapshot"));
+		context.assertFalse(revisions.getJsonObject(1).getBoolean("snapshot"));
+		int sinceSnapshot = 0;
+		for (int i = 1; i < revisions.size(); i++) {
+			sinceSnapshot = revisions.getJsonObject(i).getBoolean("snapshot") ? 0 : sinceSnapshot + 1;
+			context.assertTrue(sinceSnapshot < 3);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package webapp.db;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+import com.vertxexploration.webapp.db.WikiDatabaseVerticle;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.serviceproxy.ServiceException;
+
+@RunWith(VertxUnitRunner.class)
+public class ShardTest {
+
+	private static final int SHARDS = 3;
+	private static final int PAGES = 20;
+
+	private Vertx vertx;
+	private WikiDatabaseService service;
+	private final String[] deployments = new String[SHARDS];
+
+	@Before
+	public void prepare(TestContext context) {
+		vertx = Vertx.vertx();
+		JsonObject conf = new JsonObject()
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:sharddb;shutdown=true")
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_SHARDS, SHARDS);
+		for (int shard = 0; shard < SHARDS; shard++) {
+			JsonObject shardConf = WikiDatabaseVerticle.shardConfig(conf, shard);
+			int deployed = shard;
+			vertx.deployVerticle(new WikiDatabaseVerticle(), WikiDatabaseVerticle.deploymentOptions(shardConf),
+					context.asyncAssertSuccess(id -> deployments[deployed] = id));
+		}
+		service = WikiDatabaseService.createShardedProxy(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, SHARDS,
+				new DeliveryOptions());
+	}
+
+	@After
+	public void finish(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	@Test
+	public void pages_spread_over_shards(TestContext context) {
+		Async async = context.async();
+
+		JsonArray pages = new JsonArray();
+		for (int i = 1; i < PAGES; i++) {
+			pages.add(new JsonObject().put("name", "Page " + i).put("markdown", "Content " + i));
+		}
+		service.importPages(pages, context.asyncAssertSuccess(imported -> {
+			context.assertEquals(PAGES - 1, imported);
+
+			service.createPage("Page " + PAGES, "Content " + PAGES, context.asyncAssertSuccess(created -> {
+				service.fetchAllPages(context.asyncAssertSuccess(names -> {
+					context.assertEquals(PAGES, names.size());
+					context.assertEquals("Page 1", names.getString(0));
+					context.assertEquals("Page 10", names.getString(1));
+
+					// Small pages, so that they interleave the shards
+					exportAll(context, -1, new ArrayList<>(), exported -> {
+						context.assertEquals(PAGES, exported.size());
+						Set<Integer> ids = new HashSet<>();
+						Set<Integer> shards = new HashSet<>();
+						int previous = -1;
+						for (JsonObject page : exported) {
+							int id = page.getInteger("id");
+							context.assertTrue(id > previous, "ids in order");
+							previous = id;
+							ids.add(id);
+							shards.add(id % SHARDS);
+						}
+						context.assertEquals(PAGES, ids.size());
+						context.assertEquals(SHARDS, shards.size());
+
+						JsonObject last = exported.get(exported.size() - 1);
+						service.fetchPage(last.getString("name"), context.asyncAssertSuccess(byName -> {
+							context.assertTrue(byName.getBoolean("found"));
+							context.assertEquals(last.getInteger("id"), byName.getInteger("id"));
+
+							int id = last.getInteger("id");
+							service.savePage(id, "Saved", context.asyncAssertSuccess(saved -> {
+								service.fetchPageById(id, context.asyncAssertSuccess(byId -> {
+									context.assertEquals("Saved", byId.getString("content"));
+
+									service.deletePage(id, context.asyncAssertSuccess(deleted -> {
+										service.fetchAllPagesData(context.asyncAssertSuccess(data -> {
+											context.assertEquals(PAGES - 1, data.size());
+											async.complete();
+										}));
+									}));
+								}));
+							}));
+						}));
+					});
+				}));
+			}));
+		}));
+	}
+
+	@Test
+	public void views_of_failed_shards(TestContext context) {
+		Async async = context.async();
+
+		JsonArray pages = new JsonArray();
+		for (int i = 1; i <= PAGES; i++) {
+			pages.add(new JsonObject().put("name", "Page " + i).put("markdown", "Content " + i));
+		}
+		service.importPages(pages, context.asyncAssertSuccess(imported -> {
+			exportAll(context, -1, new ArrayList<>(), exported -> {
+				JsonObject views = new JsonObject();
+				exported.forEach(page -> views.put(String.valueOf(page.getInteger("id")), 1L));
+
+				// The shard of the ids equal to 1 modulo the shards goes away
+				vertx.undeploy(deployments[1], context.asyncAssertSuccess(undeployed -> {
+					service.addPageViews(views, context.asyncAssertFailure(failure -> {
+						context.assertTrue(failure instanceof ServiceException);
+						JsonObject notAdded = ((ServiceException) failure).getDebugInfo().getJsonObject("notAdded");
+						context.assertFalse(notAdded.isEmpty());
+						views.forEach(view -> context.assertEquals(Integer.parseInt(view.getKey()) % SHARDS == 1,
+								notAdded.containsKey(view.getKey())));
+						async.complete();
+					}));
+				}));
+			});
+		}));
+	}
+
+	private void exportAll(TestContext context, int afterId, List<JsonObject> exported,
+			Handler<List<JsonObject>> done) {
+		service.exportPages(afterId, 7, context.asyncAssertSuccess(pages -> {
+			if (pages.isEmpty()) {
+				done.handle(exported);
+				return;
+			}
+			pages.forEach(page -> exported.add((JsonObject) page));
+			exportAll(context, exported.get(exported.size() - 1).getInteger("id"), exported, done);
+		}));
+	}
+}
@@ -0,0 +1,155 @@
+package webapp.db;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.vertxexploration.webapp.db.StorageProfile;
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+import com.vertxexploration.webapp.db.WikiDatabaseVerticle;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Loads a large corpus with each storage profile, then measures the import
+ * rate, random page reads, the time to restart on the files and the heap
+ * held afterwards. Not part of the test suite (surefire only picks *Test
+ * classes), run it with:
+ *
+ * <pre>
+ * mvn test -Dtest=StorageProfileBenchmark -Dbenchmark.pages=50000 -Dbenchmark.page_size=4096
+ * </pre>
+ */
+public class StorageProfileBenchmark {
+
+	private static final int PAGES = Integer.getInteger("benchmark.pages", 20000);
+	private static final int PAGE_SIZE = Integer.getInteger("benchmark.page_size", 2048);
+	private static final int READS = Integer.getInteger("benchmark.reads", 5000);
+	private static final int BATCH = 500;
+	private static final int CONCURRENCY = 16;
+
+	@Test
+	public void profiles() throws Exception {
+		System.out.println("Storage profiles, " + PAGES + " pages of " + PAGE_SIZE + " chars");
+		System.out.println(String.format("%-10s %12s %12s %12s %12s", "profile", "import/s", "reads/s",
+				"restart ms", "heap MB"));
+		for (String profile : StorageProfile.names()) {
+			run(profile);
+		}
+	}
+
+	private void run(String profile) throws Exception {
+		File directory = Files.createTempDirectory("wiki-bench").toFile();
+		JsonObject conf = new JsonObject()
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL,
+						"jdbc:hsqldb:file:" + directory.getPath() + "/wiki;shutdown=true")
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, CONCURRENCY)
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_STORAGE_PROFILE, profile);
+		try {
+			Vertx vertx = Vertx.vertx();
+			WikiDatabaseService service = deploy(vertx, conf);
+			double importRate = load(service);
+			close(vertx);
+
+			// Restart on the files, as after a crash or a deployment
+			System.gc();
+			long start = System.nanoTime();
+			vertx = Vertx.vertx();
+			service = deploy(vertx, conf);
+			long restartMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			System.gc();
+			long heap = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+			double readRate = read(service);
+			close(vertx);
+
+			System.out.println(String.format("%-10s %12.0f %12.0f %12d %12d", profile, importRate, readRate,
+					restartMillis, heap / (1024 * 1024)));
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	private double load(WikiDatabaseService service) throws Exception {
+		StringBuilder content = new StringBuilder(PAGE_SIZE);
+		Random random = new Random(42);
+		while (content.length() < PAGE_SIZE) {
+			content.append("word").append(random.nextInt(1000)).append(' ');
+		}
+		String markdown = content.substring(0, PAGE_SIZE);
+
+		long start = System.nanoTime();
+		for (int from = 0; from < PAGES; from += BATCH) {
+			JsonArray batch = new JsonArray();
+			for (int i = from; i < Math.min(PAGES, from + BATCH); i++) {
+				batch.add(new JsonObject().put("name", "Page " + i).put("markdown", markdown));
+			}
+			this.<Integer>await(handler -> service.importPages(batch, handler));
+		}
+		return PAGES / ((System.nanoTime() - start) / 1e9);
+	}
+
+	private double read(WikiDatabaseService service) throws Exception {
+		CompletableFuture<Void> done = new CompletableFuture<>();
+		AtomicInteger started = new AtomicInteger();
+		AtomicInteger finished = new AtomicInteger();
+		Random random = new Random(7);
+		long start = System.nanoTime();
+		Handler<Void> next = new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				if (started.incrementAndGet() > READS) {
+					return;
+				}
+				service.fetchPage("Page " + random.nextInt(PAGES), ar -> {
+					if (ar.failed()) {
+						done.completeExceptionally(ar.cause());
+					} else if (finished.incrementAndGet() == READS) {
+						done.complete(null);
+					} else {
+						handle(null);
+					}
+				});
+			}
+		};
+		for (int i = 0; i < CONCURRENCY; i++) {
+			next.handle(null);
+		}
+		done.get(10, TimeUnit.MINUTES);
+		return READS / ((System.nanoTime() - start) / 1e9);
+	}
+
+	private WikiDatabaseService deploy(Vertx vertx, JsonObject conf) throws Exception {
+		this.<String>await(handler -> vertx.deployVerticle(new WikiDatabaseVerticle(),
+				new DeploymentOptions().setConfig(conf), handler));
+		return WikiDatabaseService.createProxy(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+	}
+
+	private void close(Vertx vertx) throws Exception {
+		this.<Void>await(vertx::close);
+	}
+
+	private <T> T await(Handler<Handler<AsyncResult<T>>> call) throws Exception {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		call.handle(ar -> {
+			if (ar.succeeded()) {
+				future.complete(ar.result());
+			} else {
+				future.completeExceptionally(ar.cause());
+			}
+		});
+		return future.get(10, TimeUnit.MINUTES);
+	}
+}
@@ -0,0 +1,112 @@
+package webapp.db;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+import com.vertxexploration.webapp.db.WikiDatabaseVerticle;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class StorageProfileTest {
+
+	private Vertx vertx;
+	private File directory;
+
+	@Before
+	public void prepare() throws Exception {
+		vertx = Vertx.vertx();
+		directory = Files.createTempDirectory("wiki-db").toFile();
+	}
+
+	@After
+	public void finish(TestContext context) {
+		// Only once closed, and the database with it: the pool closes its connections in the background, and the
+		// database writes its files when the last one goes, then releases its lock file
+		vertx.close(context.asyncAssertSuccess(closed -> {
+			File lock = new File(directory, "wiki.lck");
+			long deadline = System.currentTimeMillis() + 10000;
+			while (lock.exists() && System.currentTimeMillis() < deadline) {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			context.assertFalse(lock.exists(), "database closed");
+			delete(directory);
+		}));
+	}
+
+	private String url() {
+		return "jdbc:hsqldb:file:" + directory.getPath() + "/wiki;shutdown=true";
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	@Test
+	public void large_profile_survives_restart(TestContext context) {
+		Async async = context.async();
+		String url = url();
+		JsonObject conf = new JsonObject()
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, url)
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_STORAGE_PROFILE, "large")
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_STORAGE_SETTINGS, new JsonObject().put("write_delay_ms", 0));
+
+		vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf),
+				context.asyncAssertSuccess(first -> {
+			WikiDatabaseService service = WikiDatabaseService.createProxy(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+			service.createPage("Kept", "On disk", context.asyncAssertSuccess(created -> {
+
+				// Restart, as a new process would
+				vertx.close(context.asyncAssertSuccess(closed -> {
+					vertx = Vertx.vertx();
+					vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf),
+							context.asyncAssertSuccess(second -> {
+						WikiDatabaseService restarted = WikiDatabaseService.createProxy(vertx,
+								WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+						restarted.fetchPage("Kept", context.asyncAssertSuccess(page -> {
+							context.assertEquals("On disk", page.getString("rawContent"));
+
+							// The tables were converted, and the setting kept
+							try (Connection connection = DriverManager.getConnection(url, "SA", "");
+									ResultSet types = connection.createStatement().executeQuery("select HSQLDB_TYPE"
+											+ " from INFORMATION_SCHEMA.SYSTEM_TABLES where TABLE_NAME = 'PAGES'")) {
+								context.assertTrue(types.next());
+								context.assertEquals("CACHED", types.getString(1));
+							} catch (SQLException e) {
+								context.fail(e);
+							}
+							async.complete();
+						}));
+					}));
+				}));
+			}));
+		}));
+	}
+}
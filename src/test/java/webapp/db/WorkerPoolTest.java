@@ -0,0 +1,88 @@
+package webapp.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.vertxexploration.webapp.BlockingPoolMetrics;
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+import com.vertxexploration.webapp.db.WikiDatabaseVerticle;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.metrics.MetricsOptions;
+import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class WorkerPoolTest {
+
+	private static final String DEFAULT_POOL = "vert.x-worker-thread";
+	private static final String CONNECTION_POOL = JDBCClient.DEFAULT_DS_NAME;
+
+	private Vertx vertx;
+	private WikiDatabaseService service;
+
+	@Before
+	public void prepare(TestContext context) {
+		vertx = Vertx.vertx(new VertxOptions().setMetricsOptions(new MetricsOptions().setEnabled(true)
+				.setFactory(new BlockingPoolMetrics())));
+
+		JsonObject conf = new JsonObject()
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 2);
+
+		vertx.deployVerticle(new WikiDatabaseVerticle(), WikiDatabaseVerticle.deploymentOptions(conf),
+				context.asyncAssertSuccess(id -> service = WikiDatabaseService.createProxy(vertx,
+						WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE)));
+	}
+
+	@After
+	public void finish(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	@Test
+	public void queries_run_on_the_database_pool(TestContext context) {
+		Async async = context.async();
+
+		service.createPage("Busy", "Some content", context.asyncAssertSuccess(v -> {
+			JsonObject before = BlockingPoolMetrics.stats(vertx);
+			long defaultCompleted = before.getJsonObject(DEFAULT_POOL).getLong("completed");
+			long dbCompleted = before.getJsonObject(WikiDatabaseVerticle.WORKER_POOL_NAME).getLong("completed");
+
+			// More concurrent queries than connections, the extra ones wait for a connection
+			List<Future> fetches = new ArrayList<>();
+			for (int i = 0; i < 50; i++) {
+				Future<JsonObject> fetch = Future.future();
+				service.fetchPage("Busy", fetch.completer());
+				fetches.add(fetch);
+			}
+			CompositeFuture.all(fetches).setHandler(context.asyncAssertSuccess(all -> {
+				JsonObject after = BlockingPoolMetrics.stats(vertx);
+				JsonObject dbPool = after.getJsonObject(WikiDatabaseVerticle.WORKER_POOL_NAME);
+				context.assertEquals(2, dbPool.getInteger("size"));
+				context.assertTrue(dbPool.getLong("completed") - dbCompleted >= 50);
+
+				JsonObject connections = after.getJsonObject(CONNECTION_POOL);
+				context.assertEquals("datasource", connections.getString("type"));
+				context.assertEquals(0, connections.getInteger("queued"));
+				context.assertTrue(connections.getInteger("maxQueued") > 0);
+				context.assertTrue(connections.getDouble("maxWaitMillis") > 0);
+
+				// Nothing left for the default pool
+				context.assertEquals(defaultCompleted, after.getJsonObject(DEFAULT_POOL).getLong("completed"));
+				async.complete();
+			}));
+		}));
+	}
+}
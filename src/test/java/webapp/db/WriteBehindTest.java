@@ -0,0 +1,105 @@
+package webapp.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.vertxexploration.webapp.db.WikiDatabaseService;
+import com.vertxexploration.webapp.db.WikiDatabaseVerticle;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class WriteBehindTest {
+
+	private Vertx vertx;
+	private WikiDatabaseService service;
+
+	@Before
+	public void prepare(TestContext context) throws InterruptedException {
+		vertx = Vertx.vertx();
+
+		JsonObject conf = new JsonObject()
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+				.put(WikiDatabaseVerticle.CONFIG_WIKIDB_WRITE_BEHIND_WINDOW_MS, 60000L); // only explicit flushes
+
+		vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf),
+				context.asyncAssertSuccess(id -> service = WikiDatabaseService.createProxy(vertx,
+						WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE)));
+	}
+
+	@After
+	public void finish(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	@Test
+	public void coalesce_saves(TestContext context) {
+		Async async = context.async();
+
+		service.createPage("Draft", "v0", context.asyncAssertSuccess(v1 -> {
+			service.fetchPage("Draft", context.asyncAssertSuccess(json1 -> {
+				int id = json1.getInteger("id");
+
+				// Successive saves are buffered, the last one wins
+				service.savePage(id, "v1", context.asyncAssertSuccess(v2 -> {
+					service.savePage(id, "v2", context.asyncAssertSuccess(v3 -> {
+
+						// Reads see the buffered content before it is written
+						service.fetchPageById(id, context.asyncAssertSuccess(json2 -> {
+							context.assertEquals("v2", json2.getString("content"));
+
+							service.flush(context.asyncAssertSuccess(v4 -> {
+								service.fetchPage("Draft", context.asyncAssertSuccess(json3 -> {
+									context.assertEquals("v2", json3.getString("rawContent"));
+
+									// The creation, then a single revision for both saves
+									service.fetchPageRevisions(id, context.asyncAssertSuccess(revisions -> {
+										context.assertEquals(2, revisions.size());
+										async.complete();
+									}));
+								}));
+							}));
+						}));
+					}));
+				}));
+			}));
+		}));
+		async.awaitSuccess(5000);
+	}
+
+	@Test
+	public void save_while_writing(TestContext context) {
+		Async async = context.async();
+
+		service.createPage("Busy", "v0", context.asyncAssertSuccess(v1 -> {
+			service.fetchPage("Busy", context.asyncAssertSuccess(json1 -> {
+				int id = json1.getInteger("id");
+
+				service.savePage(id, "v1", context.asyncAssertSuccess(v2 -> {
+					// A save arriving while v1 is written is kept and written after it
+					service.flush(context.asyncAssertSuccess(v3 -> {
+						service.flush(context.asyncAssertSuccess(v4 -> {
+							service.fetchPage("Busy", context.asyncAssertSuccess(json2 -> {
+								context.assertEquals("v2", json2.getString("rawContent"));
+								service.fetchPageRevisions(id, context.asyncAssertSuccess(revisions -> {
+									context.assertEquals(3, revisions.size());
+									async.complete();
+								}));
+							}));
+						}));
+					}));
+					service.savePage(id, "v2", context.asyncAssertSuccess());
+				}));
+			}));
+		}));
+		async.awaitSuccess(5000);
+	}
+}
@@ -0,0 +1,76 @@
+package webapp.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.vertxexploration.webapp.http.AdmissionController;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpServer;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.reactivex.ext.web.Router;
+
+@RunWith(VertxUnitRunner.class)
+public class AdmissionControllerTest {
+
+	private Vertx vertx;
+	private HttpServer server;
+	private Future<Void> slowStarted;
+
+	@Before
+	public void prepare(TestContext context) {
+		vertx = Vertx.vertx();
+		slowStarted = Future.future();
+
+		// A single read at a time
+		AdmissionController admission = new AdmissionController(vertx, 1, 1, 5000, 5000, 1);
+		Router router = Router.router(io.vertx.reactivex.core.Vertx.newInstance(vertx));
+		router.get("/slow").handler(admission);
+		router.get("/slow").handler(routingContext -> {
+			// Streams set their own close handler, and this one never ends its response
+			routingContext.response().closeHandler(v -> {
+			});
+			slowStarted.complete();
+		});
+		router.get("/fast").handler(admission);
+		router.get("/fast").handler(routingContext -> routingContext.response().end("fast"));
+		server = vertx.createHttpServer()
+				.requestHandler(router.getDelegate()::accept)
+				.listen(0, context.asyncAssertSuccess());
+	}
+
+	@After
+	public void finish(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	@Test
+	public void released_when_client_leaves(TestContext context) {
+		Async async = context.async();
+		int port = server.actualPort();
+		HttpClient client = vertx.createHttpClient();
+
+		HttpClientRequest slow = client.get(port, "localhost", "/slow",
+				response -> context.fail("The client left before the response"));
+		slow.end();
+		slowStarted.setHandler(context.asyncAssertSuccess(started -> {
+			client.getNow(port, "localhost", "/fast", busy -> {
+				context.assertEquals(503, busy.statusCode());
+				context.assertEquals("1", busy.getHeader("Retry-After"));
+
+				slow.connection().close();
+				vertx.setTimer(200, closed -> client.getNow(port, "localhost", "/fast", admitted -> {
+					context.assertEquals(200, admitted.statusCode());
+					async.complete();
+				}));
+			});
+		}));
+	}
+}
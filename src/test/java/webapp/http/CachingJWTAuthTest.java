@@ -0,0 +1,90 @@
+package webapp.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.vertxexploration.webapp.http.CachingJWTAuth;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.KeyStoreOptions;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import io.vertx.ext.auth.jwt.JWTOptions;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class CachingJWTAuthTest {
+
+	private Vertx vertx;
+	private CachingJWTAuth auth;
+
+	@Before
+	public void prepare() {
+		vertx = Vertx.vertx();
+		JWTAuthOptions options = new JWTAuthOptions().setKeyStore(
+				new KeyStoreOptions()
+				.setPath("keystore.jceks")
+				.setPassword("secret"));
+		auth = new CachingJWTAuth(vertx, JWTAuth.create(vertx, options), options.getPermissionsClaimKey(), 100,
+				60000L);
+	}
+
+	@After
+	public void finish(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	@Test
+	public void cache_hits(TestContext context) {
+		Async async = context.async();
+		String token = auth.generateToken(new JsonObject().put("username", "foo").put("canCreate", true),
+				new JWTOptions().setSubject("Wiki API").setIssuer("Vert.x").setExpiresInMinutes(10L));
+		JsonObject authInfo = new JsonObject().put("jwt", token);
+
+		auth.authenticate(authInfo, context.asyncAssertSuccess(first -> {
+			auth.authenticate(authInfo, context.asyncAssertSuccess(second -> {
+				context.assertEquals("foo", second.principal().getString("username"));
+				context.assertEquals(first.principal(), second.principal());
+				// Never the same User, nor the same principal, on two requests
+				context.assertFalse(first == second);
+				context.assertFalse(first.principal() == second.principal());
+				second.principal().put("username", "bar");
+
+				auth.authenticate(authInfo, context.asyncAssertSuccess(third -> {
+					context.assertEquals("foo", third.principal().getString("username"));
+					JsonObject stats = auth.stats();
+					context.assertEquals(1L, stats.getLong("misses"));
+					context.assertEquals(2L, stats.getLong("hits"));
+					async.complete();
+				}));
+			}));
+		}));
+	}
+
+	@Test
+	public void expires_at_exp(TestContext context) {
+		Async async = context.async();
+		String token = auth.generateToken(new JsonObject().put("username", "foo"),
+				new JWTOptions().setExpiresInSeconds(1L));
+		JsonObject authInfo = new JsonObject().put("jwt", token);
+
+		auth.authenticate(authInfo, context.asyncAssertSuccess(first -> {
+			auth.authenticate(authInfo, context.asyncAssertSuccess(second -> {
+				context.assertEquals(1L, auth.stats().getLong("hits"));
+
+				// Well within the TTL, but past exp: verified again, and rejected
+				vertx.setTimer(2100, expired -> auth.authenticate(authInfo, context.asyncAssertFailure(failed -> {
+					JsonObject stats = auth.stats();
+					context.assertEquals(2L, stats.getLong("misses"));
+					context.assertEquals(1L, stats.getLong("hits"));
+					async.complete();
+				})));
+			}));
+		}));
+	}
+}
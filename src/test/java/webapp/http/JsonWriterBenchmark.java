@@ -0,0 +1,105 @@
+package webapp.http;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import com.github.rjeschke.txtmark.Processor;
+import com.vertxexploration.webapp.http.JsonWriter;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Compares the bytes allocated and the time taken to build the API response
+ * bodies as JsonObject trees encoded to a String then copied to a Buffer,
+ * and with the {@link JsonWriter}: the page list of /api/pages and a page of
+ * /api/pages/:id. Not part of the test suite, run it with:
+ *
+ * <pre>
+ * mvn test -Dtest=JsonWriterBenchmark -Dbenchmark.pages=1000
+ * </pre>
+ */
+public class JsonWriterBenchmark {
+
+	private static final int PAGES = Integer.getInteger("benchmark.pages", 200);
+	private static final int PAGE_SIZE = Integer.getInteger("benchmark.page_size", 4096);
+	private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 20000);
+
+	private final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	@Test
+	public void responses() {
+		List<JsonObject> rows = new ArrayList<>();
+		for (int i = 1; i <= PAGES; i++) {
+			rows.add(new JsonObject().put("ID", i).put("NAME", "Page " + i).put("CONTENT", "Content " + i));
+		}
+		String markdown = markdown();
+		String html = Processor.process(markdown);
+
+		System.out.println("API responses, " + PAGES + " pages listed, a page of " + PAGE_SIZE + " chars");
+		System.out.println(String.format("%-22s %14s %14s", "", "bytes/response", "responses/s"));
+		run("list, tree + encode", () -> {
+			List<JsonObject> pages = new ArrayList<>();
+			for (JsonObject row : rows) {
+				pages.add(new JsonObject().put("id", row.getInteger("ID")).put("name", row.getString("NAME")));
+			}
+			return Buffer.buffer(new JsonObject().put("success", true).put("pages", pages).encode());
+		});
+		run("list, writer", () -> {
+			JsonWriter json = JsonWriter.create(32 + 48 * rows.size()).beginObject().put("success", true)
+					.beginArray("pages");
+			for (JsonObject row : rows) {
+				json.beginObject().put("id", row.getInteger("ID")).put("name", row.getString("NAME")).endObject();
+			}
+			return json.endArray().endObject().end();
+		});
+		run("page, tree + encode", () -> Buffer.buffer(new JsonObject()
+				.put("success", true)
+				.put("page", new JsonObject().put("name", "Page").put("id", 1).put("markdown", markdown)
+						.put("html", html))
+				.encode()));
+		run("page, writer", () -> JsonWriter.create(128 + markdown.length() + html.length())
+				.beginObject()
+				.put("success", true)
+				.beginObject("page")
+				.put("name", "Page")
+				.put("id", 1)
+				.put("markdown", markdown)
+				.put("html", html)
+				.endObject()
+				.endObject()
+				.end());
+	}
+
+	private void run(String name, Supplier<Buffer> response) {
+		long checksum = 0;
+		for (int i = 0; i < ITERATIONS; i++) { // warm-up
+			checksum += response.get().length();
+		}
+		long thread = Thread.currentThread().getId();
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			checksum += response.get().length();
+		}
+		long nanos = System.nanoTime() - start;
+		allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+		System.out.println(String.format("%-22s %14d %14.0f%s", name, allocated / ITERATIONS,
+				ITERATIONS / (nanos / 1e9), checksum == 0 ? " (empty)" : ""));
+	}
+
+	private String markdown() {
+		StringBuilder content = new StringBuilder(PAGE_SIZE);
+		Random random = new Random(42);
+		while (content.length() < PAGE_SIZE) {
+			content.append("Some *word").append(random.nextInt(1000)).append("* and \"quotes\".\n\n");
+		}
+		return content.substring(0, PAGE_SIZE);
+	}
+}
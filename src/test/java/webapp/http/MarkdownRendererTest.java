@@ -0,0 +1,104 @@
+package webapp.http;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.github.rjeschke.txtmark.Processor;
+import com.vertxexploration.webapp.http.MarkdownRenderer;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class MarkdownRendererTest {
+
+	// Blocks which render differently depending on their neighbours
+	private static final String[] BLOCKS = {
+			"# Title\n",
+			"Title\n=====\n",
+			"Sub\n---\n",
+			"A paragraph with *emphasis*, `code` and a [link](http://example.com).\n",
+			"Two lines  \nwith a break\n",
+			"- item\n- item *two*\n",
+			"- loose item\n",
+			"1. first\n2. second\n",
+			"3. third\n\n   continued item\n",
+			"* star\n",
+			"    indented code\n",
+			"    more code\n",
+			"> quoted\n",
+			"> quoted again\n",
+			"---\n",
+			"* * *\n",
+			"2019. A paragraph starting with a number\n",
+			"<div>\n\ninside html\n\n</div>\n",
+			"See [the docs][docs].\n",
+			"[docs]: http://example.com/docs\n",
+			"Text with a <b>tag</b>\n",
+			"\tTabbed code\n",
+			"été 😀\n",
+	};
+
+	private Vertx vertx;
+	private MarkdownRenderer renderer;
+
+	@Before
+	public void prepare() {
+		vertx = Vertx.vertx();
+		// Rendered inline, the result handler is called right away
+		renderer = new MarkdownRenderer(vertx, 1, Integer.MAX_VALUE, 1, 1024 * 1024);
+	}
+
+	@After
+	public void finish(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	@Test
+	public void same_html_as_a_whole_render(TestContext context) {
+		Random random = new Random(42);
+		String[] separators = { "", "\n", "\n\n", "\n \n", "\n\n\n" };
+		for (int doc = 0; doc < 2000; doc++) {
+			StringBuilder markdown = new StringBuilder();
+			for (int i = random.nextInt(12); i >= 0; i--) {
+				markdown.append(BLOCKS[random.nextInt(BLOCKS.length)])
+						.append(separators[random.nextInt(separators.length)]);
+			}
+			if (random.nextBoolean()) {
+				markdown.setLength(Math.max(0, markdown.length() - 1)); // no final newline
+			}
+			String expected = Processor.process(markdown.toString());
+			renderer.render(markdown.toString(), context.asyncAssertSuccess(html -> {
+				context.assertEquals(expected, html, markdown.toString());
+			}));
+		}
+	}
+
+	@Test
+	public void only_changed_blocks_are_rendered(TestContext context) {
+		StringBuilder markdown = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			markdown.append("## Step ").append(i).append("\n\nRun the *command* number ").append(i).append(".\n\n");
+		}
+		String page = markdown.toString();
+		String edited = page.replace("number 50.", "number 50, twice.");
+
+		renderer.render(page, context.asyncAssertSuccess(html -> {
+			JsonObject before = renderer.stats().getJsonObject("blockCache");
+			context.assertEquals(200L, before.getLong("misses"));
+
+			renderer.render(edited, context.asyncAssertSuccess(editedHtml -> {
+				context.assertEquals(Processor.process(edited), editedHtml);
+				JsonObject after = renderer.stats().getJsonObject("blockCache");
+				context.assertEquals(201L, after.getLong("misses"));
+				context.assertEquals(199L, after.getLong("hits"));
+			}));
+		}));
+	}
+}
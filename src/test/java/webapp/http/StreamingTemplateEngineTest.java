@@ -0,0 +1,136 @@
+package webapp.http;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.vertxexploration.webapp.http.StreamingTemplateEngine;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.reactivex.ext.web.Router;
+
+@RunWith(VertxUnitRunner.class)
+public class StreamingTemplateEngineTest {
+
+	// Far more than the socket buffers hold, so the paused client fills the write queue
+	private static final int BIG_PAGE_SIZE = 16 * 1024 * 1024;
+	// The templates are plain ASCII, a chunk of chars is as many bytes
+	private static final long MAX_QUEUED_BYTES = StreamingTemplateEngine.MAX_QUEUED_CHUNKS
+			* StreamingTemplateEngine.CHUNK_SIZE;
+
+	private Vertx vertx;
+	private String content;
+	private StreamingTemplateEngine engine;
+	private HttpServer server;
+	private HttpClient client;
+
+	@Before
+	public void prepare() {
+		vertx = Vertx.vertx();
+		StringBuilder big = new StringBuilder(BIG_PAGE_SIZE);
+		while (big.length() < BIG_PAGE_SIZE) {
+			big.append("<p>Some streamed content</p>\n");
+		}
+		content = big.toString();
+		client = vertx.createHttpClient();
+	}
+
+	@After
+	public void finish(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	@Test(timeout = 60000)
+	public void slow_client_queue_stays_bounded(TestContext context) {
+		Async async = context.async();
+
+		// Two renderers: the one waiting for the slow client leaves the other for the next page
+		start(context, 2, 30000, port -> client.getNow(port, "localhost", "/big", big -> {
+			context.assertEquals(200, big.statusCode());
+			context.assertEquals("chunked", big.getHeader("Transfer-Encoding"));
+			big.pause();
+			long[] received = new long[1];
+			big.handler(buffer -> received[0] += buffer.length());
+			big.endHandler(v -> {
+				context.assertTrue(received[0] > BIG_PAGE_SIZE, "whole page received");
+				context.assertEquals(0L, engine.stats().getLong("queuedBytes"));
+				async.complete();
+			});
+
+			// Plenty of time to render the whole page, were the render not held back
+			vertx.setTimer(1000, tick -> {
+				JsonObject stats = engine.stats();
+				context.assertTrue(stats.getLong("queuedBytes") > 0, stats.encode());
+				context.assertTrue(stats.getLong("maxQueuedBytes") <= MAX_QUEUED_BYTES, stats.encode());
+
+				client.getNow(port, "localhost", "/login", login -> {
+					context.assertEquals(200, login.statusCode());
+					login.bodyHandler(body -> {
+						context.assertTrue(body.toString().contains("<title>Login"));
+						big.resume();
+					});
+				});
+			});
+		}));
+	}
+
+	@Test(timeout = 60000)
+	public void render_fails_when_client_does_not_read(TestContext context) {
+		Async async = context.async();
+
+		start(context, 1, 500, port -> client.getNow(port, "localhost", "/big", big -> {
+			big.pause();
+			long[] received = new long[1];
+			big.handler(buffer -> received[0] += buffer.length());
+			big.endHandler(v -> context.fail("the page was not dropped"));
+			big.exceptionHandler(closed -> {
+				context.assertTrue(received[0] < BIG_PAGE_SIZE, "page cut short");
+				async.complete();
+			});
+
+			vertx.setTimer(1500, tick -> {
+				JsonObject stats = engine.stats();
+				context.assertEquals(1L, stats.getLong("drainTimeouts"), stats.encode());
+				context.assertEquals(0L, stats.getLong("queuedBytes"), stats.encode());
+				big.resume();
+			});
+		}));
+	}
+
+	private void start(TestContext context, int poolSize, long drainTimeout, Handler<Integer> handler) {
+		StreamingTemplateEngine.create(vertx, "/templates", Arrays.asList("/page.ftl", "/login.ftl"), poolSize,
+				drainTimeout, context.asyncAssertSuccess(created -> {
+			engine = created;
+			Router router = Router.router(io.vertx.reactivex.core.Vertx.newInstance(vertx));
+			router.get("/big").handler(routingContext -> {
+				routingContext.put("title", "Big");
+				routingContext.put("id", 1);
+				routingContext.put("newPage", "no");
+				routingContext.put("rawContent", "");
+				routingContext.put("content", content);
+				routingContext.put("timestamp", "now");
+				routingContext.put("username", "tester");
+				routingContext.put("canSavePage", false);
+				routingContext.put("canDeletePage", false);
+				engine.render(routingContext, "/page.ftl");
+			});
+			router.get("/login").handler(routingContext -> {
+				routingContext.put("title", "Login");
+				engine.render(routingContext, "/login.ftl");
+			});
+			server = vertx.createHttpServer()
+					.requestHandler(router.getDelegate()::accept)
+					.listen(0, context.asyncAssertSuccess(listening -> handler.handle(listening.actualPort())));
+		}));
+	}
+}